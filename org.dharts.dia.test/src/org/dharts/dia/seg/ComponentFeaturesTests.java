@@ -0,0 +1,182 @@
+package org.dharts.dia.seg;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.dharts.dia.util.BinaryImage;
+import org.junit.Test;
+
+public class ComponentFeaturesTests
+{
+	/** Draws a component into a mask with a one pixel margin of background. */
+	private static boolean[][] mask(RunComponent cc)
+	{
+		int left = cc.getLeft();
+		int top = cc.getTop();
+		boolean[][] mask = new boolean[cc.getBottom() - top + 3][cc.getRight() - left + 3];
+		for (int i = 0; i < cc.getRunCount(); i++)
+		{
+			for (int x = cc.getRunStart(i); x < cc.getRunEnd(i); x++)
+				mask[cc.getRunY(i) - top + 1][x - left + 1] = true;
+		}
+
+		return mask;
+	}
+
+	private static long perimeter(boolean[][] mask)
+	{
+		long edges = 0;
+		for (int y = 1; y < mask.length - 1; y++)
+		{
+			for (int x = 1; x < mask[y].length - 1; x++)
+			{
+				if (!mask[y][x])
+					continue;
+
+				edges += mask[y - 1][x] ? 0 : 1;
+				edges += mask[y + 1][x] ? 0 : 1;
+				edges += mask[y][x - 1] ? 0 : 1;
+				edges += mask[y][x + 1] ? 0 : 1;
+			}
+		}
+
+		return edges;
+	}
+
+	/**
+	 * Counts the holes of a component by flood filling the background of its mask with the
+	 * connectivity complementary to that of the component. The margin joins everything
+	 * outside the component into a single region, so every other region is a hole.
+	 */
+	private static int holes(boolean[][] mask, boolean eightConnected)
+	{
+		int h = mask.length;
+		int w = mask[0].length;
+		boolean[][] seen = new boolean[h][w];
+		int regions = 0;
+		for (int y = 0; y < h; y++)
+		{
+			for (int x = 0; x < w; x++)
+			{
+				if (mask[y][x] || seen[y][x])
+					continue;
+
+				regions++;
+				seen[y][x] = true;
+				Deque<int[]> stack = new ArrayDeque<>();
+				stack.push(new int[] { x, y });
+				while (!stack.isEmpty())
+				{
+					int[] p = stack.pop();
+					for (int dy = -1; dy <= 1; dy++)
+					{
+						for (int dx = -1; dx <= 1; dx++)
+						{
+							if ((dx == 0 && dy == 0) || (eightConnected && dx != 0 && dy != 0))
+								continue;
+
+							int nx = p[0] + dx;
+							int ny = p[1] + dy;
+							if (nx < 0 || ny < 0 || nx >= w || ny >= h || mask[ny][nx] || seen[ny][nx])
+								continue;
+
+							seen[ny][nx] = true;
+							stack.push(new int[] { nx, ny });
+						}
+					}
+				}
+			}
+		}
+
+		return regions - 1;
+	}
+
+	@Test
+	public void featuresMatchPixels()
+	{
+		Random random = new Random(25);
+		for (int t = 0; t < 300; t++)
+		{
+			int w = 1 + random.nextInt(70);
+			int h = 1 + random.nextInt(50);
+			double density = 0.3 + random.nextDouble() * 0.5;
+			boolean eightConnected = random.nextBoolean();
+
+			BinaryImage image = new BinaryImage(w, h);
+			for (int y = 0; y < h; y++)
+			{
+				for (int x = 0; x < w; x++)
+					image.set(x, y, random.nextDouble() < density);
+			}
+
+			ComponentFeatures features = new ComponentFeatures();
+			List<RunComponent> components = new RunLabeler(eightConnected).label(image, features);
+			ComponentFeatures measured = new ComponentFeatures();
+			assertEquals(components.size(), new RunLabeler(eightConnected).measure(image, measured));
+			assertEquals(components.size(), features.getCount());
+
+			for (int c = 0; c < components.size(); c++)
+			{
+				RunComponent cc = components.get(c);
+				boolean[][] mask = mask(cc);
+				int holes = holes(mask, eightConnected);
+				String msg = "image " + t + ", component " + c;
+
+				double sx = 0, sy = 0, sxx = 0, syy = 0, sxy = 0;
+				int area = 0;
+				for (int i = 0; i < cc.getRunCount(); i++)
+				{
+					int y = cc.getRunY(i);
+					for (int x = cc.getRunStart(i); x < cc.getRunEnd(i); x++)
+					{
+						area++;
+						sx += x;
+						sy += y;
+						sxx += (double)x * x;
+						syy += (double)y * y;
+						sxy += (double)x * y;
+					}
+				}
+
+				double mx = sx / area;
+				double my = sy / area;
+				int boxArea = (cc.getRight() - cc.getLeft() + 1) * (cc.getBottom() - cc.getTop() + 1);
+
+				assertEquals(msg, area, features.getArea(c));
+				assertEquals(msg, cc.getBounds(), features.getBounds(c));
+				assertEquals(msg, perimeter(mask), features.getPerimeter(c));
+				assertEquals(msg, holes, features.getHoleCount(c));
+				assertEquals(msg, 1 - holes, features.getEulerNumber(c));
+				assertEquals(msg, mx, features.getCentroidX(c), 1e-9);
+				assertEquals(msg, my, features.getCentroidY(c), 1e-9);
+				assertEquals(msg, sxx / area - mx * mx, features.getVarianceX(c), 1e-6);
+				assertEquals(msg, syy / area - my * my, features.getVarianceY(c), 1e-6);
+				assertEquals(msg, sxy / area - mx * my, features.getCovariance(c), 1e-6);
+				assertEquals(msg, (double)area / boxArea, features.getDensity(c), 1e-12);
+
+				assertEquals(msg, area, measured.getArea(c));
+				assertEquals(msg, holes, measured.getHoleCount(c));
+			}
+		}
+	}
+
+	@Test
+	public void strokeWidthOfBar()
+	{
+		BinaryImage bar = new BinaryImage(1000, 20);
+		for (int y = 5; y < 9; y++)
+		{
+			for (int x = 10; x < 990; x++)
+				bar.set(x, y, true);
+		}
+
+		ComponentFeatures features = new ComponentFeatures();
+		assertEquals(1, new RunLabeler().measure(bar, features));
+		assertEquals(4.0, features.getStrokeWidth(0), 0.05);
+		assertEquals(0.0, features.getOrientation(0), 1e-9);
+	}
+}
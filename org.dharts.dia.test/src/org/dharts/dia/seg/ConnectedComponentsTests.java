@@ -0,0 +1,69 @@
+package org.dharts.dia.seg;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class ConnectedComponentsTests
+{
+	private static final int[][] SIZES = { { 1, 1 }, { 5, 2 }, { 64, 3 }, { 65, 17 }, { 300, 200 }, { 40, 900 } };
+
+	private static void assertParallelMatchesSerial(ExecutorService ex, boolean eightConnected, int values)
+			throws InterruptedException
+	{
+		Random random = new Random(21);
+		ConnectedComponents ccl = new ConnectedComponents(eightConnected);
+		for (int[] size : SIZES)
+		{
+			for (double density : new double[] { 0.3, 0.6 })
+			{
+				int w = size[0];
+				int h = size[1];
+				int[] image = Partitions.randomImage(random, w, h, density);
+				for (int i = 0; i < image.length; i++)
+				{
+					if (image[i] != 0)
+						image[i] = 1 + random.nextInt(values);
+				}
+
+				Partitions.assertSamePartition(ccl.labeling(image, w, h), ccl.labeling(image, w, h, ex));
+			}
+		}
+	}
+
+	@Test
+	public void parallelMatchesSerial() throws InterruptedException
+	{
+		for (int threads : new int[] { 1, 3, 8 })
+		{
+			ExecutorService ex = Executors.newFixedThreadPool(threads);
+			try
+			{
+				assertParallelMatchesSerial(ex, false, 1);
+				assertParallelMatchesSerial(ex, true, 1);
+			}
+			finally
+			{
+				ex.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void parallelMatchesSerialWithSeveralValues() throws InterruptedException
+	{
+		ForkJoinPool ex = new ForkJoinPool(4);
+		try
+		{
+			assertParallelMatchesSerial(ex, false, 3);
+			assertParallelMatchesSerial(ex, true, 3);
+		}
+		finally
+		{
+			ex.shutdown();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package org.dharts.dia.seg;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Helpers for comparing labelings, which identify the same components when they are equal
+ * up to a permutation of the labels.
+ */
+final class Partitions
+{
+	private Partitions()
+	{
+	}
+
+	/** Creates a random binary image with roughly the given fraction of foreground pixels. */
+	static int[] randomImage(Random random, int w, int h, double density)
+	{
+		int[] image = new int[w * h];
+		for (int i = 0; i < image.length; i++)
+			image[i] = (random.nextDouble() < density) ? 1 : 0;
+
+		return image;
+	}
+
+	/** Labels components from <code>1</code> in the order of the supplied list. */
+	static int[] toLabels(List<RunComponent> components, int w, int h)
+	{
+		int[] labels = new int[w * h];
+		int label = 0;
+		for (RunComponent cc : components)
+		{
+			label++;
+			for (int i = 0; i < cc.getRunCount(); i++)
+			{
+				for (int x = cc.getRunStart(i); x < cc.getRunEnd(i); x++)
+					labels[cc.getRunY(i) * w + x] = label;
+			}
+		}
+
+		return labels;
+	}
+
+	/**
+	 * Asserts that two labelings have the same background and that their labels are related
+	 * by a one-to-one mapping.
+	 */
+	static void assertSamePartition(int[] expected, int[] actual)
+	{
+		assertEquals(expected.length, actual.length);
+		Map<Integer, Integer> forward = new HashMap<>();
+		Map<Integer, Integer> backward = new HashMap<>();
+		for (int i = 0; i < expected.length; i++)
+		{
+			assertEquals("background at " + i, expected[i] == 0, actual[i] == 0);
+			if (expected[i] == 0)
+				continue;
+
+			Integer a = forward.put(expected[i], actual[i]);
+			Integer b = backward.put(actual[i], expected[i]);
+			if ((a != null && a != actual[i]) || (b != null && b != expected[i]))
+				throw new AssertionError("The labelings differ at " + i);
+		}
+	}
+}
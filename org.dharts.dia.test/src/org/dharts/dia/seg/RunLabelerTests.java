@@ -0,0 +1,98 @@
+package org.dharts.dia.seg;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.dharts.dia.util.BinaryImage;
+import org.junit.Test;
+
+public class RunLabelerTests
+{
+	private static final int[][] SIZES = { { 1, 1 }, { 64, 3 }, { 65, 7 }, { 128, 40 }, { 300, 200 } };
+
+	private static void assertMatchesConnectedComponents(boolean eightConnected)
+	{
+		Random random = new Random(19);
+		for (int[] size : SIZES)
+		{
+			for (double density : new double[] { 0.25, 0.5, 0.75 })
+			{
+				int w = size[0];
+				int h = size[1];
+				int[] image = Partitions.randomImage(random, w, h, density);
+
+				int[] expected = new ConnectedComponents(eightConnected).labeling(image, w, h);
+				List<RunComponent> components = new RunLabeler(eightConnected).label(image, w, h);
+				Partitions.assertSamePartition(expected, Partitions.toLabels(components, w, h));
+			}
+		}
+	}
+
+	@Test
+	public void fourConnectedMatchesConnectedComponents()
+	{
+		assertMatchesConnectedComponents(false);
+	}
+
+	@Test
+	public void eightConnectedMatchesConnectedComponents()
+	{
+		assertMatchesConnectedComponents(true);
+	}
+
+	@Test
+	public void statisticsMatchPixels()
+	{
+		int w = 200;
+		int h = 150;
+		int[] image = Partitions.randomImage(new Random(7), w, h, 0.4);
+		List<RunComponent> components = new RunLabeler(true).label(image, w, h);
+
+		long total = 0;
+		for (RunComponent cc : components)
+		{
+			int area = 0;
+			double sx = 0;
+			double sy = 0;
+			int left = w, top = h, right = -1, bottom = -1;
+			for (int i = 0; i < cc.getRunCount(); i++)
+			{
+				int y = cc.getRunY(i);
+				for (int x = cc.getRunStart(i); x < cc.getRunEnd(i); x++)
+				{
+					area++;
+					sx += x;
+					sy += y;
+					left = Math.min(left, x);
+					right = Math.max(right, x);
+					top = Math.min(top, y);
+					bottom = Math.max(bottom, y);
+				}
+			}
+
+			assertEquals(area, cc.getArea());
+			assertEquals(left, cc.getLeft());
+			assertEquals(top, cc.getTop());
+			assertEquals(right, cc.getRight());
+			assertEquals(bottom, cc.getBottom());
+			assertEquals(sx / area, cc.getCentroidX(), 1e-9);
+			assertEquals(sy / area, cc.getCentroidY(), 1e-9);
+			total += area;
+		}
+
+		int foreground = 0;
+		for (int px : image)
+			foreground += (px != 0) ? 1 : 0;
+		assertEquals(foreground, total);
+	}
+
+	@Test
+	public void distinctValuesFormOneComponent()
+	{
+		int[] image = { 1, 2, 0, 3, 3, 0 };
+		assertEquals(1, new RunLabeler().label(image, 3, 2).size());
+		assertEquals(1, new RunLabeler().label(BinaryImage.fromArray(image, 3, 2)).size());
+	}
+}
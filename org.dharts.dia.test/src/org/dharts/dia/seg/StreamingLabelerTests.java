@@ -0,0 +1,201 @@
+package org.dharts.dia.seg;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class StreamingLabelerTests
+{
+	private static final int[][] SIZES = { { 1, 1 }, { 1, 50 }, { 50, 1 }, { 64, 64 }, { 130, 200 } };
+
+	/** Collects the components emitted by a labeler into a label image. */
+	private static final class LabelSink implements StreamingLabeler.ComponentSink
+	{
+		private final WritableRaster labels;
+		private int count = 0;
+
+		LabelSink(int w, int h)
+		{
+			labels = Raster.createBandedRaster(DataBuffer.TYPE_INT, w, h, 1, null);
+		}
+
+		@Override
+		public void accept(ConnectedComponent cc)
+		{
+			ConnectedComponent.write(cc, labels, new int[] { ++count });
+		}
+
+		int[] getLabels()
+		{
+			return labels.getSamples(0, 0, labels.getWidth(), labels.getHeight(), 0, (int[])null);
+		}
+	}
+
+	private static int[] labelRows(int[] image, int w, int h, boolean eightConnected)
+	{
+		LabelSink sink = new LabelSink(w, h);
+		StreamingLabeler labeler = new StreamingLabeler(w, eightConnected, sink);
+		int[] row = new int[w];
+		for (int y = 0; y < h; y++)
+		{
+			System.arraycopy(image, y * w, row, 0, w);
+			labeler.accept(y, row);
+		}
+
+		labeler.finish();
+		assertEquals(0, labeler.getOpenComponentCount());
+		return sink.getLabels();
+	}
+
+	private static int[] labelFile(File file, int w, int h) throws IOException
+	{
+		try (ImageInputStream input = ImageIO.createImageInputStream(file))
+		{
+			ImageReader reader = ImageIO.getImageReaders(input).next();
+			try
+			{
+				reader.setInput(input);
+				LabelSink sink = new LabelSink(w, h);
+				new StreamingLabeler(w, sink).process(reader, 0);
+				return sink.getLabels();
+			}
+			finally
+			{
+				reader.dispose();
+			}
+		}
+	}
+
+	/** Creates a bilevel image in which foreground pixels are black. */
+	private static BufferedImage toBilevel(int[] image, int w, int h)
+	{
+		BufferedImage bilevel = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_BINARY);
+		for (int y = 0; y < h; y++)
+		{
+			for (int x = 0; x < w; x++)
+				bilevel.getRaster().setSample(x, y, 0, (image[y * w + x] != 0) ? 0 : 1);
+		}
+
+		return bilevel;
+	}
+
+	@Test
+	public void rowsMatchConnectedComponents()
+	{
+		Random random = new Random(22);
+		for (int[] size : SIZES)
+		{
+			for (double density : new double[] { 0.25, 0.5, 0.75 })
+			{
+				int w = size[0];
+				int h = size[1];
+				int[] image = Partitions.randomImage(random, w, h, density);
+				for (boolean eightConnected : new boolean[] { false, true })
+				{
+					int[] expected = new ConnectedComponents(eightConnected).labeling(image, w, h);
+					Partitions.assertSamePartition(expected, labelRows(image, w, h, eightConnected));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void readerMatchesRows() throws IOException
+	{
+		int w = 150;
+		int h = 300;
+		int[] image = Partitions.randomImage(new Random(6), w, h, 0.4);
+		File file = File.createTempFile("labels", ".png");
+		try
+		{
+			ImageIO.write(toBilevel(image, w, h), "png", file);
+			Partitions.assertSamePartition(labelRows(image, w, h, false), labelFile(file, w, h));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void indexedReaderMatchesRows() throws IOException
+	{
+		int w = 150;
+		int h = 200;
+		int[] image = Partitions.randomImage(new Random(8), w, h, 0.4);
+
+		// palette indices are not gray levels: white is index 0 and black is index 1
+		byte[] levels = { (byte)0xFF, 0 };
+		IndexColorModel palette = new IndexColorModel(8, 2, levels, levels, levels);
+		BufferedImage indexed = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_INDEXED, palette);
+		indexed.getRaster().setSamples(0, 0, w, h, 0, image);
+
+		File file = File.createTempFile("labels", ".png");
+		try
+		{
+			ImageIO.write(indexed, "png", file);
+			Partitions.assertSamePartition(labelRows(image, w, h, false), labelFile(file, w, h));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void tiledReaderMatchesRows() throws IOException
+	{
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+		Assume.assumeTrue(writers.hasNext());
+		ImageWriter writer = writers.next();
+
+		int w = 100;
+		int h = 300;
+		int[] image = Partitions.randomImage(new Random(7), w, h, 0.4);
+		int[] expected = labelRows(image, w, h, false);
+
+		// several tiles per row of tiles, and a single tile per row as for TIFF strips
+		for (int tileWidth : new int[] { 32, 112 })
+		{
+			File file = File.createTempFile("labels", ".tif");
+			try
+			{
+				try (ImageOutputStream output = ImageIO.createImageOutputStream(file))
+				{
+					writer.setOutput(output);
+					ImageWriteParam param = writer.getDefaultWriteParam();
+					param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+					param.setTiling(tileWidth, 48, 0, 0);
+					writer.write(null, new IIOImage(toBilevel(image, w, h), null, null), param);
+				}
+
+				Partitions.assertSamePartition(expected, labelFile(file, w, h));
+			}
+			finally
+			{
+				file.delete();
+			}
+		}
+
+		writer.dispose();
+	}
+}
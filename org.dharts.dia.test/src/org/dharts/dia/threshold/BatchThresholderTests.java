@@ -0,0 +1,144 @@
+package org.dharts.dia.threshold;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.dharts.dia.util.BinaryImage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchThresholderTests
+{
+	private static final int PAGES = 8;
+
+	private final ExecutorService ex = Executors.newFixedThreadPool(2);
+	private final List<File> files = new ArrayList<>();
+
+	@Before
+	public void writePages() throws IOException
+	{
+		Random random = new Random(18);
+		for (int i = 0; i < PAGES; i++)
+		{
+			BufferedImage image = new BufferedImage(120, 90, BufferedImage.TYPE_BYTE_GRAY);
+			for (int y = 0; y < image.getHeight(); y++)
+			{
+				for (int x = 0; x < image.getWidth(); x++)
+					image.getRaster().setSample(x, y, 0, random.nextInt(256));
+			}
+
+			File file = File.createTempFile("page", ".png");
+			ImageIO.write(image, "png", file);
+			files.add(file);
+		}
+	}
+
+	@After
+	public void cleanUp()
+	{
+		ex.shutdownNow();
+		for (File file : files)
+			file.delete();
+	}
+
+	@Test
+	public void pagesSubmittedBeforeCloseComplete() throws Exception
+	{
+		Otsu otsu = new Otsu(ex);
+		List<Future<BinaryImage>> futures = new ArrayList<>();
+		try (BatchThresholder batch = new BatchThresholder(otsu, 1, 1, PAGES))
+		{
+			for (File file : files)
+				futures.add(batch.submit(file));
+		}
+
+		for (int i = 0; i < PAGES; i++)
+		{
+			BinaryImage expected = otsu.binarize(ImageIO.read(files.get(i)));
+			BinaryImage actual = futures.get(i).get(10, TimeUnit.SECONDS);
+			assertEquals(expected.countForeground(), actual.countForeground());
+		}
+	}
+
+	@Test
+	public void batchCompletesAfterClose() throws Exception
+	{
+		final ConcurrentHashMap<File, BinaryImage> results = new ConcurrentHashMap<>();
+		BatchThresholder.Sink sink = new BatchThresholder.Sink() {
+			@Override
+			public void completed(File file, BinaryImage image) {
+				results.put(file, image);
+			}
+
+			@Override
+			public void failed(File file, Throwable cause) {
+				cause.printStackTrace();
+			}
+		};
+
+		Future<Integer> done;
+		try (BatchThresholder batch = new BatchThresholder(new Otsu(ex), 1, 1, 2))
+		{
+			done = batch.thresholdAll(files, sink);
+		}
+
+		assertEquals(PAGES, done.get(10, TimeUnit.SECONDS).intValue());
+		assertEquals(PAGES, results.size());
+	}
+
+	@Test
+	public void submitAfterCloseFails() throws Exception
+	{
+		BatchThresholder batch = new BatchThresholder(new Otsu(ex), 1, 1, PAGES);
+		batch.close();
+
+		Future<BinaryImage> future = batch.submit(files.get(0));
+		assertTrue(future.isDone());
+		try
+		{
+			future.get();
+			fail("Expected the page to be rejected");
+		}
+		catch (ExecutionException e)
+		{
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void unreadablePageFails() throws Exception
+	{
+		File file = File.createTempFile("page", ".txt");
+		files.add(file);
+		try (BatchThresholder batch = new BatchThresholder(new Otsu(ex), 1, 1, PAGES))
+		{
+			Future<BinaryImage> future = batch.submit(file);
+			try
+			{
+				future.get(10, TimeUnit.SECONDS);
+				fail("Expected the page to fail");
+			}
+			catch (ExecutionException e)
+			{
+				assertTrue(e.getCause() instanceof IOException);
+			}
+		}
+	}
+}
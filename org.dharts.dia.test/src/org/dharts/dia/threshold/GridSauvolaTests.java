@@ -0,0 +1,114 @@
+package org.dharts.dia.threshold;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.ImageWrapper;
+import org.junit.After;
+import org.junit.Test;
+
+public class GridSauvolaTests
+{
+	// neither dimension is a multiple of the lattice spacings used below
+	private static final int W = 203;
+	private static final int H = 131;
+
+	private final ExecutorService ex = Executors.newFixedThreadPool(2);
+
+	@After
+	public void shutdown()
+	{
+		ex.shutdownNow();
+	}
+
+	private static BufferedImage page()
+	{
+		Random random = new Random(14);
+		BufferedImage image = new BufferedImage(W, H, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < H; y++)
+		{
+			for (int x = 0; x < W; x++)
+			{
+				int ink = ((x / 5) % 3 == 0 && (y / 10) % 2 == 0) ? 140 : 0;
+				image.getRaster().setSample(x, y, 0, 230 - ink - random.nextInt(50) - y / 6);
+			}
+		}
+
+		return image;
+	}
+
+	private static GridSauvola grid(ExecutorService ex, int ts, int step)
+	{
+		GridSauvola grid = new GridSauvola(ex);
+		grid.setParameter("ts", ts);
+		grid.setParameter("step", step);
+		return grid;
+	}
+
+	@Test
+	public void latticeIncludesLastPixel()
+	{
+		assertArrayEquals(new int[0], GridSauvola.lattice(0, 4));
+		assertArrayEquals(new int[] { 0 }, GridSauvola.lattice(1, 4));
+		assertArrayEquals(new int[] { 0, 4, 8 }, GridSauvola.lattice(9, 4));
+		assertArrayEquals(new int[] { 0, 4, 8, 9 }, GridSauvola.lattice(10, 4));
+		assertArrayEquals(new int[] { 0, 1, 2 }, GridSauvola.lattice(3, 1));
+		assertArrayEquals(new int[] { 0, 6 }, GridSauvola.lattice(7, 100));
+	}
+
+	@Test
+	public void unitStepMatchesFastSauvola() throws InterruptedException
+	{
+		BufferedImage image = page();
+		FastSauvola sauvola = new FastSauvola(ex);
+		sauvola.setParameter("ts", 31);
+		BinaryImage expected = sauvola.binarize(image);
+
+		GridSauvola.Deviation deviation = grid(ex, 31, 1).compare(ImageWrapper.wrapGray(image, true, ex));
+		assertEquals(0, deviation.getMaxThresholdError(), 1e-9);
+		assertEquals(0, deviation.getMismatchedPixelCount());
+		assertArrayEquals(expected.getWords(), deviation.getImage().getWords());
+		assertArrayEquals(expected.getWords(), grid(ex, 31, 1).binarize(image).getWords());
+	}
+
+	@Test
+	public void mismatchesAreCountedAgainstFastSauvola() throws InterruptedException
+	{
+		BufferedImage image = page();
+		for (int step : new int[] { 3, 8, 500 })
+		{
+			FastSauvola sauvola = new FastSauvola(ex);
+			sauvola.setParameter("ts", 31);
+			BinaryImage exact = sauvola.binarize(image);
+
+			GridSauvola grid = grid(ex, 31, step);
+			BinaryImage binarized = grid.binarize(image);
+			GridSauvola.Deviation deviation = grid.compare(ImageWrapper.wrapGray(image, true, ex));
+			assertArrayEquals(binarized.getWords(), deviation.getImage().getWords());
+
+			long mismatches = 0;
+			for (int y = 0; y < H; y++)
+			{
+				for (int x = 0; x < W; x++)
+					mismatches += (exact.get(x, y) != binarized.get(x, y)) ? 1 : 0;
+			}
+
+			assertEquals("step " + step, mismatches, deviation.getMismatchedPixelCount());
+			assertTrue("step " + step, deviation.getMaxThresholdError() > 0);
+
+			// thresholds are exact at the lattice points, including the last row and column
+			for (int y : GridSauvola.lattice(H, step))
+			{
+				for (int x : GridSauvola.lattice(W, step))
+					assertEquals("step " + step + " at " + x + "," + y, exact.get(x, y), binarized.get(x, y));
+			}
+		}
+	}
+}
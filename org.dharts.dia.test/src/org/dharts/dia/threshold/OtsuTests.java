@@ -0,0 +1,171 @@
+package org.dharts.dia.threshold;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class OtsuTests
+{
+	private final ExecutorService ex = Executors.newFixedThreadPool(3);
+
+	@After
+	public void shutdown()
+	{
+		ex.shutdownNow();
+	}
+
+	/** A histogram with a peak at each of the supplied levels and no empty bins. */
+	private static int[] histogram(Random random, int... peaks)
+	{
+		int[] hist = new int[Otsu.LEVELS];
+		for (int i = 0; i < hist.length; i++)
+		{
+			hist[i] = 1 + random.nextInt(20);
+			for (int peak : peaks)
+			{
+				double d = (i - peak) / 12.0;
+				hist[i] += (int)(2000 * Math.exp(-d * d / 2));
+			}
+		}
+
+		return hist;
+	}
+
+	/**
+	 * Computes the between-class variance of the classes <code>[0, t[0]]</code>,
+	 * <code>(t[0], t[1]]</code>, ... of a histogram.
+	 */
+	private static double betweenClassVariance(int[] hist, int... t)
+	{
+		double n = 0;
+		double sum = 0;
+		for (int i = 0; i < hist.length; i++)
+		{
+			n += hist[i];
+			sum += (double)i * hist[i];
+		}
+
+		double mean = sum / n;
+		double variance = 0;
+		int from = 0;
+		for (int c = 0; c <= t.length; c++)
+		{
+			int to = (c < t.length) ? t[c] + 1 : hist.length;
+			double nc = 0;
+			double sc = 0;
+			for (int i = from; i < to; i++)
+			{
+				nc += hist[i];
+				sc += (double)i * hist[i];
+			}
+
+			if (nc > 0)
+				variance += nc / n * (sc / nc - mean) * (sc / nc - mean);
+			from = to;
+		}
+
+		return variance;
+	}
+
+	@Test
+	public void twoClassesMatchExhaustiveSearch()
+	{
+		Random random = new Random(17);
+		for (int[] peaks : new int[][] { { 40, 200 }, { 90, 120 }, { 30, 60, 220 } })
+		{
+			int[] hist = histogram(random, peaks);
+			int best = 0;
+			for (int t = 1; t < hist.length - 1; t++)
+			{
+				if (betweenClassVariance(hist, t) > betweenClassVariance(hist, best))
+					best = t;
+			}
+
+			assertEquals(best, Otsu.threshold(hist));
+			assertArrayEquals(new int[] { best }, Otsu.thresholds(hist, 2));
+		}
+	}
+
+	@Test
+	public void threeClassesMatchExhaustiveSearch()
+	{
+		Random random = new Random(18);
+		for (int[] peaks : new int[][] { { 30, 128, 220 }, { 50, 70, 200 } })
+		{
+			int[] hist = histogram(random, peaks);
+			int[] best = { 0, 1 };
+			double max = betweenClassVariance(hist, best);
+			for (int t0 = 0; t0 < hist.length - 2; t0++)
+			{
+				for (int t1 = t0 + 1; t1 < hist.length - 1; t1++)
+				{
+					double v = betweenClassVariance(hist, t0, t1);
+					if (v > max)
+					{
+						max = v;
+						best = new int[] { t0, t1 };
+					}
+				}
+			}
+
+			int[] t = Otsu.thresholds(hist, 3);
+			assertEquals(max, betweenClassVariance(hist, t), max * 1e-12);
+			assertArrayEquals(best, t);
+		}
+	}
+
+	@Test
+	public void separabilityIsTheRatioOfVariances()
+	{
+		Random random = new Random(19);
+		for (int[] peaks : new int[][] { { 40, 200 }, { 90, 120 }, { 128 } })
+		{
+			int[] hist = histogram(random, peaks);
+			double n = 0;
+			double sum = 0;
+			double sumSq = 0;
+			for (int i = 0; i < hist.length; i++)
+			{
+				n += hist[i];
+				sum += (double)i * hist[i];
+				sumSq += (double)i * i * hist[i];
+			}
+
+			double total = sumSq / n - (sum / n) * (sum / n);
+			double expected = betweenClassVariance(hist, Otsu.threshold(hist)) / total;
+			double separability = Otsu.separability(hist);
+			assertEquals(expected, separability, 1e-9);
+			assertTrue(separability >= 0 && separability <= 1);
+		}
+
+		assertTrue(Otsu.separability(histogram(random, 40, 200)) > Otsu.separability(histogram(random, 128)));
+		assertEquals(0, Otsu.separability(new int[Otsu.LEVELS]), 0);
+	}
+
+	@Test
+	public void parallelHistogramMatchesPixels() throws InterruptedException
+	{
+		Random random = new Random(20);
+		BufferedImage image = new BufferedImage(97, 1003, BufferedImage.TYPE_BYTE_GRAY);
+		int[] expected = new int[Otsu.LEVELS];
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			for (int x = 0; x < image.getWidth(); x++)
+			{
+				int g = random.nextInt(Otsu.LEVELS);
+				image.getRaster().setSample(x, y, 0, g);
+				expected[g]++;
+			}
+		}
+
+		assertArrayEquals(expected, Otsu.histogram(image, ex));
+	}
+}
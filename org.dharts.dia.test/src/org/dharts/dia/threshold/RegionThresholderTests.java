@@ -0,0 +1,113 @@
+package org.dharts.dia.threshold;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dharts.dia.BoundingBox;
+import org.dharts.dia.SimpleBoundingBox;
+import org.dharts.dia.util.BinaryImage;
+import org.junit.After;
+import org.junit.Test;
+
+public class RegionThresholderTests
+{
+	private static final int W = 230;
+	private static final int H = 170;
+
+	private final ExecutorService ex = Executors.newFixedThreadPool(2);
+
+	@After
+	public void shutdown()
+	{
+		ex.shutdownNow();
+	}
+
+	private static BufferedImage page(int type)
+	{
+		Random random = new Random(15);
+		BufferedImage image = new BufferedImage(W, H, type);
+		for (int y = 0; y < H; y++)
+		{
+			for (int x = 0; x < W; x++)
+			{
+				int ink = ((x / 6) % 3 == 0 && (y / 13) % 2 == 0) ? 140 : 0;
+				int g = 230 - ink - random.nextInt(50) - x / 8;
+				image.setRGB(x, y, 0xFF000000 | (g << 16) | (g << 8) | g);
+			}
+		}
+
+		return image;
+	}
+
+	private static List<BoundingBox> boxes()
+	{
+		List<BoundingBox> boxes = new ArrayList<>();
+		boxes.add(new SimpleBoundingBox(0, 0, W, H));				// the whole page
+		boxes.add(new SimpleBoundingBox(0, 0, 20, 15));				// top left corner
+		boxes.add(new SimpleBoundingBox(W - 17, H - 9, W, H));		// bottom right corner
+		boxes.add(new SimpleBoundingBox(-10, 50, 40, H + 30));		// clipped to the page
+		boxes.add(new SimpleBoundingBox(100, 80, 101, 81));			// a single pixel
+		boxes.add(new SimpleBoundingBox(W - 1, 0, W, 1));			// a single corner pixel
+		boxes.add(new SimpleBoundingBox(5, 60, 225, 110));			// wider than the halo
+		return boxes;
+	}
+
+	private void assertMatchesFastSauvola(BufferedImage page, int ts) throws InterruptedException
+	{
+		FastSauvola sauvola = new FastSauvola(ex);
+		RegionThresholder thresholder = new RegionThresholder(ex);
+		if (ts > 0)
+		{
+			sauvola.setParameter("ts", ts);
+			thresholder.setParameter("ts", ts);
+		}
+
+		BinaryImage expected = sauvola.binarize(page);
+		List<BoundingBox> boxes = boxes();
+		List<RegionThresholder.Region> regions = thresholder.binarize(page, boxes);
+		assertEquals(boxes.size(), regions.size());
+
+		for (int i = 0; i < boxes.size(); i++)
+		{
+			BoundingBox box = boxes.get(i);
+			RegionThresholder.Region region = regions.get(i);
+			BoundingBox bounds = region.getBounds();
+			assertEquals(Math.max(0, box.getLeft()), bounds.getLeft());
+			assertEquals(Math.max(0, box.getTop()), bounds.getTop());
+			assertEquals(Math.min(W, box.getRight()), bounds.getRight());
+			assertEquals(Math.min(H, box.getBottom()), bounds.getBottom());
+			assertEquals(bounds.getWidth(), region.getImage().getWidth());
+			assertEquals(bounds.getHeight(), region.getImage().getHeight());
+
+			for (int y = bounds.getTop(); y < bounds.getBottom(); y++)
+			{
+				for (int x = bounds.getLeft(); x < bounds.getRight(); x++)
+					assertEquals("box " + i + " at " + x + "," + y, expected.get(x, y), region.isForeground(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void regionsMatchFastSauvola() throws InterruptedException
+	{
+		assertMatchesFastSauvola(page(BufferedImage.TYPE_BYTE_GRAY), 0);
+	}
+
+	@Test
+	public void regionsMatchFastSauvolaWithSmallWindow() throws InterruptedException
+	{
+		assertMatchesFastSauvola(page(BufferedImage.TYPE_BYTE_GRAY), 15);
+	}
+
+	@Test
+	public void colorRegionsMatchFastSauvola() throws InterruptedException
+	{
+		assertMatchesFastSauvola(page(BufferedImage.TYPE_INT_RGB), 31);
+	}
+}
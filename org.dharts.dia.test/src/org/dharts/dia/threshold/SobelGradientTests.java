@@ -0,0 +1,108 @@
+package org.dharts.dia.threshold;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SobelGradientTests
+{
+	private static final int[][] SIZES = {
+		{ 1, 1 }, { 1, 9 }, { 9, 1 }, { 2, 2 }, { 3, 5 }, { 67, 41 }, { 40, 300 } };
+
+	private final ExecutorService ex = Executors.newFixedThreadPool(3);
+
+	@After
+	public void shutdown()
+	{
+		ex.shutdownNow();
+	}
+
+	private static int pixel(int[] gray, int w, int h, int x, int y)
+	{
+		x = Math.max(0, Math.min(w - 1, x));
+		y = Math.max(0, Math.min(h - 1, y));
+		return gray[y * w + x];
+	}
+
+	/** Applies the 3x3 Sobel kernels at a pixel, replicating the edge pixels. */
+	private static int[] sobel(int[] gray, int w, int h, int x, int y)
+	{
+		int gx = 0;
+		int gy = 0;
+		for (int d = -1; d <= 1; d++)
+		{
+			int weight = (d == 0) ? 2 : 1;
+			gx += weight * (pixel(gray, w, h, x + 1, y + d) - pixel(gray, w, h, x - 1, y + d));
+			gy += weight * (pixel(gray, w, h, x + d, y + 1) - pixel(gray, w, h, x + d, y - 1));
+		}
+
+		return new int[] { gx, gy };
+	}
+
+	private static int[] random(Random random, int w, int h)
+	{
+		int[] gray = new int[w * h];
+		for (int i = 0; i < gray.length; i++)
+			gray[i] = random.nextBoolean() ? random.nextInt(256) : 255 * random.nextInt(2);
+
+		return gray;
+	}
+
+	@Test
+	public void matchesNaiveSobel() throws InterruptedException
+	{
+		Random random = new Random(16);
+		SobelGradient sobel = new SobelGradient(ex);
+		for (int[] size : SIZES)
+		{
+			int w = size[0];
+			int h = size[1];
+			int[] gray = random(random, w, h);
+
+			float[] direction = new float[w * h];
+			short[] magnitude = sobel.compute(gray, w, h, null, direction);
+			byte[] scaled = sobel.computeScaled(gray, w, h, null);
+			for (int y = 0; y < h; y++)
+			{
+				for (int x = 0; x < w; x++)
+				{
+					int[] g = sobel(gray, w, h, x, y);
+					int mag = (int)Math.sqrt(g[0] * g[0] + g[1] * g[1]);
+					int ix = y * w + x;
+					String msg = w + "x" + h + " at " + x + "," + y;
+					assertEquals(msg, mag, magnitude[ix]);
+					assertEquals(msg, (float)Math.atan2(g[1], g[0]), direction[ix], 0);
+					assertEquals(msg, mag * 255 / SobelGradient.MAX_MAGNITUDE, scaled[ix] & 0xFF);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void reusesSuppliedArrays() throws InterruptedException
+	{
+		int w = 30;
+		int h = 20;
+		int[] gray = random(new Random(3), w, h);
+		SobelGradient sobel = new SobelGradient(ex);
+
+		short[] magnitude = new short[w * h + 5];
+		byte[] scaled = new byte[w * h];
+		assertTrue(magnitude == sobel.compute(gray, w, h, magnitude, null));
+		assertTrue(scaled == sobel.computeScaled(gray, w, h, scaled));
+		for (int i = 0; i < w * h; i++)
+			assertTrue(magnitude[i] >= 0 && magnitude[i] <= SobelGradient.MAX_MAGNITUDE);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsSmallArrays() throws InterruptedException
+	{
+		new SobelGradient(ex).compute(new int[12], 4, 3, new short[11], null);
+	}
+}
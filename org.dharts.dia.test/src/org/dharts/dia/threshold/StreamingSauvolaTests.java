@@ -0,0 +1,175 @@
+package org.dharts.dia.threshold;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class StreamingSauvolaTests
+{
+	private final ExecutorService ex = Executors.newFixedThreadPool(2);
+
+	@After
+	public void shutdown()
+	{
+		ex.shutdownNow();
+	}
+
+	/** Collects binarized rows into a single array in raster order. */
+	private static final class RowSink implements StreamingSauvola.ScanlineSink
+	{
+		private final int[] pixels;
+		private final int width;
+
+		RowSink(int w, int h)
+		{
+			pixels = new int[w * h];
+			width = w;
+		}
+
+		@Override
+		public void accept(int y, int[] row)
+		{
+			System.arraycopy(row, 0, pixels, y * width, width);
+		}
+	}
+
+	private static BufferedImage page(int w, int h)
+	{
+		Random random = new Random(6);
+		BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < h; y++)
+		{
+			for (int x = 0; x < w; x++)
+			{
+				int ink = ((x / 5) % 3 == 0 && (y / 11) % 2 == 0) ? 150 : 0;
+				image.getRaster().setSample(x, y, 0, 220 - ink - random.nextInt(40));
+			}
+		}
+
+		return image;
+	}
+
+	private static int[] process(File file, int w, int h) throws IOException
+	{
+		try (ImageInputStream input = ImageIO.createImageInputStream(file))
+		{
+			ImageReader reader = ImageIO.getImageReaders(input).next();
+			try
+			{
+				reader.setInput(input);
+				RowSink sink = new RowSink(w, h);
+				new StreamingSauvola().process(reader, 0, sink);
+				return sink.pixels;
+			}
+			finally
+			{
+				reader.dispose();
+			}
+		}
+	}
+
+	@Test
+	public void readerMatchesFastSauvola() throws Exception
+	{
+		BufferedImage image = page(180, 310);
+		int[] expected = new FastSauvola(ex).binarize(image).toArray();
+
+		File file = File.createTempFile("sauvola", ".png");
+		try
+		{
+			ImageIO.write(image, "png", file);
+			assertArrayEquals(expected, process(file, image.getWidth(), image.getHeight()));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void colorAndSixteenBitReadersMatchFastSauvola() throws Exception
+	{
+		BufferedImage gray = page(180, 150);
+		int w = gray.getWidth();
+		int h = gray.getHeight();
+
+		BufferedImage rgb = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+		BufferedImage ushort = new BufferedImage(w, h, BufferedImage.TYPE_USHORT_GRAY);
+		for (int y = 0; y < h; y++)
+		{
+			for (int x = 0; x < w; x++)
+			{
+				int g = gray.getRaster().getSample(x, y, 0);
+				rgb.setRGB(x, y, (g << 16) | ((255 - g / 2) << 8) | (g / 3));
+				ushort.getRaster().setSample(x, y, 0, g * 257 + (x % 200));
+			}
+		}
+
+		for (BufferedImage image : new BufferedImage[] { rgb, ushort })
+		{
+			int[] expected = new FastSauvola(ex).binarize(image).toArray();
+			File file = File.createTempFile("sauvola", ".png");
+			try
+			{
+				ImageIO.write(image, "png", file);
+				assertArrayEquals(expected, process(file, w, h));
+			}
+			finally
+			{
+				file.delete();
+			}
+		}
+	}
+
+	@Test
+	public void tiledReaderMatchesFastSauvola() throws Exception
+	{
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("tiff");
+		Assume.assumeTrue(writers.hasNext());
+		ImageWriter writer = writers.next();
+
+		BufferedImage image = page(180, 310);
+		int[] expected = new FastSauvola(ex).binarize(image).toArray();
+		for (int tileWidth : new int[] { 64, 192 })
+		{
+			File file = File.createTempFile("sauvola", ".tif");
+			try
+			{
+				try (ImageOutputStream output = ImageIO.createImageOutputStream(file))
+				{
+					writer.setOutput(output);
+					ImageWriteParam param = writer.getDefaultWriteParam();
+					param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+					param.setTiling(tileWidth, 32, 0, 0);
+					writer.write(null, new IIOImage(image, null, null), param);
+				}
+
+				assertArrayEquals(expected, process(file, image.getWidth(), image.getHeight()));
+			}
+			finally
+			{
+				file.delete();
+			}
+		}
+
+		writer.dispose();
+	}
+}
@@ -0,0 +1,89 @@
+package org.dharts.dia.threshold;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dharts.dia.util.BinaryImage;
+import org.junit.After;
+import org.junit.Test;
+
+public class ThresholdSweepTests
+{
+	private static final double[] K = { 0.2, 0.5, 0.2 };
+
+	// 30 and 31 share a window, as do the repeated 31s, which exercises the reuse of statistics
+	private static final int[] TS = { 30, 31, 31, 15, 48 };
+
+	private final ExecutorService ex = Executors.newFixedThreadPool(2);
+
+	@After
+	public void shutdown()
+	{
+		ex.shutdownNow();
+	}
+
+	private static BufferedImage page()
+	{
+		Random random = new Random(12);
+		BufferedImage image = new BufferedImage(211, 143, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			for (int x = 0; x < image.getWidth(); x++)
+			{
+				int ink = ((x / 4) % 3 == 0 && (y / 9) % 2 == 0) ? 130 : 0;
+				int g = 225 - ink - random.nextInt(60);
+				image.setRGB(x, y, (g << 16) | (g << 8) | g);
+			}
+		}
+
+		return image;
+	}
+
+	private void assertMatchesFastSauvola(boolean keepImages) throws InterruptedException
+	{
+		BufferedImage image = page();
+		List<ThresholdSweep.Result> results = new ThresholdSweep(ex, 128).run(image, K, TS, keepImages);
+		assertEquals(K.length * TS.length, results.size());
+
+		int i = 0;
+		for (int ts : TS)
+		{
+			for (double k : K)
+			{
+				FastSauvola sauvola = new FastSauvola(ex);
+				sauvola.setParameter("k", k);
+				sauvola.setParameter("ts", ts);
+				BinaryImage expected = sauvola.binarize(image);
+
+				ThresholdSweep.Result result = results.get(i++);
+				String msg = "k=" + k + ", ts=" + ts;
+				assertEquals(msg, k, result.getK(), 0);
+				assertEquals(msg, ts, result.getWindowSize());
+				assertEquals(msg, expected.countForeground(), result.getForegroundPixelCount());
+				if (keepImages)
+					assertArrayEquals(msg, expected.getWords(), result.getImage().getWords());
+				else
+					assertNull(msg, result.getImage());
+			}
+		}
+	}
+
+	@Test
+	public void imagesMatchFastSauvola() throws InterruptedException
+	{
+		assertMatchesFastSauvola(true);
+	}
+
+	@Test
+	public void countsMatchFastSauvola() throws InterruptedException
+	{
+		assertMatchesFastSauvola(false);
+	}
+}
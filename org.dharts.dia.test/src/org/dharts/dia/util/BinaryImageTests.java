@@ -0,0 +1,121 @@
+package org.dharts.dia.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BinaryImageTests
+{
+	private static final int W = 131;
+	private static final int H = 37;
+
+	/** A random page in which roughly a third of the pixels are black. */
+	private static boolean[] ink()
+	{
+		Random random = new Random(23);
+		boolean[] ink = new boolean[W * H];
+		for (int i = 0; i < ink.length; i++)
+			ink[i] = random.nextInt(3) == 0;
+
+		return ink;
+	}
+
+	private static BufferedImage draw(boolean[] ink, int type)
+	{
+		BufferedImage image = new BufferedImage(W, H, type);
+		for (int y = 0; y < H; y++)
+		{
+			for (int x = 0; x < W; x++)
+				image.setRGB(x, y, ink[y * W + x] ? 0xFF000000 : 0xFFFFFFFF);
+		}
+
+		return image;
+	}
+
+	private static void assertInk(boolean[] ink, BinaryImage image)
+	{
+		assertEquals(W, image.getWidth());
+		assertEquals(H, image.getHeight());
+		int[] expected = new int[ink.length];
+		for (int i = 0; i < ink.length; i++)
+			expected[i] = ink[i] ? 1 : 0;
+
+		assertArrayEquals(expected, image.toArray());
+	}
+
+	@Test
+	public void fromBilevelImage()
+	{
+		boolean[] ink = ink();
+		assertInk(ink, BinaryImage.fromBufferedImage(draw(ink, BufferedImage.TYPE_BYTE_BINARY)));
+	}
+
+	@Test
+	public void fromGrayAndColorImages()
+	{
+		boolean[] ink = ink();
+		for (int type : new int[] { BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_INT_RGB,
+				BufferedImage.TYPE_3BYTE_BGR })
+		{
+			assertInk(ink, BinaryImage.fromBufferedImage(draw(ink, type)));
+		}
+	}
+
+	@Test
+	public void fromIndexedImage()
+	{
+		// palette indices are not gray levels: white is index 0 and black is index 1
+		boolean[] ink = ink();
+		byte[] levels = { (byte)0xFF, 0 };
+		IndexColorModel palette = new IndexColorModel(8, 2, levels, levels, levels);
+		BufferedImage image = new BufferedImage(W, H, BufferedImage.TYPE_BYTE_INDEXED, palette);
+		for (int y = 0; y < H; y++)
+		{
+			for (int x = 0; x < W; x++)
+				image.getRaster().setSample(x, y, 0, ink[y * W + x] ? 1 : 0);
+		}
+
+		assertInk(ink, BinaryImage.fromBufferedImage(image));
+		assertInk(ink, BinaryImage.fromBufferedImage(draw(ink, BufferedImage.TYPE_BYTE_INDEXED)));
+	}
+
+	@Test
+	public void fromSixteenBitGrayImage()
+	{
+		boolean[] ink = ink();
+		BufferedImage image = new BufferedImage(W, H, BufferedImage.TYPE_USHORT_GRAY);
+		for (int y = 0; y < H; y++)
+		{
+			for (int x = 0; x < W; x++)
+				image.getRaster().setSample(x, y, 0, ink[y * W + x] ? 1000 : 64000);
+		}
+
+		assertInk(ink, BinaryImage.fromBufferedImage(image));
+	}
+
+	@Test
+	public void setRowCountsForeground()
+	{
+		BinaryImage image = new BinaryImage(W, 1);
+		int[] gray = new int[W + 3];
+		double[] thresholds = new double[W];
+		int expected = 0;
+		for (int x = 0; x < W; x++)
+		{
+			gray[x + 3] = x;
+			thresholds[x] = (x % 2 == 0) ? Double.NaN : 64;
+			if (!(x > thresholds[x]))
+				expected++;
+		}
+
+		assertEquals(expected, image.setRow(0, gray, 3, thresholds));
+		assertEquals(expected, image.countForeground());
+		for (int x = 0; x < W; x++)
+			assertEquals(!(x > thresholds[x]), image.get(x, 0));
+	}
+}
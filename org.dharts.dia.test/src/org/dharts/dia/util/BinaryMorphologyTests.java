@@ -0,0 +1,121 @@
+package org.dharts.dia.util;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class BinaryMorphologyTests
+{
+	private static final int[][] SIZES = {
+		{ 1, 1 }, { 5, 70 }, { 63, 20 }, { 64, 64 }, { 65, 33 }, { 130, 90 }, { 200, 41 } };
+
+	private static final int[][] ELEMENTS = {
+		{ 1, 1 }, { 2, 1 }, { 1, 2 }, { 3, 3 }, { 7, 1 }, { 1, 9 },
+		{ 64, 1 }, { 65, 3 }, { 130, 2 }, { 4, 31 }, { 1, 100 }, { 31, 7 } };
+
+	private final ExecutorService ex = Executors.newFixedThreadPool(3);
+	private final BinaryMorphology morphology = new BinaryMorphology(ex);
+
+	@After
+	public void shutdown()
+	{
+		ex.shutdownNow();
+	}
+
+	private static BinaryImage random(Random random, int w, int h, int density)
+	{
+		BinaryImage image = new BinaryImage(w, h);
+		for (int y = 0; y < h; y++)
+		{
+			for (int x = 0; x < w; x++)
+				image.set(x, y, random.nextInt(5) <= density);
+		}
+
+		return image;
+	}
+
+	/**
+	 * Erodes or dilates an image by testing every pixel of the structuring element. Erosion
+	 * covers the offsets <code>[-n/2, (n - 1)/2]</code> and dilation their reflection.
+	 */
+	private static BinaryImage reference(BinaryImage image, int sw, int sh, boolean erode)
+	{
+		int w = image.getWidth();
+		int h = image.getHeight();
+		int ax = erode ? sw / 2 : (sw - 1) / 2;
+		int ay = erode ? sh / 2 : (sh - 1) / 2;
+
+		BinaryImage result = new BinaryImage(w, h);
+		for (int y = 0; y < h; y++)
+		{
+			for (int x = 0; x < w; x++)
+			{
+				boolean value = erode;
+				for (int dy = 0; dy < sh; dy++)
+				{
+					for (int dx = 0; dx < sw; dx++)
+					{
+						int px = x - ax + dx;
+						int py = y - ay + dy;
+						boolean inside = px >= 0 && py >= 0 && px < w && py < h;
+						boolean p = inside ? image.get(px, py) : erode;
+						value = erode ? (value && p) : (value || p);
+					}
+				}
+
+				result.set(x, y, value);
+			}
+		}
+
+		return result;
+	}
+
+	@Test
+	public void erodeAndDilateMatchReference() throws InterruptedException
+	{
+		Random random = new Random(24);
+		for (int[] size : SIZES)
+		{
+			for (int[] se : ELEMENTS)
+			{
+				for (int density = 0; density < 3; density++)
+				{
+					BinaryImage image = random(random, size[0], size[1], density);
+					String msg = size[0] + "x" + size[1] + " by " + se[0] + "x" + se[1];
+					assertArrayEquals("erode " + msg, reference(image, se[0], se[1], true).getWords(),
+							morphology.erode(image, se[0], se[1]).getWords());
+					assertArrayEquals("dilate " + msg, reference(image, se[0], se[1], false).getWords(),
+							morphology.dilate(image, se[0], se[1]).getWords());
+				}
+			}
+		}
+	}
+
+	@Test
+	public void openAndCloseAreBoundedAndIdempotent() throws InterruptedException
+	{
+		Random random = new Random(25);
+		for (int[] size : SIZES)
+		{
+			for (int[] se : ELEMENTS)
+			{
+				BinaryImage image = random(random, size[0], size[1], 1);
+				String msg = size[0] + "x" + size[1] + " by " + se[0] + "x" + se[1];
+
+				BinaryImage opened = morphology.open(image, se[0], se[1]);
+				BinaryImage closed = morphology.close(image, se[0], se[1]);
+				assertArrayEquals("open " + msg, opened.getWords(), opened.and(image).getWords());
+				assertArrayEquals("close " + msg, closed.getWords(), closed.or(image).getWords());
+				assertArrayEquals("reopen " + msg, opened.getWords(),
+						morphology.open(opened, se[0], se[1]).getWords());
+				assertArrayEquals("reclose " + msg, closed.getWords(),
+						morphology.close(closed, se[0], se[1]).getWords());
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package org.dharts.dia.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.Raster;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GrayscaleReaderTests
+{
+	private final Random random = new Random(8);
+
+	private BufferedImage image(int type, int w, int h)
+	{
+		BufferedImage image = new BufferedImage(w, h, type);
+		for (int y = 0; y < h; y++)
+		{
+			for (int x = 0; x < w; x++)
+				image.setRGB(x, y, 0xFF000000 | random.nextInt(0x1000000));
+		}
+
+		return image;
+	}
+
+	private static int[] read(GrayscaleReader reader, int y)
+	{
+		int[] row = new int[reader.getWidth()];
+		reader.readRow(y, row, 0);
+		return row;
+	}
+
+	/**
+	 * Asserts that an image is read directly and matches its <code>ColorConvertOp</code>
+	 * conversion to within the given number of gray levels.
+	 */
+	private static void assertMatchesColorConvertOp(BufferedImage image, int tolerance)
+	{
+		assertTrue(GrayscaleReader.isDirect(image));
+
+		ColorConvertOp op = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
+		Raster gray = op.filter(image, null).getRaster();
+		GrayscaleReader reader = GrayscaleReader.create(image);
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			int[] row = read(reader, y);
+			for (int x = 0; x < image.getWidth(); x++)
+				assertEquals("pixel (" + x + ", " + y + ")", gray.getSample(x, y, 0), row[x], tolerance);
+		}
+	}
+
+	@Test
+	public void testGrayAndBinaryAreExact()
+	{
+		assertMatchesColorConvertOp(image(BufferedImage.TYPE_BYTE_GRAY, 37, 11), 0);
+		assertMatchesColorConvertOp(image(BufferedImage.TYPE_BYTE_BINARY, 77, 9), 0);
+	}
+
+	@Test
+	public void testColorLayouts()
+	{
+		int[] types = {
+				BufferedImage.TYPE_3BYTE_BGR,
+				BufferedImage.TYPE_4BYTE_ABGR,
+				BufferedImage.TYPE_INT_RGB,
+				BufferedImage.TYPE_INT_ARGB };
+		for (int type : types)
+			assertMatchesColorConvertOp(image(type, 41, 13), 3);
+	}
+
+	@Test
+	public void testSubImage()
+	{
+		BufferedImage image = image(BufferedImage.TYPE_BYTE_BINARY, 100, 20);
+		BufferedImage sub = image.getSubimage(13, 5, 50, 10);
+		GrayscaleReader full = GrayscaleReader.create(image);
+		GrayscaleReader part = GrayscaleReader.create(sub);
+		for (int y = 0; y < sub.getHeight(); y++)
+		{
+			int[] expected = read(full, y + 5);
+			int[] row = read(part, y);
+			for (int x = 0; x < sub.getWidth(); x++)
+				assertEquals(expected[x + 13], row[x]);
+		}
+	}
+
+	@Test
+	public void testPremultipliedAlphaIsNotDirect()
+	{
+		assertFalse(GrayscaleReader.isDirect(new BufferedImage(8, 8, BufferedImage.TYPE_INT_ARGB_PRE)));
+		assertFalse(GrayscaleReader.isDirect(new BufferedImage(8, 8, BufferedImage.TYPE_4BYTE_ABGR_PRE)));
+	}
+}
@@ -0,0 +1,123 @@
+package org.dharts.dia.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ImageWrapperTests
+{
+	private final ExecutorService ex = Executors.newFixedThreadPool(2);
+
+	@After
+	public void shutdown()
+	{
+		ex.shutdownNow();
+		Thread.interrupted();
+	}
+
+	private static BufferedImage page(int w, int h)
+	{
+		Random random = new Random(9);
+		BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < h; y++)
+		{
+			for (int x = 0; x < w; x++)
+				image.getRaster().setSample(x, y, 0, random.nextInt(256));
+		}
+
+		return image;
+	}
+
+	/**
+	 * Occupies every thread of the executor until the returned latch is released, so that
+	 * tasks submitted in the meantime cannot complete.
+	 */
+	private CountDownLatch block() throws InterruptedException
+	{
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch started = new CountDownLatch(2);
+		for (int i = 0; i < 2; i++)
+		{
+			ex.execute(new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						// exit
+					}
+				}
+			});
+		}
+
+		started.await();
+		return release;
+	}
+
+	@Test
+	public void testParallelMatchesSerial() throws InterruptedException
+	{
+		BufferedImage image = page(301, 257);
+		ImageWrapper serial = new ImageWrapper(image);
+		ImageWrapper parallel = new ImageWrapper(image, false, ex);
+		parallel.load();
+
+		assertArrayEquals(serial.getRaster(), parallel.getRaster());
+		IntegralImage a = serial.getIntegralImage();
+		IntegralImage b = parallel.getIntegralImage();
+		for (int y = 0; y < image.getHeight(); y += 16)
+		{
+			for (int x = 0; x < image.getWidth(); x += 16)
+				assertEquals(a.getVariance(0, 0, x, y), b.getVariance(0, 0, x, y), 0);
+		}
+	}
+
+	@Test
+	public void testLoadPropagatesInterrupt() throws InterruptedException
+	{
+		ImageWrapper wrapper = new ImageWrapper(page(200, 200), false, ex);
+		CountDownLatch release = block();
+
+		Thread.currentThread().interrupt();
+		try {
+			wrapper.load();
+			fail("Expected the interrupt to be reported");
+		} catch (InterruptedException e) {
+			// expected
+		}
+
+		// the image is left unloaded and can be loaded once the interrupt is cleared
+		release.countDown();
+		wrapper.load();
+		assertEquals(200, wrapper.getIntegralImage().getWidth());
+	}
+
+	@Test
+	public void testAccessorsCancelWhenInterrupted() throws InterruptedException
+	{
+		ImageWrapper wrapper = new ImageWrapper(page(200, 200), false, ex);
+		CountDownLatch release = block();
+
+		Thread.currentThread().interrupt();
+		try {
+			wrapper.getIntegralImage();
+			fail("Expected the load to be cancelled");
+		} catch (CancellationException e) {
+			assertTrue(Thread.interrupted());
+		}
+
+		release.countDown();
+	}
+}
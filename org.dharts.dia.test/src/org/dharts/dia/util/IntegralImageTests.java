@@ -0,0 +1,115 @@
+package org.dharts.dia.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the branch-free interior row kernel of {@link IntegralImageImpl} with the scalar
+ * path that clips every window, which is used when {@link IntegralImageImpl#ROW_KERNEL} is
+ * set to <code>scalar</code>.
+ */
+public class IntegralImageTests
+{
+	private final Random random = new Random(4);
+
+	private static int[] image(Random random, int w, int h, int max)
+	{
+		int[] pixels = new int[w * h];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = random.nextInt(max + 1);
+
+		return pixels;
+	}
+
+	private static void assertKernelMatchesScalar(IntegralImageImpl integral, int whalf)
+	{
+		int w = integral.getWidth();
+		double[] mean = new double[w];
+		double[] stddev = new double[w];
+		double[] scalarMean = new double[w];
+		double[] scalarStddev = new double[w];
+		for (int y = 0; y < integral.getHeight(); y++)
+		{
+			integral.getRowStatistics(y, whalf, mean, stddev, true);
+			integral.getRowStatistics(y, whalf, scalarMean, scalarStddev, false);
+
+			String msg = w + " x " + integral.getHeight() + ", whalf " + whalf + ", row " + y;
+			assertArrayEquals(msg, scalarMean, mean, 0);
+			assertArrayEquals(msg, scalarStddev, stddev, 0);
+		}
+	}
+
+	@Test
+	public void testInteriorKernelMatchesScalar()
+	{
+		int[] widths = { 1, 2, 7, 15, 16, 17, 40, 101, 333 };
+		int[] whalves = { 1, 3, 7, 8, 20, 60 };
+		for (int w : widths)
+		{
+			for (int whalf : whalves)
+			{
+				int h = 1 + random.nextInt(3 * whalf + 10);
+				IntegralImageImpl integral = IntegralImageImpl.create(image(random, w, h, 255), w, h);
+				assertKernelMatchesScalar(integral, whalf);
+			}
+		}
+	}
+
+	@Test
+	public void testWindowWiderThanImage()
+	{
+		// no column has an unclipped window, so only the scalar path applies
+		int w = 9;
+		int h = 50;
+		IntegralImageImpl integral = IntegralImageImpl.create(image(random, w, h, 255), w, h);
+		assertKernelMatchesScalar(integral, 10);
+		assertKernelMatchesScalar(integral, 4);
+	}
+
+	@Test
+	public void testSaturatedImage()
+	{
+		// the largest sums the tables hold for an 8-bit page
+		int w = 500;
+		int h = 300;
+		int[] pixels = new int[w * h];
+		Arrays.fill(pixels, 255);
+		IntegralImageImpl integral = IntegralImageImpl.create(pixels, w, h);
+		assertKernelMatchesScalar(integral, 25);
+
+		double[] mean = new double[w];
+		double[] stddev = new double[w];
+		integral.getRowStatistics(h / 2, 25, mean, stddev, true);
+		assertEquals(255, mean[w / 2], 0);
+		assertEquals(0, stddev[w / 2], 0);
+	}
+
+	@Test
+	public void testMeansMatchRegionQueries()
+	{
+		int w = 120;
+		int h = 80;
+		int whalf = 6;
+		IntegralImageImpl integral = IntegralImageImpl.create(image(random, w, h, 255), w, h);
+		double[] mean = new double[w];
+		double[] stddev = new double[w];
+		for (int y = 0; y < h; y++)
+		{
+			integral.getRowStatistics(y, whalf, mean, stddev, true);
+			for (int x = 0; x < w; x++)
+			{
+				int xmin = Math.max(0, x - whalf);
+				int ymin = Math.max(0, y - whalf);
+				int xmax = Math.min(w - 1, x + whalf);
+				int ymax = Math.min(h - 1, y + whalf);
+				assertEquals(integral.getMean(xmin, ymin, xmax, ymax), mean[x], 1e-9);
+				assertEquals(Math.sqrt(integral.getVariance(xmin, ymin, xmax, ymax)), stddev[x], 1e-9);
+			}
+		}
+	}
+}
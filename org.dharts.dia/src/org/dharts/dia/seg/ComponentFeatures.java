@@ -0,0 +1,229 @@
+package org.dharts.dia.seg;
+
+import java.util.Arrays;
+
+import org.dharts.dia.BoundingBox;
+import org.dharts.dia.SimpleBoundingBox;
+
+/**
+ * The common shape features of connected components, accumulated while they are labeled:
+ * area, bounds, centroid, second order central moments, number of holes, perimeter, mean
+ * stroke width and density. All features are derived from per-component sums held in
+ * primitive arrays, which are updated once per run.
+ *
+ * <p>
+ * The number of holes is derived from the Euler number of the graph whose vertices are the
+ * runs of a component and whose edges connect the runs of consecutive rows: each independent
+ * cycle of this graph encloses one hole. Holes are connected by the connectivity
+ * complementary to that of the components. The perimeter is the number of pixel edges between
+ * the component and the background.
+ *
+ * <p>
+ * An instance may be passed to {@link RunLabeler#measure(org.dharts.dia.util.BinaryImage, FeatureAccumulator...)}
+ * for a single image at a time. This class is not thread-safe.
+ */
+public class ComponentFeatures implements FeatureAccumulator
+{
+	private int count = 0;
+
+	private int[] area;
+	private int[] left;
+	private int[] top;
+	private int[] right;
+	private int[] bottom;
+	private int[] runs;
+	private int[] links;
+	private long[] overlap;
+
+	private long[] sumX;
+	private long[] sumY;
+	private long[] sumXX;
+	private long[] sumXY;
+	private long[] sumYY;
+
+	@Override
+	public void start(int components)
+	{
+		count = components;
+		area = new int[components];
+		left = new int[components];
+		top = new int[components];
+		right = new int[components];
+		bottom = new int[components];
+		runs = new int[components];
+		links = new int[components];
+		overlap = new long[components];
+
+		sumX = new long[components];
+		sumY = new long[components];
+		sumXX = new long[components];
+		sumXY = new long[components];
+		sumYY = new long[components];
+
+		Arrays.fill(left, Integer.MAX_VALUE);
+		Arrays.fill(top, -1);
+	}
+
+	@Override
+	public void addRun(int c, int y, int from, int to, int links, int overlap)
+	{
+		int length = to - from;
+		long x = sumTo(to) - sumTo(from);
+		area[c] += length;
+		runs[c]++;
+		this.links[c] += links;
+		this.overlap[c] += overlap;
+
+		sumX[c] += x;
+		sumY[c] += (long)y * length;
+		sumXX[c] += squaresTo(to) - squaresTo(from);
+		sumXY[c] += (long)y * x;
+		sumYY[c] += (long)y * y * length;
+
+		if (top[c] < 0)
+			top[c] = y;
+		bottom[c] = y;
+		left[c] = Math.min(left[c], from);
+		right[c] = Math.max(right[c], to - 1);
+	}
+
+	/** @return The sum of the integers <code>[0, n)</code>. */
+	private static long sumTo(long n)
+	{
+		return n * (n - 1) / 2;
+	}
+
+	/** @return The sum of the squares of the integers <code>[0, n)</code>. */
+	private static long squaresTo(long n)
+	{
+		return (n - 1) * n * (2 * n - 1) / 6;
+	}
+
+	/**
+	 * @return The number of components.
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The number of pixels in the component.
+	 */
+	public int getArea(int c)
+	{
+		return area[c];
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The bounds of the component. The right and bottom edges are the last column and
+	 * 		row of the component.
+	 */
+	public BoundingBox getBounds(int c)
+	{
+		return new SimpleBoundingBox(left[c], top[c], right[c], bottom[c]);
+	}
+
+	public double getCentroidX(int c)
+	{
+		return (double)sumX[c] / area[c];
+	}
+
+	public double getCentroidY(int c)
+	{
+		return (double)sumY[c] / area[c];
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The second order central moment <code>mu20 / mu00</code>, the variance of the
+	 * 		columns of the component's pixels.
+	 */
+	public double getVarianceX(int c)
+	{
+		double mx = getCentroidX(c);
+		return (double)sumXX[c] / area[c] - mx * mx;
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The second order central moment <code>mu02 / mu00</code>, the variance of the
+	 * 		rows of the component's pixels.
+	 */
+	public double getVarianceY(int c)
+	{
+		double my = getCentroidY(c);
+		return (double)sumYY[c] / area[c] - my * my;
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The second order central moment <code>mu11 / mu00</code>, the covariance of
+	 * 		the columns and rows of the component's pixels.
+	 */
+	public double getCovariance(int c)
+	{
+		return (double)sumXY[c] / area[c] - getCentroidX(c) * getCentroidY(c);
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The orientation of the principal axis of the component, in radians
+	 * 		clockwise from the x axis, since rows increase downwards.
+	 */
+	public double getOrientation(int c)
+	{
+		return 0.5 * Math.atan2(2 * getCovariance(c), getVarianceX(c) - getVarianceY(c));
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The number of holes in the component.
+	 */
+	public int getHoleCount(int c)
+	{
+		return links[c] - runs[c] + 1;
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The Euler number of the component, one minus its number of holes.
+	 */
+	public int getEulerNumber(int c)
+	{
+		return 1 - getHoleCount(c);
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The number of pixel edges between the component and the background, including
+	 * 		the edges of any holes.
+	 */
+	public long getPerimeter(int c)
+	{
+		// four edges per pixel, less two for each pair of 4-adjacent pixels
+		return 2L * area[c] + 2L * runs[c] - 2 * overlap[c];
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return An estimate of the mean stroke width of the component, twice its area divided
+	 * 		by its perimeter. This is exact for long strokes of constant width.
+	 */
+	public double getStrokeWidth(int c)
+	{
+		return 2.0 * area[c] / getPerimeter(c);
+	}
+
+	/**
+	 * @param c The index of a component.
+	 * @return The fraction of the pixels in the bounds of the component that belong to it.
+	 */
+	public double getDensity(int c)
+	{
+		long boxArea = (long)(right[c] - left[c] + 1) * (bottom[c] - top[c] + 1);
+		return (double)area[c] / boxArea;
+	}
+}
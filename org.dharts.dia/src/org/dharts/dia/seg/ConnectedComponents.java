@@ -1,8 +1,17 @@
 package org.dharts.dia.seg;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.RowBands;
 
 
 /**
@@ -19,7 +28,11 @@ import java.util.Map;
  */
 public class ConnectedComponents
 {
-    final static int MAX_LABELS = 100_000;
+    // strips labeled in parallel per worker thread. Every strip adds a seam to merge and a
+    // range of provisional labels, so strips are sized by parallelism rather than by cache
+    private static final int STRIPS_PER_THREAD = 2;
+
+    private final boolean eightConnected;
 //    int nextLabel = 1;
 //    private final UnionFind uf = new UnionFind(MAX_LABELS);
 
@@ -57,6 +70,26 @@ public class ConnectedComponents
      */
 //    public int getMaxLabel() {return nextLabel;}
 
+    /** Creates an instance that labels 4-connected components. */
+    public ConnectedComponents()
+    {
+    	this(false);
+    }
+
+    /**
+     * @param eightConnected <code>true</code> to label 8-connected components, in which
+     * 		diagonally adjacent pixels are connected, rather than 4-connected components.
+     */
+    public ConnectedComponents(boolean eightConnected)
+    {
+    	this.eightConnected = eightConnected;
+    }
+
+    public boolean isEightConnected()
+    {
+    	return eightConnected;
+    }
+
 
     /**
      * Label the connect components
@@ -70,15 +103,155 @@ public class ConnectedComponents
      */
     public int[] labeling(int[] image, int w, int h)
     {
-    	Finder finder = new Finder(image, w, h);
+    	Finder finder = new Finder(image, w, h, eightConnected, new int[w * h], 0, h);
     	return finder.process();
     }
 
+    /**
+     * Labels the connected components of a packed binary image. The components are found from
+     * the runs of the image by {@link RunLabeler}, without expanding the image to one
+     * <code>int</code> per pixel. Components are labeled from <code>1</code> in the raster
+     * order of their first pixel.
+     *
+     * @param image The image.
+     * @return The label of each pixel, in raster order.
+     */
+    public int[] labeling(BinaryImage image)
+    {
+    	int w = image.getWidth();
+    	int[] result = new int[w * image.getHeight()];
+    	int label = 0;
+    	for (RunComponent cc : new RunLabeler(eightConnected).label(image))
+    	{
+    		label++;
+    		for (int i = 0; i < cc.getRunCount(); i++)
+    		{
+    			int offset = cc.getRunY(i) * w;
+    			Arrays.fill(result, offset + cc.getRunStart(i), offset + cc.getRunEnd(i), label);
+    		}
+    	}
+
+    	return result;
+    }
+
+    /**
+     * Labels the connected components using multiple threads. The image is divided into
+     * horizontal strips that are labeled independently, as by {@link #labeling(int[], int, int)}.
+     * Each strip draws its labels from a separate range, so labels are unique across the
+     * image. The labels of components that cross the seams between strips are then merged in a
+     * concurrent union-find structure, and finally every pixel is relabeled with the
+     * representative of its component. Each phase is run in parallel on the supplied
+     * executor, which may be a <code>ForkJoinPool</code>.
+     *
+     * <p>
+     * The result identifies the same components as the serial labeling, although the labels
+     * assigned to them may differ. Background pixels are labeled <code>0</code>.
+     *
+     * @param image The image data. Zero is treated as background.
+     * @param w The width of the image.
+     * @param h The height of the image.
+     * @param ex The executor to label the image on.
+     * @return The label of each pixel, in raster order.
+     * @throws InterruptedException If interrupted while waiting for the image to be
+     * 		labeled.
+     */
+    public int[] labeling(int[] image, int w, int h, ExecutorService ex) throws InterruptedException
+    {
+    	int[] result = new int[w * h];
+    	int nStrips = RowBands.parallelism(ex) * STRIPS_PER_THREAD;
+    	int stripHeight = Math.max(1, (h + nStrips - 1) / nStrips);
+
+    	// label strips independently
+    	final List<Finder> finders = new ArrayList<>();
+    	List<Callable<Void>> strips = new ArrayList<>();
+    	for (int row = 0; row < h; row += stripHeight) {
+    		final Finder finder = new Finder(image, w, h, eightConnected, result, row, Math.min(h, row + stripHeight));
+    		finders.add(finder);
+    		strips.add(new Callable<Void>() {
+    			@Override
+    			public Void call() {
+    				finder.firstPass();
+    				finder.flatten();
+    				return null;
+    			}
+    		});
+    	}
+
+    	RowBands.invokeAll(ex, strips);
+
+    	// merge labels across seams
+    	final SeamMerger merger = new SeamMerger(image, w, eightConnected, result, finders);
+    	List<Callable<Void>> seams = new ArrayList<>();
+    	for (int s = 1; s < finders.size(); s++) {
+    		final int strip = s;
+    		seams.add(new Callable<Void>() {
+    			@Override
+    			public Void call() {
+    				merger.merge(strip);
+    				return null;
+    			}
+    		});
+    	}
+
+    	RowBands.invokeAll(ex, seams);
+
+    	// replace each label by its representative
+    	List<Callable<Void>> relabel = new ArrayList<>();
+    	for (int s = 0; s < finders.size(); s++) {
+    		final int strip = s;
+    		relabel.add(new Callable<Void>() {
+    			@Override
+    			public Void call() {
+    				merger.relabel(strip);
+    				return null;
+    			}
+    		});
+    	}
+
+    	RowBands.invokeAll(ex, relabel);
+    	return result;
+    }
+
+    /**
+     * Finds the connected components of an image, storing every pixel of each component.
+     * For large images, {@link RunLabeler} is considerably faster and more compact.
+     * To compute features of the components, pass a {@link ComponentFeatures} to
+     * {@link RunLabeler#measure(BinaryImage, FeatureAccumulator...)} rather than visiting
+     * the pixels of each component found here.
+     */
     public Collection<ConnectedComponent> findCCs(int[] image, int w, int h)
+    {
+    	return collect(labeling(image, w, h), w, h);
+    }
+
+    /**
+     * Finds the connected components of a packed binary image, storing every pixel of each
+     * component. See {@link #labeling(BinaryImage)}.
+     */
+    public Collection<ConnectedComponent> findCCs(BinaryImage image)
+    {
+    	List<RunComponent> runs = new RunLabeler(eightConnected).label(image);
+    	List<ConnectedComponent> components = new ArrayList<>(runs.size());
+    	for (RunComponent rc : runs)
+    	{
+    		ConnectedComponent cc = new ConnectedComponent();
+    		for (int i = 0; i < rc.getRunCount(); i++)
+    		{
+    			int y = rc.getRunY(i);
+    			for (int x = rc.getRunStart(i); x < rc.getRunEnd(i); x++)
+    				cc.add(x, y);
+    		}
+
+    		components.add(cc);
+    	}
+
+    	return components;
+    }
+
+    private static Collection<ConnectedComponent> collect(int[] labels, int w, int h)
     {
     	Map<Integer, ConnectedComponent> components = new HashMap<>();
     	int offset = 0;
-    	int[] labels = labeling(image, w, h);
     	for (int r = 0; r < h; r++)
     	{
     		for (int c = 0; c < w; c++)
@@ -102,24 +275,45 @@ public class ConnectedComponents
     	return components.values();
     }
 
+    /**
+     * Finds the connected components of an image, labeling it in parallel as by
+     * {@link #labeling(int[], int, int, ExecutorService)}.
+     */
+    public Collection<ConnectedComponent> findCCs(int[] image, int w, int h, ExecutorService ex)
+    		throws InterruptedException
+    {
+    	return collect(labeling(image, w, h, ex), w, h);
+    }
+
+	/**
+	 * Labels the rows <code>[startRow, endRow)</code> of an image, treating them as if they
+	 * were a complete image.
+	 */
 	private static class Finder
 	{
 		private final int[] image;
 		private final int w;
 		private final int h;
+		private final boolean eightConnected;
+		private final int startRow;
+		private final int endRow;
 
 		private int[] result;
 
-		private final UnionFind uf;
+		private final LabelSets uf = new LabelSets();
+		private int[] roots;		// the representative of each provisional label
 
 		boolean zeroAsBg = true;		// HACK: is this needed?
-		public Finder(int[] image, int w, int h) {
+		public Finder(int[] image, int w, int h, boolean eightConnected, int[] result, int startRow, int endRow) {
 			this.image = image;
 			this.w = w;
 			this.h = h;
+			this.eightConnected = eightConnected;
+			this.startRow = startRow;
+			this.endRow = endRow;
 
-			result = new int[w * h];
-			uf = new UnionFind(MAX_LABELS);
+			this.result = result;
+			uf.add();		// label 0 is reserved for the background
 		}
 
 		private int[] process() {
@@ -130,8 +324,8 @@ public class ConnectedComponents
 		}
 
 		private void firstPass() {
-	        int yOffset = -w;
-	        for (int y = 0; y < h; ++y)
+	        int yOffset = (startRow - 1) * w;
+	        for (int y = startRow; y < endRow; ++y)
 	        {
 	        	yOffset += w;		// first element of the current row.
 	            for (int x = 0; x < w; ++x)
@@ -141,41 +335,51 @@ public class ConnectedComponents
 					if (px == 0 && zeroAsBg)
 	                	continue;		// don't label background pixels
 
+	                // merge with the labels of the neighbors that have already been visited
 	                int k = 0;
-	                boolean connected = false;
-	                // if connected to the left
-	                if (x > 0 && image[ix - 1] == px) {
-	                   k = result[ix - 1];
-	                   connected = true;
+	                if (x > 0)
+	                	k = merge(k, ix - 1, px);
+	                if (y > startRow) {
+	                	k = merge(k, ix - w, px);
+	                	if (eightConnected && x > 0)
+	                		k = merge(k, ix - w - 1, px);
+	                	if (eightConnected && x < w - 1)
+	                		k = merge(k, ix - w + 1, px);
 	                }
 
-	                // if connected to the up
-	                int prexIx = (y - 1) * w + x;
-					if (y > 0 && image[prexIx] == px &&
-	                    (connected == false || result[prexIx] < k )) {
-	                    k = result[prexIx];
-	                    connected = true;
-	                }
-
-	                if (!connected)
-	                	k = uf.increment();
-
-	                if (k >= MAX_LABELS)
-	                	throw new IllegalStateException("maximum number of labels reached. increase MAX_LABELS and recompile.");
+	                if (k == 0)
+	                	k = uf.add();
 
 	                result[ix] = k;
-	                // if connected, but with different label, then do union
-	                if (x > 0 && image[ix - 1]== px && result[ix - 1] != k)
-	                	uf.union(k, result[ix - 1]);
-	                if (y > 0 && image[prexIx] == px && result[prexIx] != k)
-	                	uf.union(k, result[prexIx]);
 	            }
 	        }
 		}
 
+		/**
+		 * Merges the label <code>k</code> (or no label, if <code>k</code> is zero) with that
+		 * of a neighboring pixel, if the neighbor has the value <code>px</code>.
+		 */
+		private int merge(int k, int neighbor, int px) {
+			if (image[neighbor] != px)
+				return k;
+
+			int label = result[neighbor];
+			return (k == 0) ? label : uf.union(k, label);
+		}
+
+		/**
+		 * Records the representative of each provisional label, leaving the provisional
+		 * labels in place.
+		 */
+		private void flatten() {
+			roots = new int[uf.size()];
+			for (int l = 0; l < roots.length; l++)
+				roots[l] = uf.find(l);
+		}
+
 		private void secondPass() {
 			int nextLabel = 1;
-		    for (int i = 0; i < w * h; i++ ) {
+		    for (int i = startRow * w; i < endRow * w; i++ ) {
 		        if (image[i] !=0 || !zeroAsBg) {
 		            result[i] = uf.find(result[i]);
 		            // The labels are from 1, if label 0 should be considered, then
@@ -191,6 +395,119 @@ public class ConnectedComponents
 		}
 	}
 
+	/**
+	 * Merges the labels of components that cross the seams between strips. The provisional
+	 * labels of each strip are mapped to a separate range of global labels, and the parent of
+	 * each global label is stored in an <code>AtomicIntegerArray</code>, with <code>0</code>
+	 * marking a root. Roots are only ever linked by a compare-and-set from <code>0</code>, so
+	 * seams may be merged concurrently. Each root is linked to a smaller label, so the
+	 * structure cannot form cycles.
+	 */
+	private static class SeamMerger
+	{
+		private final int[] image;
+		private final int w;
+		private final boolean eightConnected;
+		private final int[] result;
+		private final List<Finder> strips;
+		private final int[] offset;			// the global label of label 0 of each strip
+		private final AtomicIntegerArray parent;
+
+		SeamMerger(int[] image, int w, boolean eightConnected, int[] result, List<Finder> strips) {
+			this.image = image;
+			this.w = w;
+			this.eightConnected = eightConnected;
+			this.result = result;
+			this.strips = strips;
+
+			// label 0 of each strip is the background and is never used
+			offset = new int[strips.size()];
+			int labels = 0;
+			for (int s = 0; s < offset.length; s++) {
+				offset[s] = labels;
+				labels += strips.get(s).uf.size();
+			}
+
+			parent = new AtomicIntegerArray(labels);
+		}
+
+		/**
+		 * Merges the labels of the first row of a strip with those of the last row of the
+		 * previous strip.
+		 */
+		void merge(int strip) {
+			Finder below = strips.get(strip);
+			Finder above = strips.get(strip - 1);
+			int offset = below.startRow * w;
+			for (int x = 0; x < w; x++) {
+				int ix = offset + x;
+				int px = image[ix];
+				if (px == 0)
+					continue;
+
+				int label = global(strip, below, ix);
+				merge(label, strip - 1, above, ix - w, px);
+				if (eightConnected && x > 0)
+					merge(label, strip - 1, above, ix - w - 1, px);
+				if (eightConnected && x < w - 1)
+					merge(label, strip - 1, above, ix - w + 1, px);
+			}
+		}
+
+		/**
+		 * Replaces the provisional labels of a strip by the global representatives of their
+		 * components.
+		 */
+		void relabel(int strip) {
+			Finder finder = strips.get(strip);
+			for (int i = finder.startRow * w; i < finder.endRow * w; i++) {
+				if (result[i] != 0)
+					result[i] = find(global(strip, finder, i));
+			}
+		}
+
+		private int global(int strip, Finder finder, int ix) {
+			return offset[strip] + finder.roots[result[ix]];
+		}
+
+		private void merge(int label, int strip, Finder finder, int neighbor, int px) {
+			if (image[neighbor] == px)
+				union(label, global(strip, finder, neighbor));
+		}
+
+		private int find(int label) {
+			int p;
+			while ((p = parent.get(label)) != 0) {
+				int gp = parent.get(p);
+				if (gp != 0)
+					parent.compareAndSet(label, p, gp);		// halve the path
+
+				label = p;
+			}
+
+			return label;
+		}
+
+		private void union(int a, int b) {
+			while (true) {
+				a = find(a);
+				b = find(b);
+				if (a == b)
+					return;
+
+				// link the larger root to the smaller one
+				if (a < b) {
+					int t = a;
+					a = b;
+					b = t;
+				}
+
+				if (parent.compareAndSet(a, 0, b))
+					return;
+			}
+		}
+	}
+
     /***************************************************************************
     *  Compilation:  javac WeightedQuickUnionUF.java
     *  Execution:  java WeightedQuickUnionUF < input.txt
@@ -200,6 +517,11 @@ public class ConnectedComponents
     *
     ****************************************************************************/
 
+   /**
+    * @deprecated This has a fixed capacity and does not compress paths. Use
+    * 		{@link LabelSets} instead.
+    */
+   @Deprecated
    public static class UnionFind {
        private final int[] id;    // id[i] = parent of i
        private final int[] sz;    // sz[i] = number of objects in subtree rooted at i
@@ -0,0 +1,40 @@
+package org.dharts.dia.seg;
+
+/**
+ * Accumulates features of connected components while they are labeled by a
+ * {@link RunLabeler}. Rather than visiting the pixels of each component after labeling, an
+ * accumulator is passed each run of foreground pixels once, together with the final index of
+ * its component, so that features can be computed as running sums held in primitive arrays
+ * indexed by component.
+ *
+ * <p>
+ * Runs are passed in raster order. For each run, the labeler also supplies how it connects
+ * to the runs of the previous row. This allows features that depend on the shape of a
+ * component, such as its perimeter or number of holes, to be computed without a further
+ * traversal of the image.
+ *
+ * @see ComponentFeatures
+ */
+public interface FeatureAccumulator
+{
+	/**
+	 * Called once before any runs are passed.
+	 *
+	 * @param components The number of components. Components are numbered from
+	 * 		<code>0</code> in the raster order of their first pixel.
+	 */
+	void start(int components);
+
+	/**
+	 * Called once for each run of foreground pixels.
+	 *
+	 * @param component The index of the component containing the run.
+	 * @param y The row of the run.
+	 * @param from The first column of the run.
+	 * @param to The column after the last column of the run.
+	 * @param links The number of runs of the previous row that are connected to this run.
+	 * @param overlap The number of columns that this run shares with the runs of the
+	 * 		previous row. Runs that only touch diagonally share no columns.
+	 */
+	void addRun(int component, int y, int from, int to, int links, int overlap);
+}
@@ -0,0 +1,128 @@
+package org.dharts.dia.seg;
+
+import java.util.Arrays;
+
+/**
+ * A union-find structure over consecutive integer labels, used to record the equivalences
+ * between provisional labels during connected component labeling. Unlike
+ * {@link ConnectedComponents.UnionFind}, the number of labels is not fixed in advance: the
+ * backing arrays double in size as labels are added. Sets are merged by rank and paths are
+ * halved during {@link #find(int)}, so any sequence of operations runs in nearly linear time.
+ *
+ * <p>
+ * This class is not thread-safe.
+ */
+public final class LabelSets
+{
+	private int[] parent;
+	private byte[] rank;
+	private int size = 0;
+	private int count = 0;
+
+	/** Creates an empty structure. */
+	public LabelSets()
+	{
+		this(1024);
+	}
+
+	/**
+	 * @param capacity The number of labels to allocate space for initially.
+	 */
+	public LabelSets(int capacity)
+	{
+		if (capacity < 1)
+			capacity = 1;
+
+		parent = new int[capacity];
+		rank = new byte[capacity];
+	}
+
+	/**
+	 * Adds a new label in a set of its own.
+	 *
+	 * @return The new label. Labels are numbered consecutively from <code>0</code>.
+	 */
+	public int add()
+	{
+		if (size == parent.length) {
+			int capacity = size * 2;
+			if (capacity < 0)
+				throw new IllegalStateException("Too many labels (" + size + ")");
+
+			parent = Arrays.copyOf(parent, capacity);
+			rank = Arrays.copyOf(rank, capacity);
+		}
+
+		parent[size] = size;
+		count++;
+		return size++;
+	}
+
+	/**
+	 * @param label A label.
+	 * @return The representative label of the set containing the label.
+	 */
+	public int find(int label)
+	{
+		int[] parent = this.parent;
+		while (parent[label] != label) {
+			parent[label] = parent[parent[label]];
+			label = parent[label];
+		}
+
+		return label;
+	}
+
+	/**
+	 * Merges the sets containing two labels.
+	 *
+	 * @param a A label.
+	 * @param b A label.
+	 * @return The representative label of the merged set.
+	 */
+	public int union(int a, int b)
+	{
+		a = find(a);
+		b = find(b);
+		if (a == b)
+			return a;
+
+		count--;
+		if (rank[a] < rank[b]) {
+			parent[a] = b;
+			return b;
+		} else {
+			if (rank[a] == rank[b])
+				rank[a]++;
+
+			parent[b] = a;
+			return a;
+		}
+	}
+
+	/**
+	 * @param a A label.
+	 * @param b A label.
+	 * @return <code>true</code> if the labels are in the same set.
+	 */
+	public boolean connected(int a, int b)
+	{
+		return find(a) == find(b);
+	}
+
+	/**
+	 * @return The number of labels that have been added.
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return The number of disjoint sets.
+	 */
+	public int count()
+	{
+		return count;
+	}
+}
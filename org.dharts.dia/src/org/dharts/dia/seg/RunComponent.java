@@ -0,0 +1,168 @@
+package org.dharts.dia.seg;
+
+import java.awt.image.WritableRaster;
+
+import org.dharts.dia.BoundingBox;
+import org.dharts.dia.SimpleBoundingBox;
+
+/**
+ * A connected component found by {@link RunLabeler}. Rather than storing its pixels, a
+ * component refers to its horizontal runs, which are stored for all components of an image
+ * in a single shared array. Each run occupies three consecutive elements of that array: the
+ * row, the first column and the column after the last. A component's runs are sorted by row
+ * and then by column.
+ */
+public final class RunComponent
+{
+	/** The number of array elements used to store each run. */
+	public static final int RUN_SIZE = 3;
+
+	private final int[] runs;
+	private final int runOffset;
+	private final int runCount;
+
+	private final int left;
+	private final int top;
+	private final int right;
+	private final int bottom;
+	private final int area;
+	private final double centroidX;
+	private final double centroidY;
+
+	RunComponent(int[] runs, int runOffset, int runCount, int left, int top, int right, int bottom,
+			int area, double centroidX, double centroidY)
+	{
+		this.runs = runs;
+		this.runOffset = runOffset;
+		this.runCount = runCount;
+		this.left = left;
+		this.top = top;
+		this.right = right;
+		this.bottom = bottom;
+		this.area = area;
+		this.centroidX = centroidX;
+		this.centroidY = centroidY;
+	}
+
+	/**
+	 * @return The bounds of this component. As for {@link ConnectedComponent#getBounds()},
+	 * 		the right and bottom edges are the last column and row of the component.
+	 */
+	public BoundingBox getBounds()
+	{
+		return new SimpleBoundingBox(left, top, right, bottom);
+	}
+
+	public int getLeft()
+	{
+		return left;
+	}
+
+	public int getTop()
+	{
+		return top;
+	}
+
+	public int getRight()
+	{
+		return right;
+	}
+
+	public int getBottom()
+	{
+		return bottom;
+	}
+
+	/**
+	 * @return The number of pixels in this component.
+	 */
+	public int getArea()
+	{
+		return area;
+	}
+
+	public double getCentroidX()
+	{
+		return centroidX;
+	}
+
+	public double getCentroidY()
+	{
+		return centroidY;
+	}
+
+	/**
+	 * @return The array that stores the runs of this component, shared with the other
+	 * 		components of the same image. This array must not be modified.
+	 */
+	public int[] getRuns()
+	{
+		return runs;
+	}
+
+	/**
+	 * @return The index in {@link #getRuns()} of this component's first run.
+	 */
+	public int getRunOffset()
+	{
+		return runOffset;
+	}
+
+	/**
+	 * @return The number of runs in this component.
+	 */
+	public int getRunCount()
+	{
+		return runCount;
+	}
+
+	/**
+	 * @param i The index of a run of this component.
+	 * @return The row of the run.
+	 */
+	public int getRunY(int i)
+	{
+		return runs[runOffset + i * RUN_SIZE];
+	}
+
+	/**
+	 * @param i The index of a run of this component.
+	 * @return The first column of the run.
+	 */
+	public int getRunStart(int i)
+	{
+		return runs[runOffset + i * RUN_SIZE + 1];
+	}
+
+	/**
+	 * @param i The index of a run of this component.
+	 * @return The column after the last column of the run.
+	 */
+	public int getRunEnd(int i)
+	{
+		return runs[runOffset + i * RUN_SIZE + 2];
+	}
+
+	/**
+	 * Sets the pixels of this component in a raster.
+	 *
+	 * @param raster The raster to write to.
+	 * @param color The sample to write to each band.
+	 * @see ConnectedComponent#write(ConnectedComponent, WritableRaster, int[])
+	 */
+	public void write(WritableRaster raster, int[] color)
+	{
+		int bands = color.length;
+		int end = runOffset + runCount * RUN_SIZE;
+		for (int i = runOffset; i < end; i += RUN_SIZE)
+		{
+			int y = runs[i];
+			for (int x = runs[i + 1]; x < runs[i + 2]; x++)
+			{
+				for (int b = 0; b < bands; b++) {
+					raster.setSample(x, y, b, color[b]);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package org.dharts.dia.seg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dharts.dia.util.BinaryImage;
+
+/**
+ * Labels the connected components of a binary image by operating on horizontal runs of
+ * foreground pixels rather than on individual pixels. For binary input this produces the
+ * same components as {@link ConnectedComponents} with the same connectivity, but requires
+ * memory proportional to the number of runs rather than the number of pixels, and does not
+ * allocate any objects per pixel.
+ *
+ * <p>
+ * Note that {@link ConnectedComponents#labeling(int[], int, int)} only connects neighboring
+ * pixels of equal value, so it separates adjacent regions of different non-zero values.
+ * This class labels binary images: every non-zero value is foreground, and such regions
+ * form a single component.
+ *
+ * <p>
+ * The runs of each row are extracted from the packed words of a {@link BinaryImage}, 64
+ * pixels at a time (see {@link BinaryImage#getRuns(int, int[])}). Each run is given a
+ * provisional label, and runs that overlap a run of the previous row are merged with it in
+ * a {@link LabelSets} structure. A second pass over the runs resolves the final labels,
+ * accumulates the statistics of each component and groups the runs of each component
+ * together in a single shared array. Further features may be computed in the same pass by
+ * supplying {@link FeatureAccumulator}s, such as {@link ComponentFeatures}.
+ *
+ * <p>
+ * Instances hold no state and may be used from multiple threads.
+ */
+public class RunLabeler
+{
+	private final boolean eightConnected;
+
+	/** Creates a labeler for 4-connected components. */
+	public RunLabeler()
+	{
+		this(false);
+	}
+
+	/**
+	 * @param eightConnected <code>true</code> to label 8-connected components, in which
+	 * 		diagonally adjacent pixels are connected, rather than 4-connected components.
+	 */
+	public RunLabeler(boolean eightConnected)
+	{
+		this.eightConnected = eightConnected;
+	}
+
+	public boolean isEightConnected()
+	{
+		return eightConnected;
+	}
+
+	/**
+	 * Labels the components of an image.
+	 *
+	 * @param image The image data in raster order. All non-zero values are treated as
+	 * 		foreground, regardless of their value.
+	 * @param w The width of the image.
+	 * @param h The height of the image.
+	 * @return The components, in the raster order of their first pixel.
+	 */
+	public List<RunComponent> label(int[] image, int w, int h)
+	{
+		return label(BinaryImage.fromArray(image, w, h));
+	}
+
+	/**
+	 * Labels the components of an image.
+	 *
+	 * @param image The image.
+	 * @return The components, in the raster order of their first pixel.
+	 */
+	public List<RunComponent> label(BinaryImage image)
+	{
+		return label(image, new FeatureAccumulator[0]);
+	}
+
+	/**
+	 * Labels the components of an image, passing their runs to the supplied accumulators as
+	 * the components are resolved.
+	 *
+	 * @param image The image.
+	 * @param features The accumulators to update. The index of each component is its index
+	 * 		in the returned list.
+	 * @return The components, in the raster order of their first pixel.
+	 */
+	public List<RunComponent> label(BinaryImage image, FeatureAccumulator... features)
+	{
+		Runs runs = new Runs(image.getHeight(), eightConnected ? 1 : 0);
+		runs.extract(image);
+		return runs.resolve(features);
+	}
+
+	/**
+	 * Labels the components of an image and passes their runs to the supplied accumulators,
+	 * without building {@link RunComponent}s. This is the cheapest way to compute the
+	 * features of the components of an image when their pixels are not needed.
+	 *
+	 * @param image The image.
+	 * @param features The accumulators to update.
+	 * @return The number of components. Components are numbered in the raster order of their
+	 * 		first pixel.
+	 */
+	public int measure(BinaryImage image, FeatureAccumulator... features)
+	{
+		Runs runs = new Runs(image.getHeight(), eightConnected ? 1 : 0);
+		runs.extract(image);
+		int n = runs.number();
+		runs.accumulate(n, features);
+		return n;
+	}
+
+	/**
+	 * The runs of an image, with their provisional labels.
+	 */
+	private static final class Runs
+	{
+		private final int height;
+		private final int reach;			// 1 if runs that touch diagonally are connected
+		private final int[] rowStart;		// index of the first run of each row
+
+		private int count = 0;
+		private int cursor = 0;			// first run of the previous row that may overlap the next run
+		private int[] start;
+		private int[] end;
+		private int[] label;
+		private int[] links;				// the number of runs of the previous row connected to each run
+		private int[] overlap;				// the number of columns shared with those runs
+
+		private final LabelSets sets;
+
+		private Runs(int height, int reach)
+		{
+			this.height = height;
+			this.reach = reach;
+			this.rowStart = new int[height + 1];
+
+			int capacity = Math.max(16, height * 4);
+			start = new int[capacity];
+			end = new int[capacity];
+			label = new int[capacity];
+			links = new int[capacity];
+			overlap = new int[capacity];
+			sets = new LabelSets(capacity);
+		}
+
+		private void extract(BinaryImage image)
+		{
+			int[] buffer = new int[image.getWidth() + 1];
+			for (int y = 0; y < height; y++)
+			{
+				rowStart[y] = count;
+				cursor = (y > 0) ? rowStart[y - 1] : 0;
+				int n = image.getRuns(y, buffer);
+				for (int i = 0; i < n; i++)
+					add(y, buffer[2 * i], buffer[2 * i + 1]);
+			}
+
+			rowStart[height] = count;
+		}
+
+		/**
+		 * Adds a run, merging it with the overlapping runs of the previous row.
+		 */
+		private void add(int y, int from, int to)
+		{
+			if (count == start.length) {
+				int capacity = count * 2;
+				start = Arrays.copyOf(start, capacity);
+				end = Arrays.copyOf(end, capacity);
+				label = Arrays.copyOf(label, capacity);
+				links = Arrays.copyOf(links, capacity);
+				overlap = Arrays.copyOf(overlap, capacity);
+			}
+
+			int l = -1;
+			int linked = 0;
+			int shared = 0;
+			if (y > 0) {
+				// the runs of both rows are sorted, so runs of the previous row that end before
+				// this one cannot overlap any later run of this row either
+				int prevEnd = rowStart[y];
+				while (cursor < prevEnd && end[cursor] + reach <= from)
+					cursor++;
+
+				for (int i = cursor; i < prevEnd && start[i] < to + reach; i++)
+				{
+					l = (l < 0) ? label[i] : sets.union(l, label[i]);
+					linked++;
+					shared += Math.max(0, Math.min(to, end[i]) - Math.max(from, start[i]));
+				}
+			}
+
+			if (l < 0)
+				l = sets.add();
+
+			start[count] = from;
+			end[count] = to;
+			label[count] = l;
+			links[count] = linked;
+			overlap[count] = shared;
+			count++;
+		}
+
+		/**
+		 * Resolves the final labels, updates the accumulators and builds the components.
+		 */
+		private List<RunComponent> resolve(FeatureAccumulator[] features)
+		{
+			int n = number();
+			accumulate(n, features);
+			return build(n);
+		}
+
+		/**
+		 * Numbers the components in the order of their first run, replacing the provisional
+		 * label of each run with the index of its component.
+		 *
+		 * @return The number of components.
+		 */
+		private int number()
+		{
+			int labels = sets.size();
+			int[] component = new int[labels];
+			Arrays.fill(component, -1);
+			int n = 0;
+			for (int l = 0; l < labels; l++)
+			{
+				int root = sets.find(l);
+				if (component[root] < 0)
+					component[root] = n++;
+				component[l] = component[root];
+			}
+
+			for (int i = 0; i < count; i++)
+				label[i] = component[label[i]];
+
+			return n;
+		}
+
+		/**
+		 * Passes each run to the accumulators. Must be called after {@link #number()}.
+		 */
+		private void accumulate(int n, FeatureAccumulator[] features)
+		{
+			for (FeatureAccumulator f : features)
+				f.start(n);
+
+			if (features.length == 0)
+				return;
+
+			for (int y = 0; y < height; y++)
+			{
+				for (int i = rowStart[y]; i < rowStart[y + 1]; i++)
+				{
+					for (FeatureAccumulator f : features)
+						f.addRun(label[i], y, start[i], end[i], links[i], overlap[i]);
+				}
+			}
+		}
+
+		/**
+		 * Accumulates the statistics of each component and groups its runs.
+		 */
+		private List<RunComponent> build(int n)
+		{
+			int[] runCount = new int[n];
+			int[] area = new int[n];
+			int[] left = new int[n];
+			int[] top = new int[n];
+			int[] right = new int[n];
+			int[] bottom = new int[n];
+			long[] sumX = new long[n];
+			long[] sumY = new long[n];
+			Arrays.fill(left, Integer.MAX_VALUE);
+			Arrays.fill(top, -1);
+
+			for (int y = 0; y < height; y++)
+			{
+				for (int i = rowStart[y]; i < rowStart[y + 1]; i++)
+				{
+					int c = label[i];
+
+					int length = end[i] - start[i];
+					runCount[c]++;
+					area[c] += length;
+					sumX[c] += (long)(start[i] + end[i] - 1) * length / 2;
+					sumY[c] += (long)y * length;
+
+					if (top[c] < 0)
+						top[c] = y;
+					bottom[c] = y;
+					left[c] = Math.min(left[c], start[i]);
+					right[c] = Math.max(right[c], end[i] - 1);
+				}
+			}
+
+			// group the runs of each component, preserving raster order
+			int[] offset = new int[n];
+			for (int c = 1; c < n; c++)
+				offset[c] = offset[c - 1] + runCount[c - 1] * RunComponent.RUN_SIZE;
+
+			int[] next = offset.clone();
+			int[] runs = new int[count * RunComponent.RUN_SIZE];
+			for (int y = 0; y < height; y++)
+			{
+				for (int i = rowStart[y]; i < rowStart[y + 1]; i++)
+				{
+					int ix = next[label[i]];
+					runs[ix] = y;
+					runs[ix + 1] = start[i];
+					runs[ix + 2] = end[i];
+					next[label[i]] = ix + RunComponent.RUN_SIZE;
+				}
+			}
+
+			List<RunComponent> components = new ArrayList<>(n);
+			for (int c = 0; c < n; c++)
+			{
+				components.add(new RunComponent(runs, offset[c], runCount[c],
+						left[c], top[c], right[c], bottom[c], area[c],
+						(double)sumX[c] / area[c], (double)sumY[c] / area[c]));
+			}
+
+			return components;
+		}
+	}
+}
@@ -0,0 +1,426 @@
+package org.dharts.dia.seg;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageReader;
+
+import org.dharts.dia.threshold.StreamingSauvola;
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.GrayscaleReader;
+import org.dharts.dia.util.ImageStrips;
+
+/**
+ * Labels the connected components of a binary image that is supplied one row at a time,
+ * passing each component to a {@link ComponentSink} as soon as it is complete. Only the runs
+ * of the previous row and the components that are still open are kept in memory, so the
+ * memory required is proportional to the width of the image and the number of open
+ * components rather than to the area of the image. This makes it suitable for very tall
+ * images such as stitched microfilm reels.
+ *
+ * <p>
+ * Rows may be supplied directly using {@link #accept(int, int[])}, which also allows a
+ * labeler to be used as the sink of a {@link StreamingSauvola.Session} to label a grayscale
+ * image as it is binarized, or from packed strips using
+ * {@link #accept(int, BinaryImage, int)}. Already binary images may also be read using
+ * {@link #process(ImageReader, int)}. A component is complete once no run of the current row
+ * touches it. {@link #finish()} must be called after the last row to emit the components
+ * that touch the bottom of the image.
+ *
+ * <p>
+ * Every non-zero value is foreground, so for binary images, components are the same as those
+ * found by {@link ConnectedComponents} or {@link RunLabeler} with the same connectivity.
+ * Instances are not thread-safe and label a single image.
+ */
+public class StreamingLabeler implements StreamingSauvola.ScanlineSink
+{
+	/**
+	 * Receives components from a {@link StreamingLabeler}.
+	 */
+	public interface ComponentSink
+	{
+		/**
+		 * Called once for each component, as soon as it is complete. Components are passed
+		 * in the order in which they are completed.
+		 *
+		 * @param component The component.
+		 */
+		void accept(ConnectedComponent component);
+	}
+
+	private final int width;
+	private final int reach;			// 1 if runs that touch diagonally are connected
+	private final ComponentSink sink;
+
+	// the runs of the previous and current rows, with their components
+	private int prevCount = 0;
+	private int[] prevStart;
+	private int[] prevEnd;
+	private Open[] prevOpen;
+
+	private int count = 0;
+	private int cursor = 0;				// first run of the previous row that may touch the next run
+	private int[] start;
+	private int[] end;
+	private Open[] open;
+
+	private int[] runBuffer = null;		// runs read from packed rows
+
+	private int next = 0;				// the next row expected
+	private int openCount = 0;
+	private boolean finished = false;
+
+	/**
+	 * Creates a labeler for the 4-connected components of an image.
+	 *
+	 * @param width The width of the image.
+	 * @param sink The sink to pass components to.
+	 */
+	public StreamingLabeler(int width, ComponentSink sink)
+	{
+		this(width, false, sink);
+	}
+
+	/**
+	 * @param width The width of the image.
+	 * @param eightConnected <code>true</code> to label 8-connected components rather than
+	 * 		4-connected components.
+	 * @param sink The sink to pass components to.
+	 */
+	public StreamingLabeler(int width, boolean eightConnected, ComponentSink sink)
+	{
+		if (width <= 0)
+			throw new IllegalArgumentException("Invalid image width (" + width + ")");
+		if (sink == null)
+			throw new NullPointerException("No sink supplied");
+
+		this.width = width;
+		this.reach = eightConnected ? 1 : 0;
+		this.sink = sink;
+
+		int capacity = Math.min(width / 2 + 1, 256);
+		prevStart = new int[capacity];
+		prevEnd = new int[capacity];
+		prevOpen = new Open[capacity];
+		start = new int[capacity];
+		end = new int[capacity];
+		open = new Open[capacity];
+	}
+
+	/**
+	 * Labels the next row of the image. Components that do not extend into this row are
+	 * passed to the sink before this method returns.
+	 *
+	 * @param y The index of the row. Rows must be supplied in order, starting from 0.
+	 * @param row The pixels of the row. Non-zero values are treated as foreground. Only the
+	 * 		first <code>width</code> values are read and the array is not retained.
+	 */
+	@Override
+	public void accept(int y, int[] row)
+	{
+		startRow(y);
+		int x = 0;
+		while (x < width)
+		{
+			while (x < width && row[x] == 0)
+				x++;
+			if (x == width)
+				break;
+
+			int from = x;
+			while (x < width && row[x] != 0)
+				x++;
+
+			addRun(y, from, x);
+		}
+
+		endRow();
+	}
+
+	/**
+	 * Labels the next row of the image from a packed binary image. The runs of the row are
+	 * read directly from its words.
+	 *
+	 * @param y The index of the row. Rows must be supplied in order, starting from 0.
+	 * @param image An image holding the row. It must have the width of this labeler, and may
+	 * 		be a single row or a strip of the page as long as <code>y - firstRow</code> is a
+	 * 		row of it.
+	 * @param firstRow The row of the page that corresponds to the first row of the image.
+	 */
+	public void accept(int y, BinaryImage image, int firstRow)
+	{
+		if (image.getWidth() != width)
+			throw new IllegalArgumentException("The image width (" + image.getWidth() + ") does not match that of this labeler (" + width + ")");
+
+		startRow(y);
+		if (runBuffer == null)
+			runBuffer = new int[width + 1];
+
+		int n = image.getRuns(y - firstRow, runBuffer);
+		for (int i = 0; i < n; i++)
+			addRun(y, runBuffer[2 * i], runBuffer[2 * i + 1]);
+
+		endRow();
+	}
+
+	/**
+	 * Labels all rows of a packed binary image and calls {@link #finish()}.
+	 *
+	 * @param image The image.
+	 */
+	public void process(BinaryImage image)
+	{
+		for (int y = 0; y < image.getHeight(); y++)
+			accept(y, image, 0);
+
+		finish();
+	}
+
+	/**
+	 * Emits the components that are still open. Must be called once all rows have been
+	 * supplied.
+	 */
+	public void finish()
+	{
+		if (finished)
+			return;
+
+		finished = true;
+		for (int i = 0; i < prevCount; i++)
+			emit(find(prevOpen[i]));
+
+		Arrays.fill(prevOpen, 0, prevCount, null);
+		prevCount = 0;
+	}
+
+	/**
+	 * Labels a binary image read from the supplied reader. The image is decoded a few rows at
+	 * a time by {@link ImageStrips}, so the complete image is never held in memory. Images
+	 * that are not tiled should be stored in a format whose rows can be decoded without
+	 * decoding the rows before them (see {@link ImageStrips}). Pixels whose gray level is less
+	 * than 128 are treated as foreground, so for bilevel images, black pixels are foreground.
+	 * {@link #finish()} is called once all rows have been read.
+	 *
+	 * @param reader A reader whose input has been set.
+	 * @param imageIndex The index of the image to read.
+	 * @throws IOException If the image cannot be read.
+	 */
+	public void process(ImageReader reader, int imageIndex) throws IOException
+	{
+		ImageStrips strips = new ImageStrips(reader, imageIndex);
+		int w = strips.getWidth();
+		if (w != width)
+			throw new IllegalArgumentException("The image width (" + w + ") does not match that of this labeler (" + width + ")");
+
+		int[] row = new int[w];
+		while (strips.hasNext()) {
+			GrayscaleReader gray = GrayscaleReader.create(GrayscaleReader.toGray(strips.next()));
+			for (int r = 0; r < strips.getRows(); r++) {
+				gray.readRow(r, row, 0);
+				for (int x = 0; x < w; x++)
+					row[x] = (row[x] < 128) ? 1 : 0;
+
+				accept(strips.getY() + r, row);
+			}
+		}
+
+		finish();
+	}
+
+	/**
+	 * @return The number of components that have been started but not yet emitted.
+	 */
+	public int getOpenComponentCount()
+	{
+		return openCount;
+	}
+
+	private void startRow(int y)
+	{
+		if (finished)
+			throw new IllegalStateException("The image has already been finished");
+		if (y != next)
+			throw new IllegalArgumentException("Expected row " + next + " but received row " + y);
+
+		count = 0;
+		cursor = 0;
+	}
+
+	private void endRow()
+	{
+		closeUnextended();
+		swapRows();
+		next++;
+	}
+
+	/**
+	 * Adds a run to the current row, merging the components of the runs of the previous row
+	 * that it touches.
+	 */
+	private void addRun(int y, int from, int to)
+	{
+		if (count == start.length) {
+			int capacity = count * 2;
+			start = Arrays.copyOf(start, capacity);
+			end = Arrays.copyOf(end, capacity);
+			open = Arrays.copyOf(open, capacity);
+		}
+
+		Open component = null;
+		for (int i = cursor(from); i < prevCount && prevStart[i] < to + reach; i++)
+		{
+			Open other = find(prevOpen[i]);
+			if (component == null)
+				component = other;
+			else if (component != other)
+				component = merge(component, other);
+		}
+
+		if (component == null) {
+			component = new Open();
+			openCount++;
+		}
+
+		component.add(y, from, to);
+		component.lastRow = y;
+
+		start[count] = from;
+		end[count] = to;
+		open[count] = component;
+		count++;
+	}
+
+	/**
+	 * @return The first run of the previous row that may touch a run starting at
+	 * 		<code>from</code>. Runs of the current row are added in order, so the runs of the
+	 * 		previous row that end before this one cannot touch any later run either.
+	 */
+	private int cursor(int from)
+	{
+		while (cursor < prevCount && prevEnd[cursor] + reach <= from)
+			cursor++;
+
+		return cursor;
+	}
+
+	/**
+	 * Emits the components of the previous row that were not extended into the current row.
+	 */
+	private void closeUnextended()
+	{
+		for (int i = 0; i < prevCount; i++)
+		{
+			Open component = find(prevOpen[i]);
+			if (component.lastRow < next)
+				emit(component);
+		}
+	}
+
+	private void swapRows()
+	{
+		int[] s = prevStart;
+		int[] e = prevEnd;
+		Open[] o = prevOpen;
+		Arrays.fill(o, 0, prevCount, null);		// release references to closed components
+
+		prevStart = start;
+		prevEnd = end;
+		prevOpen = open;
+		prevCount = count;
+
+		start = s;
+		end = e;
+		open = o;
+		count = 0;
+	}
+
+	private void emit(Open component)
+	{
+		if (component.emitted)
+			return;
+
+		component.emitted = true;
+		openCount--;
+		sink.accept(component.toComponent());
+	}
+
+	private static Open find(Open component)
+	{
+		Open root = component;
+		while (root.forward != null)
+			root = root.forward;
+
+		// compress the path so that closed components can be collected
+		while (component.forward != null && component.forward != root) {
+			Open next = component.forward;
+			component.forward = root;
+			component = next;
+		}
+
+		return root;
+	}
+
+	/**
+	 * Merges two open components, copying the runs of the smaller into the larger.
+	 */
+	private Open merge(Open a, Open b)
+	{
+		if (a.size < b.size) {
+			Open t = a;
+			a = b;
+			b = t;
+		}
+
+		a.addAll(b);
+		a.lastRow = Math.max(a.lastRow, b.lastRow);
+		b.forward = a;
+		b.runs = null;
+		openCount--;
+		return a;
+	}
+
+	/**
+	 * A component that has not yet been emitted. Runs are stored as
+	 * <code>(row, start, end)</code> triples.
+	 */
+	private static final class Open
+	{
+		private int[] runs = new int[3 * 4];
+		private int size = 0;
+		private int lastRow = -1;
+		private Open forward = null;			// the component this one was merged into
+		private boolean emitted = false;
+
+		private void add(int y, int from, int to)
+		{
+			if (size + 3 > runs.length)
+				runs = Arrays.copyOf(runs, runs.length * 2);
+
+			runs[size++] = y;
+			runs[size++] = from;
+			runs[size++] = to;
+		}
+
+		private void addAll(Open other)
+		{
+			if (size + other.size > runs.length)
+				runs = Arrays.copyOf(runs, Math.max(runs.length * 2, size + other.size));
+
+			System.arraycopy(other.runs, 0, runs, size, other.size);
+			size += other.size;
+		}
+
+		private ConnectedComponent toComponent()
+		{
+			ConnectedComponent component = new ConnectedComponent();
+			for (int i = 0; i < size; i += 3)
+			{
+				int y = runs[i];
+				for (int x = runs[i + 1]; x < runs[i + 2]; x++)
+					component.add(x, y);
+			}
+
+			return component;
+		}
+	}
+}
@@ -5,7 +5,9 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
+import org.dharts.dia.util.BinaryImage;
 import org.dharts.dia.util.ImageWrapper;
 import org.dharts.dia.util.IntegralImage;
 
@@ -18,16 +20,65 @@ public class ProjectionProfiler implements Callable<List<Integer>>
 		return new ProjectionProfiler(wrapper.getIntegralImage());
 	}
 
+	/**
+	 * Creates a profiler for the supplied image, building its integral image in parallel on
+	 * the supplied executor.
+	 *
+	 * @param image The image to profile.
+	 * @param ex The executor to use. This will not be shut down.
+	 * @return The profiler.
+	 */
+	public static ProjectionProfiler create(BufferedImage image, ExecutorService ex)
+	{
+		// projections only need the sums, not the sums of squares
+		ImageWrapper wrapper = new ImageWrapper(image, false, false, ex);
+		return new ProjectionProfiler(wrapper.getIntegralImage());
+	}
+
 	public static ProjectionProfiler create(IntegralImage iImage)
 	{
 		return new ProjectionProfiler(iImage);
 	}
 
+	/**
+	 * Creates a profiler for a binarized image. The projections are computed from the number
+	 * of foreground pixels in each row, with foreground pixels counted as black (0) and
+	 * background pixels as white (255), so no integral image is required.
+	 *
+	 * @param image The image to profile.
+	 * @return The profiler.
+	 */
+	public static ProjectionProfiler create(BinaryImage image)
+	{
+		return new ProjectionProfiler(image);
+	}
+
 	private final IntegralImage iImage;
+	private final int width;
+	private final int height;
+	private final long[] rowSums;		// for binary images, the sum of the gray values of rows [0, y]
 
 	public ProjectionProfiler(IntegralImage iImage)
 	{
 		this.iImage = iImage;
+		this.width = iImage.getWidth();
+		this.height = iImage.getHeight();
+		this.rowSums = null;
+	}
+
+	public ProjectionProfiler(BinaryImage image)
+	{
+		this.iImage = null;
+		this.width = image.getWidth();
+		this.height = image.getHeight();
+		this.rowSums = new long[height];
+
+		long sum = 0;
+		for (int y = 0; y < height; y++)
+		{
+			sum += 255L * (width - image.countRow(y));
+			rowSums[y] = sum;
+		}
 	}
 
 	@Override
@@ -37,7 +88,7 @@ public class ProjectionProfiler implements Callable<List<Integer>>
 
 	public List<Integer> findLines()
 	{
-		int h = iImage.getHeight();
+		int h = height;
 
 		long[] proj = new long[h];
 		long[] dProj = new long[h];
@@ -45,11 +96,11 @@ public class ProjectionProfiler implements Callable<List<Integer>>
 		dProj[0] = 0;
 		int window = 30;
 		boolean increasing = false;
-		proj[0] = iImage.getHorizontalProjection(0, window);
+		proj[0] = getHorizontalProjection(0, window);
 		List<Integer> lines = new ArrayList<>();
 		for (int y = 1; y < h; y++)
 		{
-			proj[y] = iImage.getHorizontalProjection(y, window);
+			proj[y] = getHorizontalProjection(y, window);
 			dProj[y] = proj[y] - proj[y - 1];
 
 			if ((dProj[y] > 0 && !increasing) || (dProj[y] < 0 && increasing))
@@ -65,6 +116,28 @@ public class ProjectionProfiler implements Callable<List<Integer>>
 		return lines;
 	}
 
+	/**
+	 * See {@link IntegralImage#getHorizontalProjection(int, int)}.
+	 */
+	private long getHorizontalProjection(int y, int window)
+	{
+		if (iImage != null)
+			return iImage.getHorizontalProjection(y, window);
+
+		int miny = y - (window / 2);
+		miny = miny > 0 ? miny : 0;
+
+		int maxy = miny + window;
+		if (maxy >= height)
+		{
+			maxy = height - 1;
+			miny = maxy - window;
+		}
+
+		long before = (miny >= 0) ? rowSums[miny] : 0;
+		return (rowSums[maxy] - before) / ((long)window * width);
+	}
+
 	private static void prune(long[] proj, List<Integer> lines) {
 		double mean = 0;
 		double var = 0;
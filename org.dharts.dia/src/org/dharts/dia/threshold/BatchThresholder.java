@@ -0,0 +1,407 @@
+package org.dharts.dia.threshold;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.dharts.dia.util.BinaryImage;
+
+/**
+ * Binarizes batches of page images, overlapping the decoding of pages with the thresholding
+ * of previously decoded pages. Decoding is I/O and codec bound and largely single threaded
+ * per image, while thresholding is CPU bound, so running the two in sequence for each page
+ * leaves much of the machine idle.
+ *
+ * <p>
+ * Each page passes through two stages, each with its own pool of threads: a decode stage
+ * that reads the image with <code>ImageIO</code> (and so uses any installed codecs, such as
+ * those of JAI), and a compute stage that binarizes the decoded image with the supplied
+ * {@link Binarizer}. The number of threads of each stage is configurable. The compute
+ * threads only drive the binarizer, which typically schedules the actual work on its own
+ * executor, so a small number of compute threads is usually sufficient.
+ *
+ * <p>
+ * The number of pages that have been submitted but not yet completed is bounded. Once the
+ * bound is reached, further submissions block until a page completes, which limits the
+ * memory held by decoded images that are waiting to be thresholded.
+ *
+ * <p>
+ * This class is thread-safe. Instances must be closed to release their threads.
+ */
+public class BatchThresholder implements AutoCloseable
+{
+	/**
+	 * Receives the results of a batch. Methods are called from the compute and decode
+	 * threads as pages complete, in no particular order, and may be called concurrently.
+	 * Implementations should return promptly, since the page is counted as in flight until
+	 * they do.
+	 */
+	public interface Sink
+	{
+		/**
+		 * Called when a page has been binarized.
+		 *
+		 * @param file The page's file.
+		 * @param image The binarized page.
+		 */
+		void completed(File file, BinaryImage image);
+
+		/**
+		 * Called when a page could not be read or binarized.
+		 *
+		 * @param file The page's file.
+		 * @param cause The reason for the failure.
+		 */
+		void failed(File file, Throwable cause);
+	}
+
+	private final Binarizer binarizer;
+	private final ExecutorService decoders;
+	private final ExecutorService workers;
+	private final Semaphore inFlight;
+
+	/**
+	 * Creates a batch thresholder that uses {@link FastSauvola} with its default parameters,
+	 * one decode thread per available processor, two compute threads and at most twice as
+	 * many pages in flight as there are decode threads.
+	 */
+	public BatchThresholder()
+	{
+		this(new FastSauvola(), Runtime.getRuntime().availableProcessors(), 2,
+				2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param binarizer The algorithm used to binarize pages. If this uses an executor, it
+	 * 		should not be one of the stages of this instance.
+	 * @param decodeThreads The number of threads that decode pages.
+	 * @param computeThreads The number of pages that may be binarized at the same time.
+	 * @param maxInFlight The maximum number of pages that may have been submitted without
+	 * 		having completed.
+	 */
+	public BatchThresholder(Binarizer binarizer, int decodeThreads, int computeThreads, int maxInFlight)
+	{
+		if (binarizer == null)
+			throw new NullPointerException("No binarizer supplied");
+		if (decodeThreads < 1 || computeThreads < 1 || maxInFlight < 1)
+			throw new IllegalArgumentException("Invalid parameters (" + decodeThreads + ", "
+					+ computeThreads + ", " + maxInFlight + "). Must be positive numbers.");
+
+		this.binarizer = binarizer;
+		this.workers = Executors.newFixedThreadPool(computeThreads, new StageThreadFactory("batch-compute-"));
+
+		// decodes hand their pages to the workers, so the workers are shut down only once
+		// the last decode has finished
+		this.decoders = new ThreadPoolExecutor(decodeThreads, decodeThreads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new StageThreadFactory("batch-decode-")) {
+			@Override
+			protected void terminated() {
+				workers.shutdown();
+			}
+		};
+		this.inFlight = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Submits a single page for binarization. Blocks while the maximum number of pages are
+	 * in flight.
+	 *
+	 * @param file The page's image file.
+	 * @return A future for the binarized page. Cancelling the future abandons the page at
+	 * 		the next stage boundary.
+	 * @throws InterruptedException If interrupted while waiting to submit the page.
+	 */
+	public Future<BinaryImage> submit(File file) throws InterruptedException
+	{
+		return submit(file, null);
+	}
+
+	/**
+	 * Binarizes a batch of pages, passing each result to a sink as soon as it is available.
+	 * Pages are submitted from the calling thread, which blocks while the maximum number of
+	 * pages are in flight; the results are not retained.
+	 *
+	 * @param files The pages' image files.
+	 * @param sink The sink to pass results to.
+	 * @return A future that completes once every page has been passed to the sink. Its value
+	 * 		is the number of pages that were binarized successfully.
+	 * @throws InterruptedException If interrupted while waiting to submit a page. Pages that
+	 * 		have already been submitted continue to be processed.
+	 */
+	public Future<Integer> thresholdAll(Iterable<File> files, Sink sink) throws InterruptedException
+	{
+		if (sink == null)
+			throw new NullPointerException("No sink supplied");
+
+		Batch batch = new Batch(sink);
+		for (File file : files) {
+			submit(file, batch);
+		}
+
+		batch.pageDone(false);
+		return batch;
+	}
+
+	/**
+	 * Stops accepting new pages. Pages that have already been submitted will be completed;
+	 * this method does not wait for them.
+	 */
+	@Override
+	public void close()
+	{
+		decoders.shutdown();
+	}
+
+	private Page submit(File file, Batch batch) throws InterruptedException
+	{
+		inFlight.acquire();
+		if (batch != null)
+			batch.pending.incrementAndGet();
+
+		Page page = new Page(file, batch);
+		try {
+			decoders.execute(page.decode);
+		} catch (RejectedExecutionException ex) {
+			page.setException(new IllegalStateException("This batch thresholder has been closed", ex));
+		}
+
+		return page;
+	}
+
+	/**
+	 * A future that is completed by the stages rather than by running a task. The first of
+	 * {@link #set(Object)}, {@link #setException(Throwable)} and {@link #cancel(boolean)}
+	 * completes it; later calls have no effect.
+	 */
+	private static abstract class Completion<V> implements Future<V>
+	{
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile boolean done = false;
+		private boolean cancelled = false;
+		private V value = null;
+		private Throwable failure = null;
+
+		protected final boolean set(V value)
+		{
+			return complete(value, null, false);
+		}
+
+		protected final boolean setException(Throwable failure)
+		{
+			return complete(null, failure, false);
+		}
+
+		@Override
+		public final boolean cancel(boolean mayInterruptIfRunning)
+		{
+			return complete(null, null, true);
+		}
+
+		private boolean complete(V value, Throwable failure, boolean cancelled)
+		{
+			synchronized (this) {
+				if (done)
+					return false;
+
+				this.value = value;
+				this.failure = failure;
+				this.cancelled = cancelled;
+				this.done = true;
+			}
+
+			latch.countDown();
+			done();
+			return true;
+		}
+
+		/**
+		 * Called once, from the thread that completed this future.
+		 */
+		protected void done()
+		{
+		}
+
+		@Override
+		public final boolean isDone()
+		{
+			return done;
+		}
+
+		@Override
+		public final boolean isCancelled()
+		{
+			return done && cancelled;
+		}
+
+		@Override
+		public final V get() throws InterruptedException, ExecutionException
+		{
+			latch.await();
+			return report();
+		}
+
+		@Override
+		public final V get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException
+		{
+			if (!latch.await(timeout, unit))
+				throw new TimeoutException();
+
+			return report();
+		}
+
+		private V report() throws ExecutionException
+		{
+			if (cancelled)
+				throw new CancellationException();
+			if (failure != null)
+				throw new ExecutionException(failure);
+
+			return value;
+		}
+	}
+
+	/**
+	 * The future for a single page. Each stage checks whether the page has been cancelled
+	 * before starting, and the page's slot is released once it completes in any way.
+	 */
+	private final class Page extends Completion<BinaryImage>
+	{
+		private final File file;
+		private final Batch batch;
+
+		private final Runnable decode = new Runnable() {
+			@Override
+			public void run() {
+				if (isDone())
+					return;
+
+				try {
+					final BufferedImage image = ImageIO.read(file);
+					if (image == null)
+						throw new IOException("No reader available for " + file);
+
+					workers.execute(new Runnable() {
+						@Override
+						public void run() {
+							compute(image);
+						}
+					});
+				} catch (Throwable t) {
+					setException(t);
+				}
+			}
+		};
+
+		private Page(File file, Batch batch)
+		{
+			this.file = file;
+			this.batch = batch;
+		}
+
+		private void compute(BufferedImage image)
+		{
+			if (isDone())
+				return;
+
+			try {
+				set(binarizer.binarize(image));
+			} catch (Throwable t) {
+				setException(t);
+			}
+		}
+
+		@Override
+		protected void done()
+		{
+			try {
+				if (batch != null)
+					batch.deliver(this);
+			} finally {
+				inFlight.release();
+			}
+		}
+	}
+
+	/**
+	 * The future for a batch of pages. The count of pending pages starts at one for the
+	 * submission itself, so the batch cannot complete before all pages have been submitted.
+	 */
+	private static final class Batch extends Completion<Integer>
+	{
+		private final Sink sink;
+		private final AtomicInteger pending = new AtomicInteger(1);
+		private final AtomicInteger succeeded = new AtomicInteger(0);
+
+		private Batch(Sink sink)
+		{
+			this.sink = sink;
+		}
+
+		private void deliver(Page page)
+		{
+			boolean success = false;
+			try {
+				if (page.isCancelled()) {
+					sink.failed(page.file, new CancellationException());
+				} else {
+					try {
+						BinaryImage image = page.get();
+						success = true;
+						sink.completed(page.file, image);
+					} catch (ExecutionException ex) {
+						sink.failed(page.file, ex.getCause());
+					} catch (InterruptedException ex) {
+						// the page is done, so this cannot happen
+						Thread.currentThread().interrupt();
+					}
+				}
+			} finally {
+				pageDone(success);
+			}
+		}
+
+		private void pageDone(boolean success)
+		{
+			if (success)
+				succeeded.incrementAndGet();
+			if (pending.decrementAndGet() == 0)
+				set(succeeded.get());
+		}
+	}
+
+	private static final class StageThreadFactory implements ThreadFactory
+	{
+		private final String prefix;
+		private final AtomicInteger ix = new AtomicInteger(0);
+
+		private StageThreadFactory(String prefix)
+		{
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, prefix + ix.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
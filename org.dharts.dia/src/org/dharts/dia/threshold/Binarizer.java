@@ -0,0 +1,25 @@
+package org.dharts.dia.threshold;
+
+import java.awt.image.BufferedImage;
+
+import org.dharts.dia.util.BinaryImage;
+
+/**
+ * A thresholding algorithm that can binarize any number of images, possibly concurrently,
+ * returning the results in packed form. Unlike {@link Thresholder}, no per-image state is
+ * held between calls, so a single instance can be shared by many threads, e.g., by the
+ * compute stage of a {@link BatchThresholder}.
+ */
+public interface Binarizer
+{
+	/**
+	 * Binarizes the supplied image. Implementations must allow this method to be called
+	 * concurrently from multiple threads.
+	 *
+	 * @param image The image to binarize. This image will not be modified.
+	 * @return The binarized image.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the
+	 * 		image to be processed.
+	 */
+	BinaryImage binarize(BufferedImage image) throws InterruptedException;
+}
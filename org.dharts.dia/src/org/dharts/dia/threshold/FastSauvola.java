@@ -10,25 +10,28 @@
  */
 package org.dharts.dia.threshold;
 
-import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorConvertOp;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 
+import org.dharts.dia.util.BinaryImage;
 import org.dharts.dia.util.ImageWrapper;
 import org.dharts.dia.util.IntegralImage;
+import org.dharts.dia.util.RowBands;
 
 /**
  * An adaptive thresholding algorithm based on the technique
@@ -37,46 +40,61 @@ import org.dharts.dia.util.IntegralImage;
  * Sauvola, J. and M. Pietikäinen, Adaptive document image binarization. In
  *      Pattern Recognition 33 (2000) pp 255-236.
  *
+ * <p>
+ * A <code>FastSauvola</code> instance is intended to be long-lived. It is configured once and
+ * may then be used to binarize any number of images, including from multiple threads at the
+ * same time, via the {@link #threshold(BufferedImage)} and {@link #threshold(ImageWrapper)}
+ * methods. The work for each image is scheduled on an <code>ExecutorService</code> that is
+ * either supplied by the caller, shared between all instances created with the default
+ * constructor, or owned by this instance. Owned executors are shut down by {@link #close()};
+ * supplied and shared executors are left running. Note that the threshold methods block
+ * until the image has been fully processed and so must not be invoked from a task running on
+ * a bounded executor that this instance also uses.
+ *
+ * <p>
+ * The {@link Thresholder} methods (<code>initialize</code> followed by <code>call</code>)
+ * remain available for single-image use, but are not safe for concurrent use.
+ *
  * @author Neal Audenaert
  */
-public class FastSauvola implements Thresholder
+public class FastSauvola implements Thresholder, Binarizer, AutoCloseable
 {
 	// TODO need to factor out the integral image concepts and tools from the thresholder
 	private static final int N_THREADS = 10;		// default number of threads to use internally
 
-	private static final ColorConvertOp op = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
+	private static ExecutorService sharedExecutor;
 
-	private static final int bgPx = 0;
 	private static final int fgPx = 1;
 
-	// FIXME need to shut down executor service. We should probably think about starting up
-	//       a Thresholder, configure it, use it to process multiple images and
-	//	     then shut it down. The current architecture requires us to create, configure and
-	//		 shutdown a lot of thresholder instances when the only thing that will change will
-	//	     be the individual image being processed
     private final ExecutorService ex;
+    private final boolean ownsExecutor;
+    private volatile boolean closed = false;
 
     private int width  = 0;
     private int height = 0;
     private int imArea = 0;
-    private final AtomicInteger ct = new AtomicInteger(0);
+    private volatile int ct = 0;
 
 //    private boolean enableOutput = true;
 //    private BufferedImage sourceImage = null;
-    private BufferedImage outputImage = null;
+    private BinaryImage result = null;
 
     private IntegralImage iImage;
     private int[] data;
+    private Object cacheKey;			// the image supplied to initialize
+    private ImageWrapper wrapper;
+
+    private volatile StatisticsCache statsCache = null;
 
     // -----------------------------------------------------------------------
     // PROPERTIES
     // -----------------------------------------------------------------------
     // TODO make these configuration parameters.
-    private int    ts = 48;     	// tile size
-    private int    whalf = ts / 2;	// half the window size
-    private double k  = 0.3;    	//
-    private int    range  = 128;    	// control for dynamic range
-	private int[]  output;
+    private volatile int    ts = 48;     	// tile size
+    private volatile int    whalf = ts / 2;	// half the window size
+    private volatile double k  = 0.3;    	//
+    private volatile int    range  = 128;    	// control for dynamic range
+    private volatile int    bandHeight = 0;	// rows per task, 0 to size bands automatically
 
     public static BufferedImage toImage(int[] data, BufferedImage model)
 	{
@@ -99,13 +117,62 @@ public class FastSauvola implements Thresholder
 		return new BufferedImage(colorModel, raster, true, new Hashtable<>());
 	}
 
-	/** Default constructor. */
+	/**
+	 * Returns the executor shared by all <code>FastSauvola</code> instances that were created
+	 * using the default constructor. This executor uses daemon threads, one per available
+	 * processor, and is never shut down.
+	 *
+	 * @return The shared executor.
+	 */
+	public static synchronized ExecutorService getSharedExecutor()
+	{
+		if (sharedExecutor == null)
+		{
+			int nThreads = Runtime.getRuntime().availableProcessors();
+			sharedExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+				private final AtomicInteger ix = new AtomicInteger(0);
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "sauvola-worker-" + ix.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		return sharedExecutor;
+	}
+
+	/** Default constructor. Schedules work on the {@link #getSharedExecutor() shared executor}. */
     public FastSauvola() {
-    	ex = Executors.newFixedThreadPool(N_THREADS);
+    	this(getSharedExecutor(), false);
     }
 
+    /**
+     * Creates a <code>FastSauvola</code> instance that owns a private thread pool of the
+     * specified size. This pool will be shut down when the instance is closed.
+     *
+     * @param nThreads The number of worker threads to use.
+     */
     public FastSauvola(int nThreads) {
-    	ex = Executors.newFixedThreadPool(nThreads);
+    	this(Executors.newFixedThreadPool(nThreads), true);
+    }
+
+    /**
+     * Creates a <code>FastSauvola</code> instance that schedules its work on the supplied
+     * executor. The caller retains ownership of the executor; it will not be shut down when
+     * this instance is closed.
+     *
+     * @param ex The executor to use to process images. May be a <code>ForkJoinPool</code>.
+     */
+    public FastSauvola(ExecutorService ex) {
+    	this(ex, false);
+    }
+
+    private FastSauvola(ExecutorService ex, boolean ownsExecutor) {
+    	this.ex = RowBands.requireExecutor(ex);
+    	this.ownsExecutor = ownsExecutor;
     }
 
     // HACK: post construction initialization is a well recognized anti-pattern
@@ -120,21 +187,20 @@ public class FastSauvola implements Thresholder
 
     @Override
     public void initialize(BufferedImage image) {
-     	image = op.filter(image, null);
-     	ImageWrapper wrapper = new ImageWrapper(image);
-        initialize(wrapper);
-
+        initialize(ImageWrapper.wrapGray(image, true, ex));
+        cacheKey = image;
     }
 
     public void initialize(ImageWrapper iIm) {
+    	this.wrapper = iIm;
+    	this.cacheKey = iIm;
     	this.iImage = iIm.getIntegralImage();
     	this.data = iIm.getRaster();
 
     	width = iImage.getWidth();
     	height = iImage.getHeight();
     	imArea = iImage.getArea();
-
-    	this.output = new int[width * height];
+    	result = null;
 
     	// Makes for a reasonable assumption, but this parameter really needs
     	// to be configured for good results
@@ -144,50 +210,192 @@ public class FastSauvola implements Thresholder
     @Override
 	public int[] call() throws InterruptedException, IOException
     {
-    	if (!this.isReady())
+    	if (!this.isReady() || iImage == null)
             throw new IllegalStateException("The thresholding algorithm has not been properly initialized");
 
-        return performThresholding();
+        StatisticsCache cache = statsCache;
+        if (cache != null) {
+        	result = binarize(cache, cacheKey, wrapper);
+        	ct = (int)result.countForeground();
+        	return result.toArray();
+        }
+
+        Job job = new Job(iImage, data, new BinaryImage(width, height));
+        job.run();
+
+        ct = job.ct;
+        result = job.output;
+        return result.toArray();
     }
 
-    private int[] performThresholding() throws InterruptedException {
-		int offset = 0;
+    /**
+     * Binarizes the supplied image. This method may be called concurrently from multiple
+     * threads and blocks until the image has been completely processed.
+     *
+     * @param image The image to binarize. This image will not be modified.
+     * @return The binarized image as a raster-order array in which foreground pixels are
+     * 		<code>1</code> and background pixels are <code>0</code>.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the
+     * 		image to be processed.
+     * @throws IllegalStateException If this instance has been closed.
+     * @see #binarize(BufferedImage)
+     */
+    public int[] threshold(BufferedImage image) throws InterruptedException {
+    	return binarize(image).toArray();
+    }
 
-		int[] rows = new int[height];
-		for (int row = 0; row < height; row++)
-		{
-			rows[row] = 0;
-			for (int col = 0; col < width; col++)
-			{
-				if (data[offset + col] < 255)
-					rows[row]++;
-			}
-			offset += width;
-		}
+    /**
+     * Binarizes the supplied image. This method may be called concurrently from multiple
+     * threads and blocks until the image has been completely processed.
+     *
+     * @param image The grayscale image to binarize.
+     * @return The binarized image as a raster-order array in which foreground pixels are
+     * 		<code>1</code> and background pixels are <code>0</code>.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the
+     * 		image to be processed.
+     * @throws IllegalStateException If this instance has been closed.
+     * @see #binarize(ImageWrapper)
+     */
+    public int[] threshold(ImageWrapper image) throws InterruptedException {
+    	return binarize(image).toArray();
+    }
 
-		offset = 0;
-        for (int row = 0; row < height; row++) {
-    		ex.execute(new RowProcessor(row, offset));
-    		offset += width;
-        }
+    /**
+     * Binarizes the supplied image, returning the result in packed form. This is the
+     * preferred way to use this class: the packed result requires 1/32 of the memory of the
+     * array returned by {@link #threshold(BufferedImage)} and is written directly by the
+     * worker threads. This method may be called concurrently from multiple threads and
+     * blocks until the image has been completely processed.
+     *
+     * @param image The image to binarize. This image will not be modified.
+     * @return The binarized image.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the
+     * 		image to be processed.
+     * @throws IllegalStateException If this instance has been closed.
+     */
+    @Override
+    public BinaryImage binarize(BufferedImage image) throws InterruptedException {
+    	StatisticsCache cache = statsCache;
+    	if (cache != null)
+    		return binarize(cache, image, null);
 
-        ex.shutdown();
-        ex.awaitTermination(10, TimeUnit.SECONDS);		// HACK: arbitrary delay
+    	return binarize(ImageWrapper.wrapGray(image, true, ex));
+    }
 
-        offset = 0;
-        rows = new int[height];
-		for (int row = 0; row < height; row++)
-		{
-			rows[row] = 0;
-			for (int col = 0; col < width; col++)
-			{
-				if (output[offset + col] == fgPx)
-					rows[row]++;
-			}
-			offset += width;
-		}
-        return output;
-	}
+    /**
+     * Binarizes the supplied image, returning the result in packed form. This method may be
+     * called concurrently from multiple threads and blocks until the image has been
+     * completely processed.
+     *
+     * @param image The grayscale image to binarize.
+     * @return The binarized image.
+     * @throws InterruptedException If the calling thread is interrupted while waiting for the
+     * 		image to be processed.
+     * @throws IllegalStateException If this instance has been closed.
+     */
+    public BinaryImage binarize(ImageWrapper image) throws InterruptedException {
+    	StatisticsCache cache = statsCache;
+    	if (cache != null)
+    		return binarize(cache, image, image);
+
+    	image.load();
+    	IntegralImage integral = image.getIntegralImage();
+    	Job job = new Job(integral, image.getRaster(), new BinaryImage(integral.getWidth(), integral.getHeight()));
+    	job.run();
+
+    	return job.output;
+    }
+
+    /**
+     * Binarizes an image using cached window statistics, computing and caching them if
+     * required.
+     *
+     * @param key The image supplied by the caller, used as the cache key.
+     * @param image The wrapped image, or <code>null</code> if <code>key</code> is a
+     * 		<code>BufferedImage</code> that has not yet been wrapped.
+     */
+    private BinaryImage binarize(StatisticsCache cache, Object key, ImageWrapper image)
+    		throws InterruptedException {
+    	if (closed)
+    		throw new IllegalStateException("This thresholder has been closed");
+
+    	int whalf = this.whalf;
+    	WindowStatistics stats = cache.get(key, whalf);
+    	if (stats == null) {
+    		if (image == null)
+    			image = ImageWrapper.wrapGray((BufferedImage)key, true, ex);
+
+    		stats = WindowStatistics.compute(image, whalf, ex);
+    		cache.put(key, stats);
+    	}
+
+    	return stats.threshold(k, range, ex);
+    }
+
+    /**
+     * Sets a cache of window statistics. If set, the mean and standard deviation of the
+     * window around each pixel are kept for each image that is binarized, so that the image
+     * can be binarized again with a different value of <code>k</code> by a single compare
+     * pass. This is intended for interactive use, where the same image is binarized
+     * repeatedly while the parameters are adjusted. Since the cached statistics are stored
+     * at reduced precision, pixels that lie exactly on the threshold may be classified
+     * differently than without a cache; see {@link WindowStatistics}.
+     *
+     * <p>
+     * Images are identified by identity: the same <code>BufferedImage</code> or
+     * <code>ImageWrapper</code> instance must be supplied to benefit from the cache, and
+     * changes to the pixels of a cached image are not detected. Use
+     * {@link StatisticsCache#invalidate(Object)} after modifying an image.
+     *
+     * @param cache The cache to use, or <code>null</code> to disable caching. A cache may be
+     * 		shared between instances.
+     */
+    public void setStatisticsCache(StatisticsCache cache) {
+    	statsCache = cache;
+    }
+
+    /**
+     * @return The cache of window statistics, or <code>null</code> if caching is disabled.
+     */
+    public StatisticsCache getStatisticsCache() {
+    	return statsCache;
+    }
+
+    /**
+     * Sets the number of image rows that are processed by a single task. By default (or if
+     * this is set to <code>0</code>), the page is split into bands sized to fit in the cache
+     * of a single core while still providing several bands per worker thread. Setting this to
+     * <code>1</code> schedules one task per row. The band height affects only how the work is
+     * scheduled; the binarized output is the same for any band height.
+     *
+     * @param rows The number of rows per band, or <code>0</code> to size bands automatically.
+     */
+    public void setBandHeight(int rows) {
+    	if (rows < 0)
+    		throw new IllegalArgumentException("Invalid band height (" + rows + "). Must not be negative.");
+
+    	bandHeight = rows;
+    }
+
+    /**
+     * @return The number of image rows processed by a single task, or <code>0</code> if bands
+     * 		are sized automatically.
+     */
+    public int getBandHeight() {
+    	return bandHeight;
+    }
+
+    /**
+     * Releases the resources held by this instance. If this instance owns its executor, the
+     * executor is shut down; images that are currently being processed will be completed.
+     * Once closed, this instance may not be used to process further images.
+     */
+    @Override
+    public void close() {
+    	closed = true;
+    	if (ownsExecutor)
+    		ex.shutdown();
+    }
 
 	// -----------------------------------------------------------------------
     // ACCESSOR METHODS
@@ -251,10 +459,25 @@ public class FastSauvola implements Thresholder
         }
     }
 
+    /**
+     * Returns the result of the most recent call to {@link #call()} as a
+     * <code>TYPE_BYTE_BINARY</code> image in which foreground pixels are black.
+     */
     @Override
 	public BufferedImage getResult() {
-        if (outputImage != null)
-        	return outputImage;
+        if (result != null)
+        	return result.toBufferedImage();
+        else
+        	throw new IllegalStateException("Execution is not complete");
+    }
+
+    /**
+     * @return The result of the most recent call to {@link #call()} in packed form.
+     * @throws IllegalStateException If the algorithm has not yet finished execution.
+     */
+    public BinaryImage getBinaryResult() {
+        if (result != null)
+        	return result;
         else
         	throw new IllegalStateException("Execution is not complete");
     }
@@ -277,57 +500,113 @@ public class FastSauvola implements Thresholder
 
 	public final int getForegroundPixelCount()
 	{
-		return ct.get();
+		return ct;
 	}
 
 	public final int getBackgroundPixelCount()
 	{
-		return imArea - ct.get();
+		return imArea - ct;
 	}
 
 
 	@Override
 	public final boolean isReady() {
-        return true;
+        return !closed;
     }
 
-	private final class RowProcessor implements Runnable {
-		private final int rowIx;
-		private final int offset;
-
-		private RowProcessor(int rowIx, int offset) {
-			this.rowIx = rowIx;
-			this.offset = offset;
+	/**
+	 * The state associated with binarizing a single image. The configuration parameters are
+	 * captured when the job is created so that changes made while an image is being
+	 * processed do not affect that image.
+	 */
+	private final class Job {
+		private final IntegralImage iImage;
+		private final int[] data;
+		private final BinaryImage output;
+		private final int width;
+		private final int height;
+
+		private final int whalf = FastSauvola.this.whalf;
+		private final double k = FastSauvola.this.k;
+		private final int range = FastSauvola.this.range;
+		private final int bandHeight;
+
+		private int ct = 0;
+
+		private Job(IntegralImage iImage, int[] data, BinaryImage output) {
+			this.iImage = iImage;
+			this.data = data;
+			this.output = output;
+			this.width = iImage.getWidth();
+			this.height = iImage.getHeight();
+
+			int rows = FastSauvola.this.bandHeight;
+			this.bandHeight = rows > 0
+					? rows
+					: RowBands.defaultHeight(width, height, RowBands.INTEGRAL_BYTES_PER_PIXEL, ex);
 		}
 
-		@Override
-		public void run() {
-			double mean, stddev;
-			int xmin, ymin, xmax, ymax;
-
-			double threshold;
-			boolean isBackground;
+		private void run() throws InterruptedException {
+			if (closed)
+				throw new IllegalStateException("This thresholder has been closed");
 
-			for (int colIx = 0; colIx < width; colIx++) {
-				ymin = Math.max(0, rowIx - whalf);
-				xmin = Math.max(0, colIx - whalf);
-				xmax = Math.min(width - 1, colIx + whalf);
-				ymax = Math.min(height - 1, rowIx + whalf);
+			List<BandProcessor> tasks = new ArrayList<>(height / bandHeight + 1);
+			for (int row = 0; row < height; row += bandHeight) {
+				tasks.add(new BandProcessor(this, row, Math.min(height, row + bandHeight)));
+			}
 
-				double[] model = iImage.getGausModel(xmin, ymin, xmax, ymax);
-				mean = model[0];
-				stddev = Math.sqrt(model[1]);
+			int total = 0;
+			for (Integer count : RowBands.invokeAll(ex, tasks)) {
+				total += count.intValue();
+			}
 
-				threshold = mean * (1 + k * ((stddev / range) - 1));
-//				if (rowIx > 1690)
-//					System.out.println(threshold);
+			ct = total;
+		}
+	}
 
-				isBackground = data[offset + colIx] > threshold;
-				output[offset + colIx] = isBackground ? bgPx : fgPx;
+	/**
+	 * Binarizes a horizontal band of rows. Each band writes only to its own rows of the
+	 * output and returns the number of foreground pixels it found. Since every row of a
+	 * {@link BinaryImage} starts on a new word, bands never write to the same word.
+	 */
+	private static final class BandProcessor implements Callable<Integer> {
+		private final Job job;
+		private final int startRow;
+		private final int endRow;
+
+		private BandProcessor(Job job, int startRow, int endRow) {
+			this.job = job;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
 
-				if (!isBackground)
-					ct.incrementAndGet();
+		@Override
+		public Integer call() {
+			final IntegralImage iImage = job.iImage;
+			final int[] data = job.data;
+			final BinaryImage output = job.output;
+			final int width = job.width;
+			final int whalf = job.whalf;
+			final double k = job.k;
+			final int range = job.range;
+
+			// statistics and thresholds for the current row, reused for every row in the band
+			double[] mean = new double[width];
+			double[] stddev = new double[width];
+			double[] thresholds = new double[width];
+
+			int count = 0;
+			int offset = startRow * width;
+			for (int rowIx = startRow; rowIx < endRow; rowIx++) {
+				iImage.getRowStatistics(rowIx, whalf, mean, stddev);
+				for (int colIx = 0; colIx < width; colIx++)
+					thresholds[colIx] = mean[colIx] * (1 + k * ((stddev[colIx] / range) - 1));
+
+				count += output.setRow(rowIx, data, offset, thresholds);
+				offset += width;
 			}
+
+			return Integer.valueOf(count);
 		}
 	}
 }
@@ -0,0 +1,384 @@
+package org.dharts.dia.threshold;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.ImageWrapper;
+import org.dharts.dia.util.IntegralImage;
+import org.dharts.dia.util.RowBands;
+
+/**
+ * An approximation of {@link FastSauvola} for high resolution images. Rather than evaluating
+ * the window statistics at every pixel, the Sauvola threshold is evaluated on a coarse
+ * lattice of points (by default every <code>ts / 4</code> pixels) and the threshold for each
+ * pixel is obtained by bilinear interpolation between the four surrounding lattice points.
+ * Since the threshold surface varies slowly compared to the pixel grid, this reduces the
+ * work of computing the statistics by roughly the square of the lattice spacing at the cost
+ * of a small deviation from the exact thresholds.
+ *
+ * <p>
+ * The deviation for a particular image can be measured using {@link #compare(ImageWrapper)},
+ * which reports the largest difference between the interpolated and exact thresholds and the
+ * number of pixels that are classified differently.
+ *
+ * <p>
+ * Like <code>FastSauvola</code>, instances may be used to binarize any number of images,
+ * including from multiple threads at the same time.
+ */
+public class GridSauvola implements Binarizer
+{
+	// raster, output and the two interpolated threshold rows read per pixel of a band
+	private static final int BYTES_PER_PIXEL = 4 + 8 + 8;
+
+	private final ExecutorService ex;
+
+	private volatile int    whalf = 24;		// half the window size
+	private volatile double k  = 0.3;
+	private volatile int    range  = 128;	// control for dynamic range
+	private volatile int    step = 0;		// lattice spacing, 0 for ts / 4
+
+	/**
+	 * Default constructor. Schedules work on the
+	 * {@link FastSauvola#getSharedExecutor() shared executor}.
+	 */
+	public GridSauvola() {
+		this(FastSauvola.getSharedExecutor());
+	}
+
+	/**
+	 * @param ex The executor to use to process images. This will not be shut down.
+	 */
+	public GridSauvola(ExecutorService ex) {
+		this.ex = RowBands.requireExecutor(ex);
+	}
+
+	/**
+	 * Sets the value of a parameter. Supports <code>k</code> and <code>ts</code> as for
+	 * {@link FastSauvola}, and <code>step</code>, the spacing of the lattice in pixels. A step
+	 * of <code>0</code> (the default) uses a quarter of the window size.
+	 *
+	 * @param param The name of the parameter.
+	 * @param value The value to assign.
+	 */
+	public void setParameter(String param, double value) {
+		if (value < 0)
+			throw new IllegalArgumentException("Invalid value for '" + param + "' (" + value + "). Must be a positive number.");
+
+		if (param.equals("k")) {
+			k = value;
+		} else if (param.equals("ts")) {
+			whalf = ((int) Math.round(value)) / 2;
+		} else if (param.equals("step")) {
+			step = (int) Math.round(value);
+		} else {
+			throw new IllegalArgumentException("Unrecognized parameter: " + param);
+		}
+	}
+
+	public double getParameter(String param) {
+		if (param.equals("k")) {
+			return k;
+		} else if (param.equals("ts")) {
+			return whalf * 2;
+		} else if (param.equals("step")) {
+			return step;
+		} else {
+			throw new IllegalArgumentException("Unrecognized parameter: " + param);
+		}
+	}
+
+	/**
+	 * Binarizes the supplied image.
+	 *
+	 * @param image The image to binarize. This image will not be modified.
+	 * @return The binarized image.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	@Override
+	public BinaryImage binarize(BufferedImage image) throws InterruptedException {
+		return binarize(ImageWrapper.wrapGray(image, true, ex));
+	}
+
+	/**
+	 * Binarizes the supplied image.
+	 *
+	 * @param image The grayscale image to binarize.
+	 * @return The binarized image.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	public BinaryImage binarize(ImageWrapper image) throws InterruptedException {
+		image.load();
+		Job job = new Job(image, false);
+		job.run();
+		return job.output;
+	}
+
+	/**
+	 * Binarizes the supplied image and measures how far the result deviates from that of
+	 * {@link FastSauvola} with the same parameters. This computes the exact thresholds as
+	 * well, so it is more expensive than binarizing the image with either class.
+	 *
+	 * @param image The grayscale image to binarize.
+	 * @return The result and its deviation from the exact result.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	public Deviation compare(ImageWrapper image) throws InterruptedException {
+		image.load();
+		Job job = new Job(image, true);
+		job.run();
+		return new Deviation(job.output, job.maxDeviation, job.mismatches);
+	}
+
+	/**
+	 * The result of {@link GridSauvola#compare(ImageWrapper)}.
+	 */
+	public static final class Deviation
+	{
+		private final BinaryImage image;
+		private final double maxThresholdError;
+		private final long mismatches;
+
+		private Deviation(BinaryImage image, double maxThresholdError, long mismatches)
+		{
+			this.image = image;
+			this.maxThresholdError = maxThresholdError;
+			this.mismatches = mismatches;
+		}
+
+		/**
+		 * @return The image binarized using the interpolated thresholds.
+		 */
+		public BinaryImage getImage()
+		{
+			return image;
+		}
+
+		/**
+		 * @return The largest absolute difference, in gray levels, between the interpolated
+		 * 		threshold and the exact threshold of any pixel.
+		 */
+		public double getMaxThresholdError()
+		{
+			return maxThresholdError;
+		}
+
+		/**
+		 * @return The number of pixels that are classified differently than by the exact
+		 * 		algorithm.
+		 */
+		public long getMismatchedPixelCount()
+		{
+			return mismatches;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "max threshold error " + maxThresholdError + ", " + mismatches + " mismatched pixels";
+		}
+	}
+
+	/**
+	 * The state associated with binarizing a single image. The configuration parameters are
+	 * captured when the job is created.
+	 */
+	private final class Job {
+		private final IntegralImage iImage;
+		private final int[] data;
+		private final boolean measure;
+		private final BinaryImage output;
+		private final int width;
+		private final int height;
+
+		private final int whalf = GridSauvola.this.whalf;
+		private final double k = GridSauvola.this.k;
+		private final int range = GridSauvola.this.range;
+
+		private final int[] xs;				// lattice columns
+		private final int[] ys;				// lattice rows
+		private final double[][] lattice;	// thresholds at the lattice points, by lattice row
+
+		private double maxDeviation = 0;
+		private long mismatches = 0;
+
+		private Job(ImageWrapper image, boolean measure) {
+			this.iImage = image.getIntegralImage();
+			this.data = image.getRaster();
+			this.measure = measure;
+			this.width = iImage.getWidth();
+			this.height = iImage.getHeight();
+			this.output = new BinaryImage(width, height);
+
+			int spacing = GridSauvola.this.step;
+			if (spacing <= 0)
+				spacing = Math.max(1, whalf / 2);
+
+			xs = lattice(width, spacing);
+			ys = lattice(height, spacing);
+			lattice = new double[ys.length][];
+		}
+
+		private void run() throws InterruptedException {
+			if (width == 0 || height == 0)
+				return;
+
+			// evaluate the lattice
+			List<Callable<Void>> rows = new ArrayList<>(ys.length);
+			for (int j = 0; j < ys.length; j++) {
+				final int latticeRow = j;
+				rows.add(new Callable<Void>() {
+					@Override
+					public Void call() {
+						lattice[latticeRow] = evaluate(ys[latticeRow]);
+						return null;
+					}
+				});
+			}
+			RowBands.invokeAll(ex, rows);
+
+			// interpolate and threshold
+			int bandHeight = RowBands.defaultHeight(width, height, BYTES_PER_PIXEL, ex);
+			List<BandProcessor> tasks = new ArrayList<>(height / bandHeight + 1);
+			for (int row = 0; row < height; row += bandHeight) {
+				tasks.add(new BandProcessor(this, row, Math.min(height, row + bandHeight)));
+			}
+
+			for (double[] band : RowBands.invokeAll(ex, tasks)) {
+				maxDeviation = Math.max(maxDeviation, band[0]);
+				mismatches += (long)band[1];
+			}
+		}
+
+		/**
+		 * Computes the thresholds at the lattice points of a row.
+		 */
+		private double[] evaluate(int y) {
+			int ymin = Math.max(0, y - whalf);
+			int ymax = Math.min(height - 1, y + whalf);
+
+			double[] thresholds = new double[xs.length];
+			for (int i = 0; i < xs.length; i++) {
+				int xmin = Math.max(0, xs[i] - whalf);
+				int xmax = Math.min(width - 1, xs[i] + whalf);
+
+				double mean = iImage.getMean(xmin, ymin, xmax, ymax);
+				double stddev = Math.sqrt(iImage.getVariance(xmin, ymin, xmax, ymax));
+				thresholds[i] = threshold(mean, stddev);
+			}
+
+			return thresholds;
+		}
+
+		private double threshold(double mean, double stddev) {
+			return mean * (1 + k * ((stddev / range) - 1));
+		}
+	}
+
+	/**
+	 * Returns the positions of the lattice points along an axis: every <code>step</code>
+	 * pixels, plus the last pixel.
+	 */
+	static int[] lattice(int length, int step) {
+		if (length == 0)
+			return new int[0];
+
+		int n = (length - 1) / step + 1;
+		boolean end = (length - 1) % step != 0;
+
+		int[] points = new int[end ? n + 1 : n];
+		for (int i = 0; i < n; i++)
+			points[i] = i * step;
+		if (end)
+			points[n] = length - 1;
+
+		return points;
+	}
+
+	/**
+	 * Interpolates and applies the thresholds for a horizontal band of rows. Returns the
+	 * largest threshold error and the number of mismatched pixels if the job measures the
+	 * deviation.
+	 */
+	private static final class BandProcessor implements Callable<double[]> {
+		private final Job job;
+		private final int startRow;
+		private final int endRow;
+
+		private BandProcessor(Job job, int startRow, int endRow) {
+			this.job = job;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		public double[] call() {
+			final int width = job.width;
+			final int[] xs = job.xs;
+			final int[] ys = job.ys;
+			final int[] data = job.data;
+
+			double[] columns = new double[xs.length];		// lattice thresholds interpolated to the row
+			double[] thresholds = new double[width];
+			double[] mean = job.measure ? new double[width] : null;
+			double[] stddev = job.measure ? new double[width] : null;
+
+			double maxDeviation = 0;
+			long mismatches = 0;
+
+			int j = 0;
+			int offset = startRow * width;
+			for (int rowIx = startRow; rowIx < endRow; rowIx++) {
+				// interpolate vertically between the lattice rows above and below
+				while (j < ys.length - 2 && ys[j + 1] <= rowIx)
+					j++;
+
+				double[] above = job.lattice[j];
+				if (ys.length == 1) {
+					System.arraycopy(above, 0, columns, 0, xs.length);
+				} else {
+					double[] below = job.lattice[j + 1];
+					double fy = (rowIx - ys[j]) / (double)(ys[j + 1] - ys[j]);
+					for (int i = 0; i < xs.length; i++)
+						columns[i] = above[i] + fy * (below[i] - above[i]);
+				}
+
+				// interpolate horizontally between lattice columns
+				thresholds[0] = columns[0];
+				for (int i = 0; i < xs.length - 1; i++) {
+					int x0 = xs[i];
+					int x1 = xs[i + 1];
+					double t0 = columns[i];
+					double dt = (columns[i + 1] - t0) / (x1 - x0);
+					for (int x = x0 + 1; x <= x1; x++)
+						thresholds[x] = t0 + dt * (x - x0);
+				}
+
+				job.output.setRow(rowIx, data, offset, thresholds);
+
+				if (job.measure) {
+					job.iImage.getRowStatistics(rowIx, job.whalf, mean, stddev);
+					for (int colIx = 0; colIx < width; colIx++) {
+						int px = data[offset + colIx];
+						double exact = job.threshold(mean[colIx], stddev[colIx]);
+						double error = Math.abs(exact - thresholds[colIx]);
+						if (error > maxDeviation)
+							maxDeviation = error;
+						if ((px > thresholds[colIx]) != (px > exact))
+							mismatches++;
+					}
+				}
+
+				offset += width;
+			}
+
+			return new double[] { maxDeviation, mismatches };
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package org.dharts.dia.threshold;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import javax.imageio.ImageIO;
+
+import org.dharts.dia.BadParameterException;
+import org.dharts.dia.threshold.ThresholdFunction.ImageStatistics;
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.ImageWrapper;
+import org.dharts.dia.util.IntegralImage;
+import org.dharts.dia.util.RowBands;
+
+/**
+ * An adaptive thresholder that computes a threshold for every pixel from the mean and
+ * standard deviation of the window centered on it, using a pluggable
+ * {@link ThresholdFunction}. The window statistics are computed from a single integral
+ * image, and the image is processed in horizontal bands on an <code>ExecutorService</code>
+ * in the same way as by {@link FastSauvola}. Built-in functions include Sauvola, Niblack,
+ * Wolf-Jolion, NICK and Bradley-Roth; see the factory methods of {@link ThresholdFunction}.
+ *
+ * <p>
+ * If the function does not require the variance, the table of squared values is not built.
+ * If it requires global image statistics, these are computed in an additional parallel pass
+ * over the image before it is thresholded.
+ *
+ * <p>
+ * Like {@link FastSauvola}, instances may be used to binarize any number of images,
+ * including from multiple threads at the same time, via the <code>binarize</code> methods.
+ * The {@link Thresholder} methods are not safe for concurrent use.
+ */
+public class LocalThresholder implements Thresholder, Binarizer
+{
+	private final ThresholdFunction fn;
+	private final ExecutorService ex;
+
+	private volatile int ts = 48;			// window size
+	private volatile int whalf = ts / 2;	// half the window size
+
+	private ImageWrapper image = null;
+	private BinaryImage result = null;
+
+	/**
+	 * Creates a thresholder that schedules its work on the
+	 * {@link FastSauvola#getSharedExecutor() shared executor}.
+	 *
+	 * @param fn The threshold function to apply.
+	 */
+	public LocalThresholder(ThresholdFunction fn) {
+		this(fn, FastSauvola.getSharedExecutor());
+	}
+
+	/**
+	 * Creates a thresholder that schedules its work on the supplied executor. The executor
+	 * will not be shut down by this class.
+	 *
+	 * @param fn The threshold function to apply.
+	 * @param ex The executor to use to process images.
+	 */
+	public LocalThresholder(ThresholdFunction fn, ExecutorService ex) {
+		if (fn == null)
+			throw new NullPointerException("No threshold function supplied");
+
+		this.fn = fn;
+		this.ex = RowBands.requireExecutor(ex);
+	}
+
+	/**
+	 * @return The threshold function applied by this thresholder.
+	 */
+	public ThresholdFunction getFunction() {
+		return fn;
+	}
+
+	@Override
+	public void initialize(File file) throws IOException {
+		if (!file.exists() || !file.isFile() || !file.canRead()) {
+			throw new IOException("Filename does not refer to a readable image file");
+		}
+
+		initialize(ImageIO.read(file));
+	}
+
+	@Override
+	public void initialize(BufferedImage image) {
+		initialize(ImageWrapper.wrapGray(image, fn.requiresVariance(), ex));
+	}
+
+	public void initialize(ImageWrapper image) {
+		this.image = image;
+		this.result = null;
+	}
+
+	@Override
+	public int[] call() throws InterruptedException {
+		if (image == null)
+			throw new IllegalStateException("The thresholding algorithm has not been properly initialized");
+
+		result = binarize(image);
+		return result.toArray();
+	}
+
+	/**
+	 * Binarizes the supplied image. This method may be called concurrently from multiple
+	 * threads and blocks until the image has been completely processed.
+	 *
+	 * @param image The image to binarize. This image will not be modified.
+	 * @return The binarized image.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the
+	 * 		image to be processed.
+	 */
+	@Override
+	public BinaryImage binarize(BufferedImage image) throws InterruptedException {
+		return binarize(ImageWrapper.wrapGray(image, fn.requiresVariance(), ex));
+	}
+
+	/**
+	 * Binarizes the supplied image. This method may be called concurrently from multiple
+	 * threads and blocks until the image has been completely processed.
+	 *
+	 * @param image The grayscale image to binarize.
+	 * @return The binarized image.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the
+	 * 		image to be processed.
+	 * @throws IllegalArgumentException If the threshold function requires the variance but
+	 * 		the integral image of the supplied image does not support it.
+	 */
+	public BinaryImage binarize(ImageWrapper image) throws InterruptedException {
+		image.load();
+		IntegralImage integral = image.getIntegralImage();
+		if (fn.requiresVariance() && !integral.hasVariance())
+			throw new IllegalArgumentException("The threshold function requires an integral image that supports variance queries");
+
+		int[] data = image.getRaster();
+		int width = integral.getWidth();
+		int height = integral.getHeight();
+		int whalf = this.whalf;
+		int bandHeight = RowBands.defaultHeight(width, height, RowBands.INTEGRAL_BYTES_PER_PIXEL, ex);
+
+		ThresholdFunction f = fn;
+		if (f.requiresImageStatistics())
+			f = f.bind(computeStatistics(integral, data, whalf, bandHeight));
+
+		BinaryImage output = new BinaryImage(width, height);
+		List<BandProcessor> tasks = new ArrayList<>(height / bandHeight + 1);
+		for (int row = 0; row < height; row += bandHeight) {
+			tasks.add(new BandProcessor(f, integral, data, output, whalf, row, Math.min(height, row + bandHeight)));
+		}
+
+		RowBands.invokeAll(ex, tasks);
+		return output;
+	}
+
+	/**
+	 * Computes the global statistics of an image in parallel bands.
+	 */
+	private ImageStatistics computeStatistics(IntegralImage integral, int[] data, int whalf, int bandHeight)
+			throws InterruptedException {
+		int height = integral.getHeight();
+		List<StatisticsProcessor> tasks = new ArrayList<>(height / bandHeight + 1);
+		for (int row = 0; row < height; row += bandHeight) {
+			tasks.add(new StatisticsProcessor(integral, data, whalf, row, Math.min(height, row + bandHeight)));
+		}
+
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		double maxStdDev = 0;
+		for (double[] band : RowBands.invokeAll(ex, tasks)) {
+			min = Math.min(min, (int)band[0]);
+			max = Math.max(max, (int)band[1]);
+			maxStdDev = Math.max(maxStdDev, band[2]);
+		}
+
+		return new ImageStatistics(min, max, maxStdDev);
+	}
+
+	// -----------------------------------------------------------------------
+	// ACCESSOR METHODS
+	// -----------------------------------------------------------------------
+	@Override
+	public Map<String, String> listParamters() {
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("ts", "Window Size. This is the size of the window centered on each " +
+				"pixel used to evaluate local features. This should be set to a value " +
+				"that is approximately three characters wide. By default, this is 48.");
+
+		return params;
+	}
+
+	@Override
+	public double getParameter(String param) throws BadParameterException {
+		if (param.equals("ts")) {
+			return ts;
+		} else {
+			throw new BadParameterException("Unrecognized parameter: " + param);
+		}
+	}
+
+	@Override
+	public void setParameter(String param, double value) throws BadParameterException {
+		if (param.equals("ts")) {
+			if (value < 0)
+				throw new BadParameterException("Invalid value for 'ts' (" + value + "). Must be a positive number.");
+
+			ts = (int) Math.round(value);
+			whalf = ts / 2;
+		} else {
+			throw new BadParameterException("Unrecognized parameter: " + param);
+		}
+	}
+
+	/**
+	 * Returns the result of the most recent call to {@link #call()} as a
+	 * <code>TYPE_BYTE_BINARY</code> image in which foreground pixels are black.
+	 */
+	@Override
+	public BufferedImage getResult() {
+		if (result != null)
+			return result.toBufferedImage();
+		else
+			throw new IllegalStateException("Execution is not complete");
+	}
+
+	/**
+	 * @return The result of the most recent call to {@link #call()} in packed form.
+	 * @throws IllegalStateException If the algorithm has not yet finished execution.
+	 */
+	public BinaryImage getBinaryResult() {
+		if (result != null)
+			return result;
+		else
+			throw new IllegalStateException("Execution is not complete");
+	}
+
+	@Override
+	public boolean isReady() {
+		return true;
+	}
+
+	/**
+	 * Finds the smallest and largest gray levels and the largest window standard deviation
+	 * in a band of rows. Returns them as a three-element array.
+	 */
+	private static final class StatisticsProcessor implements Callable<double[]> {
+		private final IntegralImage iImage;
+		private final int[] data;
+		private final int whalf;
+		private final int startRow;
+		private final int endRow;
+
+		private StatisticsProcessor(IntegralImage iImage, int[] data, int whalf, int startRow, int endRow) {
+			this.iImage = iImage;
+			this.data = data;
+			this.whalf = whalf;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		public double[] call() {
+			int width = iImage.getWidth();
+			double[] mean = new double[width];
+			double[] stddev = iImage.hasVariance() ? new double[width] : null;
+
+			int min = Integer.MAX_VALUE;
+			int max = Integer.MIN_VALUE;
+			double maxStdDev = 0;
+			for (int ix = startRow * width; ix < endRow * width; ix++) {
+				min = Math.min(min, data[ix]);
+				max = Math.max(max, data[ix]);
+			}
+
+			if (stddev != null) {
+				for (int rowIx = startRow; rowIx < endRow; rowIx++) {
+					iImage.getRowStatistics(rowIx, whalf, mean, stddev);
+					for (int colIx = 0; colIx < width; colIx++) {
+						// NaN for single pixel windows, which are ignored
+						if (stddev[colIx] > maxStdDev)
+							maxStdDev = stddev[colIx];
+					}
+				}
+			}
+
+			return new double[] { min, max, maxStdDev };
+		}
+	}
+
+	/**
+	 * Binarizes a horizontal band of rows. See <code>FastSauvola</code>.
+	 */
+	private static final class BandProcessor implements Callable<Void> {
+		private final ThresholdFunction fn;
+		private final IntegralImage iImage;
+		private final int[] data;
+		private final BinaryImage output;
+		private final int whalf;
+		private final int startRow;
+		private final int endRow;
+
+		private BandProcessor(ThresholdFunction fn, IntegralImage iImage, int[] data, BinaryImage output,
+				int whalf, int startRow, int endRow) {
+			this.fn = fn;
+			this.iImage = iImage;
+			this.data = data;
+			this.output = output;
+			this.whalf = whalf;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		public Void call() {
+			final ThresholdFunction fn = this.fn;
+			final int width = iImage.getWidth();
+
+			// statistics and thresholds for the current row, reused for every row in the band
+			double[] mean = new double[width];
+			double[] stddev = null;
+			if (fn.requiresVariance()) {
+				stddev = new double[width];
+			}
+			double[] thresholds = new double[width];
+
+			int offset = startRow * width;
+			for (int rowIx = startRow; rowIx < endRow; rowIx++) {
+				iImage.getRowStatistics(rowIx, whalf, mean, stddev);
+				for (int colIx = 0; colIx < width; colIx++)
+					thresholds[colIx] = fn.threshold(mean[colIx], stddev != null ? stddev[colIx] : Double.NaN);
+
+				output.setRow(rowIx, data, offset, thresholds);
+				offset += width;
+			}
+
+			return null;
+		}
+	}
+}
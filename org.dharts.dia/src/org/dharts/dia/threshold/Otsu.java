@@ -0,0 +1,416 @@
+package org.dharts.dia.threshold;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import javax.imageio.ImageIO;
+
+import org.dharts.dia.BadParameterException;
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.GrayscaleReader;
+import org.dharts.dia.util.RowBands;
+
+/**
+ * A global thresholding algorithm based on the technique described by N. Otsu in:
+ *
+ * Otsu, N., A threshold selection method from gray-level histograms. In IEEE Transactions
+ *      on Systems, Man and Cybernetics 9 (1979) pp 62-66.
+ *
+ * <p>
+ * A single threshold is chosen for the whole image by maximizing the between-class variance
+ * of the gray level histogram, and pixels whose gray level is less than or equal to it are
+ * classified as foreground. This is much cheaper than adaptive methods such as
+ * {@link FastSauvola} and works well for clean pages with an even background; see
+ * {@link #isBimodal(int[], double)} and {@link PageBinarizer} for choosing between them.
+ * {@link #thresholds(int[], int)} generalizes the method to more than two classes.
+ *
+ * <p>
+ * The histogram is built in parallel: each band of rows accumulates its own partial
+ * histogram, reading the pixels directly from the image's data buffer for common layouts
+ * (see {@link GrayscaleReader}), and the partial histograms are merged at the end. The
+ * image is then binarized in a second parallel pass.
+ *
+ * <p>
+ * Like {@link FastSauvola}, instances may be used to binarize any number of images,
+ * including from multiple threads at the same time, via the <code>binarize</code> methods.
+ * The {@link Thresholder} methods are not safe for concurrent use.
+ */
+public class Otsu implements Thresholder, Binarizer
+{
+	/** The number of gray levels in the histograms computed by this class. */
+	public static final int LEVELS = 256;
+
+	/** The default separability above which a histogram is considered bimodal. */
+	public static final double DEFAULT_SEPARABILITY = 0.8;
+
+	// raster row and output read or written per pixel of a band
+	private static final int BYTES_PER_PIXEL = 4 + 4;
+
+	/**
+	 * Computes the gray level histogram of an image.
+	 *
+	 * @param image The image.
+	 * @param ex The executor to compute the partial histograms on.
+	 * @return A histogram of {@link #LEVELS} bins.
+	 * @throws InterruptedException If interrupted while waiting for the histogram.
+	 */
+	public static int[] histogram(BufferedImage image, ExecutorService ex) throws InterruptedException
+	{
+		return histogram(reader(image), ex);
+	}
+
+	private static int[] histogram(final GrayscaleReader reader, ExecutorService ex)
+			throws InterruptedException
+	{
+		final int width = reader.getWidth();
+
+		List<Callable<int[]>> tasks = new ArrayList<>();
+		for (final int[] band : bands(reader, ex)) {
+			tasks.add(new Callable<int[]>() {
+				@Override
+				public int[] call() {
+					int[] hist = new int[LEVELS];
+					int[] row = new int[width];
+					for (int y = band[0]; y < band[1]; y++) {
+						reader.readRow(y, row, 0);
+						for (int x = 0; x < width; x++)
+							hist[row[x]]++;
+					}
+
+					return hist;
+				}
+			});
+		}
+
+		int[] hist = new int[LEVELS];
+		for (int[] partial : RowBands.invokeAll(ex, tasks)) {
+			for (int i = 0; i < LEVELS; i++)
+				hist[i] += partial[i];
+		}
+
+		return hist;
+	}
+
+	/**
+	 * Computes the Otsu threshold of a histogram.
+	 *
+	 * @param hist The histogram.
+	 * @return The gray level that maximizes the between-class variance when pixels less than
+	 * 		or equal to it are assigned to the first class.
+	 */
+	public static int threshold(int[] hist)
+	{
+		return thresholds(hist, 2)[0];
+	}
+
+	/**
+	 * Computes the multi-level Otsu thresholds of a histogram: the thresholds that divide the
+	 * gray levels into the specified number of classes so as to maximize the between-class
+	 * variance. The thresholds are found exactly by dynamic programming, which requires
+	 * <code>O(classes * L<sup>2</sup>)</code> time for a histogram of <code>L</code> bins.
+	 *
+	 * @param hist The histogram.
+	 * @param classes The number of classes, at least 2.
+	 * @return The <code>classes - 1</code> thresholds, in increasing order. Class
+	 * 		<code>i</code> contains the gray levels in <code>(t[i - 1], t[i]]</code>.
+	 */
+	public static int[] thresholds(int[] hist, int classes)
+	{
+		int levels = hist.length;
+		if (classes < 2 || classes > levels)
+			throw new IllegalArgumentException("Invalid number of classes (" + classes + "). Must be between 2 and " + levels + ".");
+
+		// prefix sums of the counts and first moments
+		double[] p = new double[levels + 1];
+		double[] s = new double[levels + 1];
+		for (int i = 0; i < levels; i++) {
+			p[i + 1] = p[i] + hist[i];
+			s[i + 1] = s[i] + (double)i * hist[i];
+		}
+
+		// best[c][j] is the largest sum of s^2 / p over partitions of levels [0, j) into
+		// c + 1 classes; the between-class variance differs from this by a constant.
+		double[][] best = new double[classes][levels + 1];
+		int[][] split = new int[classes][levels + 1];
+		for (int j = 1; j <= levels; j++)
+			best[0][j] = score(p, s, 0, j);
+
+		for (int c = 1; c < classes; c++) {
+			for (int j = c + 1; j <= levels; j++) {
+				double max = Double.NEGATIVE_INFINITY;
+				int arg = c;
+				for (int i = c; i < j; i++) {
+					double v = best[c - 1][i] + score(p, s, i, j);
+					if (v > max) {
+						max = v;
+						arg = i;
+					}
+				}
+
+				best[c][j] = max;
+				split[c][j] = arg;
+			}
+		}
+
+		int[] t = new int[classes - 1];
+		int j = levels;
+		for (int c = classes - 1; c > 0; c--) {
+			j = split[c][j];
+			t[c - 1] = j - 1;
+		}
+
+		return t;
+	}
+
+	/**
+	 * Measures how well the Otsu threshold separates a histogram into two classes, as the
+	 * ratio of the between-class variance to the total variance. This is the
+	 * <code>eta</code> measure of Otsu's paper. It is close to 1 for a page with uniform
+	 * background and text, and lower for pages with uneven illumination, stains or
+	 * significant gray content that require adaptive thresholding.
+	 *
+	 * @param hist The histogram.
+	 * @return The separability, in <code>[0, 1]</code>.
+	 */
+	public static double separability(int[] hist)
+	{
+		int t = threshold(hist);
+
+		double n = 0;
+		double sum = 0;
+		double sumSq = 0;
+		double n0 = 0;
+		double sum0 = 0;
+		for (int i = 0; i < hist.length; i++) {
+			n += hist[i];
+			sum += (double)i * hist[i];
+			sumSq += (double)i * i * hist[i];
+			if (i <= t) {
+				n0 += hist[i];
+				sum0 += (double)i * hist[i];
+			}
+		}
+
+		double n1 = n - n0;
+		if (n == 0 || n0 == 0 || n1 == 0)
+			return 0;
+
+		double mean = sum / n;
+		double total = sumSq / n - mean * mean;
+		if (total <= 0)
+			return 0;
+
+		double m0 = sum0 / n0;
+		double m1 = (sum - sum0) / n1;
+		double between = (n0 / n) * (n1 / n) * (m0 - m1) * (m0 - m1);
+		return between / total;
+	}
+
+	/**
+	 * Indicates whether a histogram is separated well enough by a single threshold that a
+	 * global method can be used.
+	 *
+	 * @param hist The histogram.
+	 * @param minSeparability The smallest {@link #separability(int[])} to accept, e.g.,
+	 * 		{@link #DEFAULT_SEPARABILITY}.
+	 * @return <code>true</code> if the histogram is bimodal.
+	 */
+	public static boolean isBimodal(int[] hist, double minSeparability)
+	{
+		return separability(hist) >= minSeparability;
+	}
+
+	private static double score(double[] p, double[] s, int from, int to)
+	{
+		double n = p[to] - p[from];
+		if (n == 0)
+			return 0;
+
+		double m = s[to] - s[from];
+		return m * m / n;
+	}
+
+	/** Converts the image to gray once so that it can be read by several passes. */
+	private static GrayscaleReader reader(BufferedImage image) {
+		return GrayscaleReader.create(GrayscaleReader.toGray(image));
+	}
+
+	private static List<int[]> bands(GrayscaleReader reader, ExecutorService ex)
+	{
+		int width = reader.getWidth();
+		int height = reader.getHeight();
+		int bandHeight = RowBands.defaultHeight(width, height, BYTES_PER_PIXEL, ex);
+
+		List<int[]> bands = new ArrayList<>(height / bandHeight + 1);
+		for (int row = 0; row < height; row += bandHeight)
+			bands.add(new int[] { row, Math.min(height, row + bandHeight) });
+
+		return bands;
+	}
+
+	private final ExecutorService ex;
+
+	private BufferedImage image = null;
+	private BinaryImage result = null;
+	private int threshold = -1;
+
+	/**
+	 * Default constructor. Schedules work on the
+	 * {@link FastSauvola#getSharedExecutor() shared executor}.
+	 */
+	public Otsu() {
+		this(FastSauvola.getSharedExecutor());
+	}
+
+	/**
+	 * @param ex The executor to use to process images. This will not be shut down.
+	 */
+	public Otsu(ExecutorService ex) {
+		this.ex = RowBands.requireExecutor(ex);
+	}
+
+	@Override
+	public void initialize(File file) throws IOException {
+		if (!file.exists() || !file.isFile() || !file.canRead()) {
+			throw new IOException("Filename does not refer to a readable image file");
+		}
+
+		initialize(ImageIO.read(file));
+	}
+
+	@Override
+	public void initialize(BufferedImage image) {
+		this.image = image;
+		this.result = null;
+		this.threshold = -1;
+	}
+
+	@Override
+	public int[] call() throws InterruptedException {
+		if (image == null)
+			throw new IllegalStateException("The thresholding algorithm has not been properly initialized");
+
+		GrayscaleReader reader = reader(image);
+		threshold = threshold(histogram(reader, ex));
+		result = binarize(reader, threshold);
+		return result.toArray();
+	}
+
+	/**
+	 * Binarizes the supplied image with its Otsu threshold. This method may be called
+	 * concurrently from multiple threads.
+	 *
+	 * @param image The image to binarize. This image will not be modified.
+	 * @return The binarized image.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	@Override
+	public BinaryImage binarize(BufferedImage image) throws InterruptedException {
+		GrayscaleReader reader = reader(image);
+		return binarize(reader, threshold(histogram(reader, ex)));
+	}
+
+	/**
+	 * Binarizes the supplied image with a fixed threshold, e.g., one computed from a
+	 * histogram obtained with {@link #histogram(BufferedImage, ExecutorService)}.
+	 *
+	 * @param image The image to binarize. This image will not be modified.
+	 * @param threshold The largest gray level to classify as foreground.
+	 * @return The binarized image.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	public BinaryImage binarize(BufferedImage image, int threshold) throws InterruptedException {
+		return binarize(reader(image), threshold);
+	}
+
+	private BinaryImage binarize(final GrayscaleReader reader, final int threshold)
+			throws InterruptedException {
+		final int width = reader.getWidth();
+		final BinaryImage output = new BinaryImage(width, reader.getHeight());
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (final int[] band : bands(reader, ex)) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					int[] row = new int[width];
+					double[] thresholds = new double[width];
+					Arrays.fill(thresholds, threshold);
+					for (int y = band[0]; y < band[1]; y++) {
+						reader.readRow(y, row, 0);
+						output.setRow(y, row, 0, thresholds);
+					}
+
+					return null;
+				}
+			});
+		}
+
+		RowBands.invokeAll(ex, tasks);
+		return output;
+	}
+
+	/**
+	 * @return The threshold computed by the most recent call to {@link #call()}, or
+	 * 		<code>-1</code> if it has not been called.
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	// -----------------------------------------------------------------------
+	// ACCESSOR METHODS
+	// -----------------------------------------------------------------------
+	@Override
+	public Map<String, String> listParamters() {
+		return new HashMap<String, String>();
+	}
+
+	@Override
+	public double getParameter(String param) throws BadParameterException {
+		throw new BadParameterException("Unrecognized parameter: " + param);
+	}
+
+	@Override
+	public void setParameter(String param, double value) throws BadParameterException {
+		throw new BadParameterException("Unrecognized parameter: " + param);
+	}
+
+	/**
+	 * Returns the result of the most recent call to {@link #call()} as a
+	 * <code>TYPE_BYTE_BINARY</code> image in which foreground pixels are black.
+	 */
+	@Override
+	public BufferedImage getResult() {
+		if (result != null)
+			return result.toBufferedImage();
+		else
+			throw new IllegalStateException("Execution is not complete");
+	}
+
+	/**
+	 * @return The result of the most recent call to {@link #call()} in packed form.
+	 * @throws IllegalStateException If the algorithm has not yet finished execution.
+	 */
+	public BinaryImage getBinaryResult() {
+		if (result != null)
+			return result;
+		else
+			throw new IllegalStateException("Execution is not complete");
+	}
+
+	@Override
+	public boolean isReady() {
+		return true;
+	}
+}
@@ -0,0 +1,111 @@
+package org.dharts.dia.threshold;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.GrayscaleReader;
+import org.dharts.dia.util.RowBands;
+
+/**
+ * Binarizes pages using the cheapest method that is expected to work for each page. The gray
+ * level histogram of each page is computed and tested with
+ * {@link Otsu#isBimodal(int[], double)}: clean pages with a clearly bimodal histogram are
+ * binarized with the global {@link Otsu} threshold, which requires only two sequential passes
+ * over the image, and all other pages with the adaptive {@link FastSauvola} method.
+ *
+ * <p>
+ * Instances may be used from multiple threads.
+ */
+public class PageBinarizer implements Binarizer
+{
+	/**
+	 * The method used to binarize a page.
+	 */
+	public enum Method { GLOBAL, ADAPTIVE }
+
+	private final ExecutorService ex;
+	private final Otsu otsu;
+	private final FastSauvola sauvola;
+
+	private volatile double minSeparability = Otsu.DEFAULT_SEPARABILITY;
+
+	/**
+	 * Default constructor. Schedules work on the
+	 * {@link FastSauvola#getSharedExecutor() shared executor}.
+	 */
+	public PageBinarizer() {
+		this(FastSauvola.getSharedExecutor());
+	}
+
+	/**
+	 * @param ex The executor to use to process pages. This will not be shut down.
+	 */
+	public PageBinarizer(ExecutorService ex) {
+		this(ex, new FastSauvola(ex));
+	}
+
+	/**
+	 * @param ex The executor to use to process pages. This will not be shut down.
+	 * @param sauvola The configured thresholder to use for pages that require adaptive
+	 * 		thresholding.
+	 */
+	public PageBinarizer(ExecutorService ex, FastSauvola sauvola) {
+		if (sauvola == null)
+			throw new NullPointerException("No adaptive thresholder supplied");
+
+		this.ex = RowBands.requireExecutor(ex);
+		this.otsu = new Otsu(ex);
+		this.sauvola = sauvola;
+	}
+
+	/**
+	 * @param minSeparability The smallest separability of a page's histogram for which the
+	 * 		global method is used. See {@link Otsu#separability(int[])}. Values greater than 1
+	 * 		force the adaptive method for all pages.
+	 */
+	public void setMinSeparability(double minSeparability) {
+		if (minSeparability < 0)
+			throw new IllegalArgumentException("Invalid separability (" + minSeparability + "). Must not be negative.");
+
+		this.minSeparability = minSeparability;
+	}
+
+	public double getMinSeparability() {
+		return minSeparability;
+	}
+
+	/**
+	 * Determines the method that would be used to binarize a page.
+	 *
+	 * @param image The page image.
+	 * @return The method.
+	 * @throws InterruptedException If interrupted while waiting for the histogram.
+	 */
+	public Method choose(BufferedImage image) throws InterruptedException {
+		return choose(Otsu.histogram(image, ex));
+	}
+
+	/**
+	 * Binarizes a page.
+	 *
+	 * @param image The page image. This image will not be modified.
+	 * @return The binarized image.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	@Override
+	public BinaryImage binarize(BufferedImage image) throws InterruptedException {
+		// convert once, so that neither the histogram nor the chosen method converts again
+		BufferedImage gray = GrayscaleReader.toGray(image);
+		int[] hist = Otsu.histogram(gray, ex);
+		if (choose(hist) == Method.GLOBAL)
+			return otsu.binarize(gray, Otsu.threshold(hist));
+		else
+			return sauvola.binarize(gray);
+	}
+
+	private Method choose(int[] hist) {
+		return Otsu.isBimodal(hist, minSeparability) ? Method.GLOBAL : Method.ADAPTIVE;
+	}
+}
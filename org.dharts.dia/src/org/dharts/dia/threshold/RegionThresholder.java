@@ -0,0 +1,222 @@
+package org.dharts.dia.threshold;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.dharts.dia.BoundingBox;
+import org.dharts.dia.SimpleBoundingBox;
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.ImageWrapper;
+import org.dharts.dia.util.IntegralImage;
+import org.dharts.dia.util.RowBands;
+
+/**
+ * Binarizes selected regions of a page using the Sauvola algorithm, without converting or
+ * building an integral image for the whole page. Each region is extended by a halo of half
+ * the window size on every side (clipped to the page), and only this extended region is
+ * converted to gray and integrated. The cost of binarizing a region is therefore
+ * proportional to the size of the region rather than that of the page.
+ *
+ * <p>
+ * Since the halo covers the window of every pixel of the region, and windows are clipped to
+ * the page in the same way as by {@link FastSauvola}, the result for each pixel of a region is
+ * identical to that produced by <code>FastSauvola</code> for the whole page with the same
+ * parameters.
+ *
+ * <p>
+ * Regions are processed in parallel, one task per region. Instances may be used from
+ * multiple threads.
+ */
+public class RegionThresholder
+{
+	private final ExecutorService ex;
+
+	private volatile int    whalf = 24;		// half the window size
+	private volatile double k  = 0.3;
+	private volatile int    range  = 128;	// control for dynamic range
+
+	/**
+	 * Default constructor. Schedules work on the
+	 * {@link FastSauvola#getSharedExecutor() shared executor}.
+	 */
+	public RegionThresholder() {
+		this(FastSauvola.getSharedExecutor());
+	}
+
+	/**
+	 * @param ex The executor to use to process regions. This will not be shut down.
+	 */
+	public RegionThresholder(ExecutorService ex) {
+		this.ex = RowBands.requireExecutor(ex);
+	}
+
+	/**
+	 * Sets the value of a parameter. Supports <code>k</code> and <code>ts</code> as for
+	 * {@link FastSauvola}.
+	 *
+	 * @param param The name of the parameter.
+	 * @param value The value to assign.
+	 */
+	public void setParameter(String param, double value) {
+		if (value < 0)
+			throw new IllegalArgumentException("Invalid value for '" + param + "' (" + value + "). Must be a positive number.");
+
+		if (param.equals("k")) {
+			k = value;
+		} else if (param.equals("ts")) {
+			whalf = ((int) Math.round(value)) / 2;
+		} else {
+			throw new IllegalArgumentException("Unrecognized parameter: " + param);
+		}
+	}
+
+	public double getParameter(String param) {
+		if (param.equals("k")) {
+			return k;
+		} else if (param.equals("ts")) {
+			return whalf * 2;
+		} else {
+			throw new IllegalArgumentException("Unrecognized parameter: " + param);
+		}
+	}
+
+	/**
+	 * Binarizes the supplied regions of a page.
+	 *
+	 * @param page The page image. This image will not be modified.
+	 * @param regions The regions to binarize, in page coordinates. The right and bottom
+	 * 		edges of each box are exclusive. Regions are clipped to the page and may overlap.
+	 * @return The binarized regions, in the order supplied.
+	 * @throws InterruptedException If interrupted while waiting for the regions to be
+	 * 		processed.
+	 */
+	public List<Region> binarize(BufferedImage page, List<? extends BoundingBox> regions)
+			throws InterruptedException {
+		int whalf = this.whalf;
+		double k = this.k;
+		int range = this.range;
+
+		List<RegionProcessor> tasks = new ArrayList<>(regions.size());
+		for (BoundingBox box : regions) {
+			tasks.add(new RegionProcessor(page, box, whalf, k, range));
+		}
+
+		return RowBands.invokeAll(ex, tasks);
+	}
+
+	/**
+	 * A binarized region of a page.
+	 */
+	public static final class Region
+	{
+		private final BoundingBox bounds;
+		private final BinaryImage image;
+
+		private Region(BoundingBox bounds, BinaryImage image)
+		{
+			this.bounds = bounds;
+			this.image = image;
+		}
+
+		/**
+		 * @return The bounds of the region on the page, after clipping to the page. The right
+		 * 		and bottom edges are exclusive.
+		 */
+		public BoundingBox getBounds()
+		{
+			return bounds;
+		}
+
+		/**
+		 * @return The binarized region. Pixel <code>(0, 0)</code> of this image corresponds to
+		 * 		the top left corner of {@link #getBounds()}.
+		 */
+		public BinaryImage getImage()
+		{
+			return image;
+		}
+
+		/**
+		 * @param x The horizontal page coordinate of a pixel within the region.
+		 * @param y The vertical page coordinate of a pixel within the region.
+		 * @return <code>true</code> if the pixel is foreground.
+		 */
+		public boolean isForeground(int x, int y)
+		{
+			return image.get(x - bounds.getLeft(), y - bounds.getTop());
+		}
+	}
+
+	/**
+	 * Binarizes a single region.
+	 */
+	private static final class RegionProcessor implements Callable<Region> {
+		private final BufferedImage page;
+		private final BoundingBox box;
+		private final int whalf;
+		private final double k;
+		private final int range;
+
+		private RegionProcessor(BufferedImage page, BoundingBox box, int whalf, double k, int range) {
+			this.page = page;
+			this.box = box;
+			this.whalf = whalf;
+			this.k = k;
+			this.range = range;
+		}
+
+		@Override
+		public Region call() {
+			int pageWidth = page.getWidth();
+			int pageHeight = page.getHeight();
+
+			// the region, clipped to the page
+			int left = clamp(box.getLeft(), 0, pageWidth);
+			int top = clamp(box.getTop(), 0, pageHeight);
+			int right = clamp(box.getRight(), left, pageWidth);
+			int bottom = clamp(box.getBottom(), top, pageHeight);
+
+			BoundingBox bounds = new SimpleBoundingBox(left, top, right, bottom);
+			BinaryImage output = new BinaryImage(right - left, bottom - top);
+			if (right == left || bottom == top)
+				return new Region(bounds, output);
+
+			// the region and its halo, clipped to the page
+			int haloLeft = Math.max(0, left - whalf);
+			int haloTop = Math.max(0, top - whalf);
+			int haloRight = Math.min(pageWidth, right + whalf);
+			int haloBottom = Math.min(pageHeight, bottom + whalf);
+
+			BufferedImage halo = page.getSubimage(haloLeft, haloTop, haloRight - haloLeft, haloBottom - haloTop);
+			// the region is small, so its integral image is built on the calling thread
+			ImageWrapper image = ImageWrapper.wrapGray(halo, true, null);
+			IntegralImage iImage = image.getIntegralImage();
+			int[] data = image.getRaster();
+
+			int haloWidth = iImage.getWidth();
+			int dx = left - haloLeft;				// offset of the region within the halo
+			int width = right - left;
+
+			double[] mean = new double[haloWidth];
+			double[] stddev = new double[haloWidth];
+			double[] thresholds = new double[width];
+			for (int y = top; y < bottom; y++) {
+				int haloY = y - haloTop;
+				iImage.getRowStatistics(haloY, whalf, mean, stddev);
+				for (int x = 0; x < width; x++)
+					thresholds[x] = mean[dx + x] * (1 + k * ((stddev[dx + x] / range) - 1));
+
+				output.setRow(y - top, data, haloY * haloWidth + dx, thresholds);
+			}
+
+			return new Region(bounds, output);
+		}
+
+		private static int clamp(int value, int min, int max) {
+			return Math.max(min, Math.min(max, value));
+		}
+	}
+}
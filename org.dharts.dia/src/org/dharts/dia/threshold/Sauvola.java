@@ -11,17 +11,21 @@
 package org.dharts.dia.threshold;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
-import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import javax.imageio.ImageIO;
 
 import org.dharts.dia.BadParameterException;
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.GrayscaleReader;
+import org.dharts.dia.util.RowBands;
 
 /**
  * An adaptive thresholding algorithm based on the technique described by J. Sauvola in:
@@ -29,6 +33,14 @@ import org.dharts.dia.BadParameterException;
  * Sauvola, J. and M. Pietikäinen, Adaptive document image binarization. In
  *      Pattern Recognition 33 (2000) pp 255-236.
  *
+ * <p>
+ * This computes a single threshold for each non-overlapping <code>ts</code> x <code>ts</code>
+ * tile of the image from the mean and (population) standard deviation of the tile, and
+ * applies it to every pixel of the tile. It is considerably cheaper than
+ * {@link FastSauvola}, which computes a threshold for every pixel from the window centered
+ * on it, at the cost of visible discontinuities at tile boundaries. Each row of tiles is
+ * processed as a separate task on an <code>ExecutorService</code>.
+ *
  * @author Neal Audenaert
  */
 public class Sauvola implements Thresholder {
@@ -47,14 +59,31 @@ public class Sauvola implements Thresholder {
     private double k  = 0.5;    //
     private int    r  = 128;    // control for dynamic range
 
+    private final ExecutorService ex;
+
     private BufferedImage m_image  = null;
-    private BufferedImage m_output = null;
+    private BinaryImage   m_output = null;
 
     // -----------------------------------------------------------------------
     // CONSTRUCTOR
     // -----------------------------------------------------------------------
-    /** Default constructor. */
-    public Sauvola() {  }
+    /**
+     * Default constructor. Schedules work on the
+     * {@link FastSauvola#getSharedExecutor() shared executor}.
+     */
+    public Sauvola() {
+        this(FastSauvola.getSharedExecutor());
+    }
+
+    /**
+     * Creates a <code>Sauvola</code> instance that schedules its work on the supplied
+     * executor. The executor will not be shut down by this class.
+     *
+     * @param ex The executor to use to process images.
+     */
+    public Sauvola(ExecutorService ex) {
+        this.ex = RowBands.requireExecutor(ex);
+    }
 
 
     // -----------------------------------------------------------------------
@@ -75,7 +104,8 @@ public class Sauvola implements Thresholder {
         m_width  = image.getWidth();
         m_height = image.getHeight();
 
-        m_image = ImageUtils.grayscale(image);
+        // common layouts are read directly, so only other layouts are converted up front
+        m_image = GrayscaleReader.toGray(image);
 
         // Makes for a reasonable assumption, but this parameter really needs
         // to be configured for good results
@@ -108,7 +138,7 @@ public class Sauvola implements Thresholder {
     //
 
     @Override
-	public int[] call() throws IOException {
+	public int[] call() throws IOException, InterruptedException {
         // TODO Sauvola's algorithm interpolates between the nearest anchor
         //      points to get thresholds on a pixel by pixel basis. We should
         //      adopt this approach. Now, for simplicy, we're just using the
@@ -119,45 +149,95 @@ public class Sauvola implements Thresholder {
             		"been properly initialized");
         }
 
-        WritableRaster output = m_image.getData().createCompatibleWritableRaster();
-        TileIterator tiles = new TileIterator(m_image, ts);
-        while (tiles.hasNext()) {
-            tiles.next();
-
-            // deterine the threshold
-            int t = isText(tiles) ? tbm(tiles) : sdm(tiles);
-
-            // Write the tile to the output image
-            Raster data = tiles.getRaster();
-            int w    = data.getMinX() + tiles.getWidth();
-            int h    = data.getMinY() + tiles.getHeight();
-
-            for (int y = data.getMinY(); y < h; y++) {
-                for (int x = data.getMinX(); x < w; x++) {
-                    int s = data.getSample(x, y, 0);
-                    if (s > t)
-                    	output.setSample(x, y, 0, 255);
-                    else
-                    	output.setSample(x, y, 0, 0);
-                }
-            }
+        int tileSize = Math.max(1, ts);
+        GrayscaleReader reader = GrayscaleReader.create(m_image);
+        BinaryImage output = new BinaryImage(m_width, m_height);
+
+        List<TileRow> tasks = new ArrayList<TileRow>();
+        for (int y = 0; y < m_height; y += tileSize) {
+            tasks.add(new TileRow(reader, output, y, Math.min(m_height, y + tileSize), tileSize));
         }
+        RowBands.invokeAll(ex, tasks);
 
-        m_output = new BufferedImage(m_image.getColorModel(), output, true, new Hashtable<>());
+        m_output = output;
         m_processed = true;
 
-//        return m_output;
-        return null;		// HACK: need to implement this
+        return m_output.toArray();
+    }
+
+    /**
+     * Thresholds one row of tiles. The gray levels of the rows spanned by the tiles are
+     * read once; the sum and sum of squares of each tile are accumulated in the same pass
+     * and are used to compute the threshold for the tile, which is then applied to the
+     * buffered rows.
+     */
+    private class TileRow implements Callable<Void> {
+        private final GrayscaleReader reader;
+        private final BinaryImage output;
+        private final int top;
+        private final int bottom;
+        private final int tileSize;
+
+        TileRow(GrayscaleReader reader, BinaryImage output, int top, int bottom, int tileSize) {
+            this.reader = reader;
+            this.output = output;
+            this.top = top;
+            this.bottom = bottom;
+            this.tileSize = tileSize;
+        }
+
+        @Override
+        public Void call() {
+            int w = m_width;
+            int rows = bottom - top;
+            int nTiles = (w + tileSize - 1) / tileSize;
+
+            int[] data = new int[w * rows];
+            long[] sum = new long[nTiles];
+            long[] sumSq = new long[nTiles];
+            for (int r = 0; r < rows; r++) {
+                int offset = r * w;
+                reader.readRow(top + r, data, offset);
+                for (int x = 0; x < w; x++) {
+                    int s = data[offset + x];
+                    int tile = x / tileSize;
+                    sum[tile] += s;
+                    sumSq[tile] += s * s;
+                }
+            }
+
+            // deterine the threshold for each tile
+            int[] thresholds = new int[nTiles];
+            for (int tile = 0; tile < nTiles; tile++) {
+                int tileWidth = Math.min(w, (tile + 1) * tileSize) - tile * tileSize;
+                double n = tileWidth * rows;
+                double mu = sum[tile] / n;
+                double std = Math.sqrt(Math.max(0, (sumSq[tile] - sum[tile] * mu) / n));
+
+                thresholds[tile] = isText(mu, std) ? tbm(mu, std) : sdm(mu, std);
+            }
+
+            // Write the tiles to the output image
+            double[] rowThresholds = new double[w];
+            for (int x = 0; x < w; x++) {
+                rowThresholds[x] = thresholds[x / tileSize];
+            }
+            for (int r = 0; r < rows; r++) {
+                output.setRow(top + r, data, r * w, rowThresholds);
+            }
+
+            return null;
+        }
     }
 
     /**
      * Determines whether a given image tile is text.
      *
-     * @param tiles The <code>TileIterator</code> whose state represents the
-     *      tile to evaluate.
+     * @param mu The mean gray level of the tile.
+     * @param std The standard deviation of the gray levels of the tile.
      * @return
      */
-    private boolean isText(TileIterator tiles) {
+    private boolean isText(double mu, double std) {
         // TODO For now, this is hardwired to return true. We need to implement
         //     this discriminant function as described in Sauvola's paper or
         //     remove this method. This produces poor results for non-text
@@ -172,13 +252,11 @@ public class Sauvola implements Thresholder {
      * <code>
      *    T(x,y) = mu(x,y) * (1 + k * (std(x,y)/R - 1)))
      * </code>
-     * @param tile
+     * @param mu The mean gray level of the tile.
+     * @param std The standard deviation of the gray levels of the tile.
      * @return
      */
-    private int tbm(TileIterator tile) {
-        double mu = tile.mean()[0];
-        double std = tile.stdev()[0];
-
+    private int tbm(double mu, double std) {
         return (int) (mu * (1 + k * (std/r - 1)));
     }
 
@@ -186,12 +264,12 @@ public class Sauvola implements Thresholder {
      * Compute the threshold for a tile under the assumption that the tile
      * contains does not contain text.
      *
-     * @param tile The tile from the original image for which to determine
-     *      the appropriate threshold. This should be a tile for which
-     *      <code>isText</code> returns false.
+     * @param mu The mean gray level of a tile for which <code>isText</code>
+     *      returns false.
+     * @param std The standard deviation of the gray levels of the tile.
      * @return The threshold value for the specified tile.
      */
-    private int sdm(TileIterator tile) {
+    private int sdm(double mu, double std) {
         // This is currently fixed to return 0 in all cases, as we have not yet
         // implemented this portion of the algorithm.
         return 255;
@@ -279,8 +357,23 @@ public class Sauvola implements Thresholder {
         }
     }
 
+    /**
+     * Returns the thresholded image as a <code>TYPE_BYTE_BINARY</code> image in which
+     * foreground pixels are black.
+     */
     @Override
     public BufferedImage getResult() {
+        if (m_processed)
+        	return m_output.toBufferedImage();
+        else
+        	throw new IllegalStateException("Execution has not completed");
+    }
+
+    /**
+     * @return The thresholded image in packed form.
+     * @throws IllegalStateException If the algorithm has not yet finished execution.
+     */
+    public BinaryImage getBinaryResult() {
         if (m_processed)
         	return m_output;
         else
@@ -0,0 +1,233 @@
+package org.dharts.dia.threshold;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.dharts.dia.util.RowBands;
+
+/**
+ * Computes the Sobel gradient of a grayscale image. This replaces the template loop of
+ * {@link SobelEdgeDetector} with a separable, row-major implementation: each row is first
+ * filtered horizontally with the <code>[-1 0 1]</code> and <code>[1 2 1]</code> kernels, and
+ * the gradients are then formed from three consecutive filtered rows. All filtering uses
+ * integer arithmetic, and the interior of each row is processed without bounds checks.
+ * Pixels outside the image are taken to have the value of the nearest edge pixel.
+ *
+ * <p>
+ * With <code>gx</code> the horizontal and <code>gy</code> the vertical gradient, the
+ * magnitude is <code>(int) sqrt(gx * gx + gy * gy)</code>. For 8-bit input it lies in
+ * <code>[0, {@link #MAX_MAGNITUDE}]</code> and so fits in a <code>short</code>. The direction,
+ * <code>atan2(gy, gx)</code>, is only computed if an array is supplied for it.
+ *
+ * <p>
+ * The image is processed in horizontal bands on an <code>ExecutorService</code>. Results are
+ * written to arrays supplied by the caller, which may be reused between images. Instances
+ * may be used from multiple threads.
+ */
+public class SobelGradient
+{
+	/** The largest magnitude that can be computed for 8-bit input. */
+	public static final int MAX_MAGNITUDE = 1442;		// sqrt(2 * (4 * 255)^2)
+
+	// input, the filtered rows and the outputs read or written per pixel of a band
+	private static final int BYTES_PER_PIXEL = 4 + 2 + 4;
+
+	private final ExecutorService ex;
+
+	/**
+	 * Default constructor. Schedules work on the
+	 * {@link FastSauvola#getSharedExecutor() shared executor}.
+	 */
+	public SobelGradient() {
+		this(FastSauvola.getSharedExecutor());
+	}
+
+	/**
+	 * @param ex The executor to use to process images. This will not be shut down.
+	 */
+	public SobelGradient(ExecutorService ex) {
+		this.ex = RowBands.requireExecutor(ex);
+	}
+
+	/**
+	 * Computes the gradient magnitude and, optionally, direction of an image.
+	 *
+	 * @param gray The 8-bit gray levels of the image in raster order.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param magnitude The array to write the magnitudes to, or <code>null</code> to allocate
+	 * 		one. Must hold at least <code>width * height</code> elements.
+	 * @param direction The array to write the directions to, in radians, or <code>null</code>
+	 * 		if the direction is not required.
+	 * @return The array of magnitudes.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	public short[] compute(int[] gray, int width, int height, short[] magnitude, float[] direction)
+			throws InterruptedException {
+		if (magnitude == null)
+			magnitude = new short[width * height];
+
+		checkSize("magnitude", magnitude.length, width, height);
+		if (direction != null)
+			checkSize("direction", direction.length, width, height);
+
+		run(new Job(gray, width, height, magnitude, null, direction));
+		return magnitude;
+	}
+
+	/**
+	 * Computes the gradient magnitude of an image, scaled to the range <code>[0, 255]</code>
+	 * by the fixed factor <code>255 / {@link #MAX_MAGNITUDE}</code>. This requires half the
+	 * memory of the <code>short</code> magnitudes and is convenient for display. Unlike
+	 * {@link SobelEdgeDetector}, the scale does not depend on the largest magnitude in the
+	 * image, so the result can be computed in a single pass.
+	 *
+	 * @param gray The 8-bit gray levels of the image in raster order.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param magnitude The array to write the scaled magnitudes to, or <code>null</code> to
+	 * 		allocate one. Values are unsigned and should be read as
+	 * 		<code>magnitude[i] &amp; 0xFF</code>.
+	 * @return The array of scaled magnitudes.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	public byte[] computeScaled(int[] gray, int width, int height, byte[] magnitude)
+			throws InterruptedException {
+		if (magnitude == null)
+			magnitude = new byte[width * height];
+
+		checkSize("magnitude", magnitude.length, width, height);
+		run(new Job(gray, width, height, null, magnitude, null));
+		return magnitude;
+	}
+
+	private void run(Job job) throws InterruptedException {
+		int height = job.height;
+		int bandHeight = RowBands.defaultHeight(job.width, height, BYTES_PER_PIXEL, ex);
+
+		List<BandProcessor> tasks = new ArrayList<>(height / bandHeight + 1);
+		for (int row = 0; row < height; row += bandHeight) {
+			tasks.add(new BandProcessor(job, row, Math.min(height, row + bandHeight)));
+		}
+
+		RowBands.invokeAll(ex, tasks);
+	}
+
+	private static void checkSize(String name, int length, int width, int height) {
+		if (length < width * height)
+			throw new IllegalArgumentException("The " + name + " array is too small (" + length
+					+ " elements) for a " + width + " x " + height + " image");
+	}
+
+	/**
+	 * The input and output of a single image.
+	 */
+	private static final class Job {
+		private final int[] gray;
+		private final int width;
+		private final int height;
+		private final short[] magnitude;
+		private final byte[] scaled;
+		private final float[] direction;
+
+		private Job(int[] gray, int width, int height, short[] magnitude, byte[] scaled, float[] direction) {
+			this.gray = gray;
+			this.width = width;
+			this.height = height;
+			this.magnitude = magnitude;
+			this.scaled = scaled;
+			this.direction = direction;
+		}
+	}
+
+	/**
+	 * Computes the gradient for a horizontal band of rows. The horizontally filtered rows
+	 * above, at and below the current row are kept in a ring of three rows, so each source
+	 * row is filtered once per band (plus one row above and below the band).
+	 */
+	private static final class BandProcessor implements Callable<Void> {
+		private final Job job;
+		private final int startRow;
+		private final int endRow;
+
+		private BandProcessor(Job job, int startRow, int endRow) {
+			this.job = job;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		public Void call() {
+			final int width = job.width;
+			final int height = job.height;
+
+			// horizontal derivative and smoothing of the rows above, at and below the current row
+			int[][] diff = new int[3][width];
+			int[][] smooth = new int[3][width];
+
+			filter(Math.max(0, startRow - 1), diff[0], smooth[0]);
+			filter(startRow, diff[1], smooth[1]);
+			for (int y = startRow; y < endRow; y++) {
+				int[] d0 = diff[(y - startRow) % 3];
+				int[] d1 = diff[(y - startRow + 1) % 3];
+				int[] d2 = diff[(y - startRow + 2) % 3];
+				int[] s0 = smooth[(y - startRow) % 3];
+				int[] s2 = smooth[(y - startRow + 2) % 3];
+				filter(Math.min(height - 1, y + 1), d2, s2);
+
+				int offset = y * width;
+				for (int x = 0; x < width; x++) {
+					int gx = d0[x] + 2 * d1[x] + d2[x];
+					int gy = s2[x] - s0[x];
+					store(offset + x, gx, gy);
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * Filters one source row horizontally.
+		 */
+		private void filter(int y, int[] diff, int[] smooth) {
+			final int[] gray = job.gray;
+			final int width = job.width;
+			final int offset = y * width;
+			if (width == 1) {
+				diff[0] = 0;
+				smooth[0] = 4 * gray[offset];
+				return;
+			}
+
+			// edges, replicating the edge pixels
+			int first = gray[offset];
+			int last = gray[offset + width - 1];
+			diff[0] = gray[offset + 1] - first;
+			smooth[0] = 3 * first + gray[offset + 1];
+			diff[width - 1] = last - gray[offset + width - 2];
+			smooth[width - 1] = 3 * last + gray[offset + width - 2];
+
+			// interior
+			for (int x = 1, ix = offset + 1; x < width - 1; x++, ix++) {
+				int left = gray[ix - 1];
+				int right = gray[ix + 1];
+				diff[x] = right - left;
+				smooth[x] = left + 2 * gray[ix] + right;
+			}
+		}
+
+		private void store(int ix, int gx, int gy) {
+			int mag = (int)Math.sqrt(gx * gx + gy * gy);
+			if (job.magnitude != null)
+				job.magnitude[ix] = (short)mag;
+			if (job.scaled != null)
+				job.scaled[ix] = (byte)(mag * 255 / MAX_MAGNITUDE);
+			if (job.direction != null)
+				job.direction[ix] = (float)Math.atan2(gy, gx);
+		}
+	}
+}
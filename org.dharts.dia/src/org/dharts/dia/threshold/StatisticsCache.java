@@ -0,0 +1,165 @@
+package org.dharts.dia.threshold;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A memory-bounded cache of {@link WindowStatistics}, keyed by image and window size. This
+ * allows an image to be re-thresholded with different values of <code>k</code> and
+ * <code>range</code> without recomputing the window statistics, e.g., when parameters are
+ * adjusted interactively. See {@link FastSauvola#setStatisticsCache(StatisticsCache)}.
+ *
+ * <p>
+ * Images are compared by identity and are only weakly referenced, so caching the statistics
+ * of an image does not prevent it from being garbage collected; its entries are discarded
+ * once it has been. When the total footprint of the cached statistics exceeds the capacity
+ * of the cache, the least recently used entries are evicted. Statistics larger than the
+ * capacity are not cached.
+ *
+ * <p>
+ * This class is thread-safe.
+ */
+public class StatisticsCache
+{
+	private final long capacity;
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+	private final LinkedHashMap<Key, WindowStatistics> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long size = 0;
+
+	/**
+	 * @param capacity The maximum number of bytes of statistics to retain.
+	 */
+	public StatisticsCache(long capacity)
+	{
+		if (capacity < 0)
+			throw new IllegalArgumentException("Invalid capacity (" + capacity + "). Must not be negative.");
+
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @param image The image, typically a <code>BufferedImage</code> or
+	 * 		<code>ImageWrapper</code>.
+	 * @param whalf Half the window size.
+	 * @return The cached statistics, or <code>null</code> if none are cached.
+	 */
+	public synchronized WindowStatistics get(Object image, int whalf)
+	{
+		expunge();
+		return entries.get(new Key(image, whalf, null));
+	}
+
+	/**
+	 * Adds statistics to the cache, evicting the least recently used entries as required.
+	 *
+	 * @param image The image the statistics were computed for.
+	 * @param stats The statistics.
+	 */
+	public synchronized void put(Object image, WindowStatistics stats)
+	{
+		expunge();
+		if (stats.getFootprint() > capacity)
+			return;
+
+		WindowStatistics old = entries.put(new Key(image, stats.getWindowHalfSize(), collected), stats);
+		if (old != null)
+			size -= old.getFootprint();
+		size += stats.getFootprint();
+
+		Iterator<WindowStatistics> it = entries.values().iterator();
+		while (size > capacity && it.hasNext()) {
+			size -= it.next().getFootprint();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Discards all statistics computed for an image.
+	 *
+	 * @param image The image.
+	 */
+	public synchronized void invalidate(Object image)
+	{
+		Iterator<Map.Entry<Key, WindowStatistics>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, WindowStatistics> entry = it.next();
+			if (entry.getKey().get() == image) {
+				size -= entry.getValue().getFootprint();
+				it.remove();
+			}
+		}
+	}
+
+	/** Discards all cached statistics. */
+	public synchronized void clear()
+	{
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return The number of bytes of statistics currently cached.
+	 */
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	public long getCapacity()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Removes the entries for images that have been garbage collected.
+	 */
+	private void expunge()
+	{
+		Reference<?> ref;
+		while ((ref = collected.poll()) != null) {
+			WindowStatistics stats = entries.remove(ref);
+			if (stats != null)
+				size -= stats.getFootprint();
+		}
+	}
+
+	/**
+	 * Identifies an image by identity together with a window size. A collected key is equal
+	 * only to itself, so that it can still be removed from the map.
+	 */
+	private static final class Key extends WeakReference<Object>
+	{
+		private final int hash;
+		private final int whalf;
+
+		Key(Object image, int whalf, ReferenceQueue<Object> queue)
+		{
+			super(image, queue);
+			this.hash = System.identityHashCode(image) * 31 + whalf;
+			this.whalf = whalf;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (obj == this)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+
+			Key other = (Key)obj;
+			Object image = get();
+			return image != null && image == other.get() && whalf == other.whalf;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package org.dharts.dia.threshold;
+
+import java.awt.image.Raster;
+import java.io.IOException;
+
+import javax.imageio.ImageReader;
+
+import org.dharts.dia.util.GrayscaleReader;
+import org.dharts.dia.util.ImageStrips;
+
+/**
+ * A Sauvola thresholder that processes an image one scanline at a time. Rather than
+ * materializing the integral image for the whole page, this keeps a ring buffer of the rows
+ * covered by the current window together with running column sums, so the memory required
+ * is proportional to the width of the image times the size of the window rather than to the
+ * area of the image. This makes it suitable for very tall images such as microfilm strips.
+ *
+ * <p>
+ * Binarized rows are passed to a {@link ScanlineSink} as soon as the last source row that
+ * can affect them has been read. For the same parameters, the output for an image read by
+ * {@link #process(ImageReader, int, ScanlineSink)}, or for a raster of the same gray levels,
+ * is identical to that of {@link FastSauvola}.
+ *
+ * <p>
+ * A <code>StreamingSauvola</code> instance holds only configuration and may be shared
+ * between threads. Each image is processed by its own {@link Session}.
+ */
+public class StreamingSauvola
+{
+	private static final int bgPx = 0;
+	private static final int fgPx = 1;
+
+	/**
+	 * Receives binarized rows from a {@link StreamingSauvola.Session}.
+	 */
+	public interface ScanlineSink
+	{
+		/**
+		 * Called once for each row of the image, in order from top to bottom.
+		 *
+		 * @param y The index of the row.
+		 * @param row The binarized row. Foreground pixels are <code>1</code> and background
+		 * 		pixels are <code>0</code>. This array is reused for subsequent rows and must
+		 * 		be copied if it is retained after this method returns.
+		 */
+		void accept(int y, int[] row);
+	}
+
+	private volatile int    whalf = 24;		// half the window size
+	private volatile double k  = 0.3;
+	private volatile int    range  = 128;	// control for dynamic range
+
+	/** Default constructor. Uses the same default parameters as {@link FastSauvola}. */
+	public StreamingSauvola() {
+
+	}
+
+	/**
+	 * Sets the value of a parameter. Supports the same parameters as {@link FastSauvola}.
+	 *
+	 * @param param The name of the parameter, <code>k</code> or <code>ts</code>.
+	 * @param value The value to assign.
+	 */
+	public void setParameter(String param, double value) {
+		if (param.equals("k")) {
+			if (value < 0)
+				throw new IllegalArgumentException("Invalid value for 'k' (" + value + "). Must be a positive number.");
+
+			k = value;
+		} else if (param.equals("ts")) {
+			if (value < 0)
+				throw new IllegalArgumentException("Invalid value for 'ts' (" + value + "). Must be a positive number.");
+
+			whalf = ((int) Math.round(value)) / 2;
+		} else {
+			throw new IllegalArgumentException("Unrecognized parameter: " + param);
+		}
+	}
+
+	public double getParameter(String param) {
+		if (param.equals("k")) {
+			return k;
+		} else if (param.equals("ts")) {
+			return whalf * 2;
+		} else {
+			throw new IllegalArgumentException("Unrecognized parameter: " + param);
+		}
+	}
+
+	/**
+	 * Starts binarizing an image whose rows will be supplied by the caller.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param sink The sink to pass the binarized rows to.
+	 * @return A session to which the rows of the image should be pushed.
+	 */
+	public Session open(int width, int height, ScanlineSink sink) {
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("Invalid image size (" + width + " x " + height + ")");
+
+		return new Session(width, height, sink);
+	}
+
+	/**
+	 * Binarizes the first band of the supplied raster, which is assumed to hold grayscale
+	 * values.
+	 *
+	 * @param raster The raster to read from.
+	 * @param sink The sink to pass the binarized rows to.
+	 * @return The number of foreground pixels.
+	 */
+	public long process(Raster raster, ScanlineSink sink) {
+		int w = raster.getWidth();
+		int h = raster.getHeight();
+		int x0 = raster.getMinX();
+		int y0 = raster.getMinY();
+
+		Session session = open(w, h, sink);
+		int[] row = new int[w];
+		for (int y = 0; y < h; y++) {
+			raster.getSamples(x0, y0 + y, w, 1, 0, row);
+			session.push(row);
+		}
+
+		return session.getForegroundPixelCount();
+	}
+
+	/**
+	 * Binarizes an image read from the supplied reader. The image is decoded a few rows at a
+	 * time by {@link ImageStrips}, so the complete image is never held in memory. Images that
+	 * are not tiled should be stored in a format whose rows can be decoded without decoding
+	 * the rows before them (see {@link ImageStrips}). Each strip is converted to 8-bit gray by
+	 * {@link GrayscaleReader}, in the same way as images are by {@link FastSauvola}.
+	 *
+	 * @param reader A reader whose input has been set.
+	 * @param imageIndex The index of the image to read.
+	 * @param sink The sink to pass the binarized rows to.
+	 * @return The number of foreground pixels.
+	 * @throws IOException If the image cannot be read.
+	 */
+	public long process(ImageReader reader, int imageIndex, ScanlineSink sink) throws IOException {
+		ImageStrips strips = new ImageStrips(reader, imageIndex);
+		int w = strips.getWidth();
+		int h = strips.getHeight();
+
+		Session session = open(w, h, sink);
+		int[] row = new int[w];
+		while (strips.hasNext()) {
+			GrayscaleReader gray = GrayscaleReader.create(GrayscaleReader.toGray(strips.next()));
+			for (int r = 0; r < strips.getRows(); r++) {
+				gray.readRow(r, row, 0);
+				session.push(row);
+			}
+		}
+
+		return session.getForegroundPixelCount();
+	}
+
+	/**
+	 * The state associated with binarizing a single image. Rows are supplied in order using
+	 * {@link #push(int[])}. Sessions are not thread-safe.
+	 */
+	public final class Session
+	{
+		private final int width;
+		private final int height;
+		private final ScanlineSink sink;
+
+		private final int whalf = StreamingSauvola.this.whalf;
+		private final double k = StreamingSauvola.this.k;
+		private final int range = StreamingSauvola.this.range;
+
+		private final int[][] ring;			// source rows [lo, hi], row y is stored at y % ring.length
+		private final long[] colSum;		// per column sum of source rows [lo, hi]
+		private final long[] colSumSq;		// per column sum of squared source rows [lo, hi]
+		private final long[] prefix;		// prefix sums of colSum along the row being emitted
+		private final long[] prefixSq;		// prefix sums of colSumSq along the row being emitted
+		private final int[] output;
+
+		private int lo = 0;					// first row included in the column sums
+		private int hi = -1;				// last row included in the column sums
+		private int next = 0;				// next row to emit
+		private long ct = 0;
+
+		private Session(int width, int height, ScanlineSink sink) {
+			this.width = width;
+			this.height = height;
+			this.sink = sink;
+
+			ring = new int[Math.min(height, 2 * whalf + 1)][width];
+			colSum = new long[width];
+			colSumSq = new long[width];
+			prefix = new long[width + 1];
+			prefixSq = new long[width + 1];
+			output = new int[width];
+		}
+
+		/**
+		 * Supplies the next row of the image. Any rows that can be binarized once this row
+		 * is available are passed to the sink before this method returns.
+		 *
+		 * @param row The grayscale values of the row. Only the first <code>width</code>
+		 * 		values are read and the array is not retained.
+		 */
+		public void push(int[] row) {
+			int y = hi + 1;
+			if (y >= height)
+				throw new IllegalStateException("All " + height + " rows have already been supplied");
+
+			// the row this one replaces in the ring is no longer needed by any future window
+			dropRowsBefore(y - 2 * whalf);
+
+			int[] slot = ring[y % ring.length];
+			System.arraycopy(row, 0, slot, 0, width);
+			for (int x = 0; x < width; x++) {
+				int s = slot[x];
+				colSum[x] += s;
+				colSumSq[x] += (long)s * s;
+			}
+			hi = y;
+
+			while (next <= y - whalf)
+				emit(next++);
+
+			if (y == height - 1) {
+				while (next < height)
+					emit(next++);
+			}
+		}
+
+		/**
+		 * @return <code>true</code> if all rows of the image have been supplied and emitted.
+		 */
+		public boolean isComplete() {
+			return next == height;
+		}
+
+		/**
+		 * @return The number of foreground pixels in the rows emitted so far.
+		 */
+		public long getForegroundPixelCount() {
+			return ct;
+		}
+
+		private void dropRowsBefore(int row) {
+			while (lo < row) {
+				int[] slot = ring[lo % ring.length];
+				for (int x = 0; x < width; x++) {
+					int s = slot[x];
+					colSum[x] -= s;
+					colSumSq[x] -= (long)s * s;
+				}
+				lo++;
+			}
+		}
+
+		private void emit(int y) {
+			dropRowsBefore(y - whalf);
+
+			for (int x = 0; x < width; x++) {
+				prefix[x + 1] = prefix[x] + colSum[x];
+				prefixSq[x + 1] = prefixSq[x] + colSumSq[x];
+			}
+
+			int rows = hi - lo + 1;
+			int[] data = ring[y % ring.length];
+			double mean, stddev, threshold;
+			for (int x = 0; x < width; x++) {
+				int xmin = Math.max(0, x - whalf);
+				int xmax = Math.min(width - 1, x + whalf);
+
+				double diff = prefix[xmax + 1] - prefix[xmin];
+				double sqdiff = prefixSq[xmax + 1] - prefixSq[xmin];
+
+				double area = (xmax - xmin + 1) * rows;
+				mean = diff / area;
+				stddev = Math.sqrt((sqdiff - (diff * diff) / area) / (area - 1));
+
+				threshold = mean * (1 + k * ((stddev / range) - 1));
+				if (data[x] > threshold) {
+					output[x] = bgPx;
+				} else {
+					output[x] = fgPx;
+					ct++;
+				}
+			}
+
+			sink.accept(y, output);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package org.dharts.dia.threshold;
+
+/**
+ * Computes the threshold for a pixel from the statistics of the window centered on it. Used
+ * by {@link LocalThresholder}, which computes the window statistics from an integral image
+ * and classifies each pixel whose gray level is less than or equal to the threshold as
+ * foreground.
+ *
+ * <p>
+ * Functions declare which statistics they need so that the engine can avoid computing the
+ * others. A function that does not require the variance is passed <code>NaN</code> as the
+ * standard deviation, and the table of squared values is not built for it. A function that
+ * requires {@link ImageStatistics} is {@link #bind(ImageStatistics) bound} to the statistics
+ * of each image before it is applied.
+ *
+ * <p>
+ * Implementations must be immutable so that they may be shared between threads.
+ */
+public abstract class ThresholdFunction
+{
+	/**
+	 * Creates the function described by Sauvola and Pietikäinen:
+	 * <code>T = m * (1 + k * (s / R - 1))</code>. For the same parameters, this gives the same
+	 * results as {@link FastSauvola}.
+	 *
+	 * @param k The weight of the standard deviation. Typically 0.2 to 0.5.
+	 * @param range The dynamic range of the standard deviation, <code>R</code>. Typically 128.
+	 * @return The threshold function.
+	 */
+	public static ThresholdFunction sauvola(double k, double range)
+	{
+		return new Sauvola(k, range);
+	}
+
+	/**
+	 * Creates the function described by Niblack: <code>T = m + k * s</code>.
+	 *
+	 * @param k The weight of the standard deviation. Typically -0.2 for dark text on a light
+	 * 		background.
+	 * @return The threshold function.
+	 */
+	public static ThresholdFunction niblack(double k)
+	{
+		return new Niblack(k);
+	}
+
+	/**
+	 * Creates the function described by Wolf and Jolion:
+	 * <code>T = (1 - k) * m + k * M + k * (s / R) * (m - M)</code>, where <code>M</code> is the
+	 * minimum gray level of the image and <code>R</code> is the largest window standard
+	 * deviation in the image. This requires an additional pass over the image to find
+	 * <code>R</code>.
+	 *
+	 * @param k The weight of the normalized contrast. Typically 0.5.
+	 * @return The threshold function.
+	 */
+	public static ThresholdFunction wolf(double k)
+	{
+		return new Wolf(k, 0, 0);
+	}
+
+	/**
+	 * Creates the NICK function described by Khurshid et al.:
+	 * <code>T = m + k * sqrt(v + m * m)</code>, where <code>v</code> is the window variance,
+	 * so that <code>v + m * m</code> is the mean of the squared gray levels of the window.
+	 *
+	 * @param k The weight of the square root term. Typically -0.1 to -0.2.
+	 * @return The threshold function.
+	 */
+	public static ThresholdFunction nick(double k)
+	{
+		return new Nick(k);
+	}
+
+	/**
+	 * Creates the function described by Bradley and Roth: <code>T = m * (1 - t)</code>. This
+	 * uses only the window mean, so the table of squared values is not built.
+	 *
+	 * @param t The fraction by which a pixel must be darker than the window mean to be
+	 * 		classified as foreground. Typically 0.15.
+	 * @return The threshold function.
+	 */
+	public static ThresholdFunction bradley(double t)
+	{
+		return new Bradley(t);
+	}
+
+	/**
+	 * @return <code>true</code> if this function uses the window standard deviation.
+	 */
+	public boolean requiresVariance()
+	{
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if this function must be bound to the statistics of an image
+	 * 		before it is applied.
+	 */
+	public boolean requiresImageStatistics()
+	{
+		return false;
+	}
+
+	/**
+	 * Returns a function configured for an image with the supplied statistics. Called once
+	 * per image for functions that {@link #requiresImageStatistics()}.
+	 *
+	 * @param stats The statistics of the image.
+	 * @return The bound function. By default, this function.
+	 */
+	public ThresholdFunction bind(ImageStatistics stats)
+	{
+		return this;
+	}
+
+	/**
+	 * Computes the threshold for a pixel.
+	 *
+	 * @param mean The mean gray level of the window centered on the pixel.
+	 * @param stddev The (sample) standard deviation of the gray levels of the window, or
+	 * 		<code>NaN</code> if this function does not {@link #requiresVariance() require} it.
+	 * @return The threshold. Pixels whose gray level is less than or equal to this are
+	 * 		foreground.
+	 */
+	public abstract double threshold(double mean, double stddev);
+
+	/**
+	 * Global statistics of an image, supplied to functions that
+	 * {@link ThresholdFunction#requiresImageStatistics() require} them.
+	 */
+	public static final class ImageStatistics
+	{
+		private final int minGray;
+		private final int maxGray;
+		private final double maxStdDev;
+
+		public ImageStatistics(int minGray, int maxGray, double maxStdDev)
+		{
+			this.minGray = minGray;
+			this.maxGray = maxGray;
+			this.maxStdDev = maxStdDev;
+		}
+
+		/** @return The smallest gray level in the image. */
+		public int getMinGray()
+		{
+			return minGray;
+		}
+
+		/** @return The largest gray level in the image. */
+		public int getMaxGray()
+		{
+			return maxGray;
+		}
+
+		/** @return The largest standard deviation of any window in the image. */
+		public double getMaxStdDev()
+		{
+			return maxStdDev;
+		}
+	}
+
+	private static final class Sauvola extends ThresholdFunction
+	{
+		private final double k;
+		private final double range;
+
+		Sauvola(double k, double range)
+		{
+			this.k = k;
+			this.range = range;
+		}
+
+		@Override
+		public double threshold(double mean, double stddev)
+		{
+			return mean * (1 + k * ((stddev / range) - 1));
+		}
+	}
+
+	private static final class Niblack extends ThresholdFunction
+	{
+		private final double k;
+
+		Niblack(double k)
+		{
+			this.k = k;
+		}
+
+		@Override
+		public double threshold(double mean, double stddev)
+		{
+			return mean + k * stddev;
+		}
+	}
+
+	private static final class Wolf extends ThresholdFunction
+	{
+		private final double k;
+		private final double minGray;
+		private final double maxStdDev;
+
+		Wolf(double k, double minGray, double maxStdDev)
+		{
+			this.k = k;
+			this.minGray = minGray;
+			this.maxStdDev = maxStdDev;
+		}
+
+		@Override
+		public boolean requiresImageStatistics()
+		{
+			return true;
+		}
+
+		@Override
+		public ThresholdFunction bind(ImageStatistics stats)
+		{
+			return new Wolf(k, stats.getMinGray(), stats.getMaxStdDev());
+		}
+
+		@Override
+		public double threshold(double mean, double stddev)
+		{
+			// a flat image has no contrast to normalize
+			double contrast = maxStdDev > 0 ? stddev / maxStdDev : 0;
+			return (1 - k) * mean + k * minGray + k * contrast * (mean - minGray);
+		}
+	}
+
+	private static final class Nick extends ThresholdFunction
+	{
+		private final double k;
+
+		Nick(double k)
+		{
+			this.k = k;
+		}
+
+		@Override
+		public double threshold(double mean, double stddev)
+		{
+			return mean + k * Math.sqrt(stddev * stddev + mean * mean);
+		}
+	}
+
+	private static final class Bradley extends ThresholdFunction
+	{
+		private final double t;
+
+		Bradley(double t)
+		{
+			this.t = t;
+		}
+
+		@Override
+		public boolean requiresVariance()
+		{
+			return false;
+		}
+
+		@Override
+		public double threshold(double mean, double stddev)
+		{
+			return mean * (1 - t);
+		}
+	}
+}
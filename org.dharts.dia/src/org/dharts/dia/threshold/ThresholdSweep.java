@@ -0,0 +1,245 @@
+package org.dharts.dia.threshold;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.ImageWrapper;
+import org.dharts.dia.util.IntegralImage;
+import org.dharts.dia.util.RowBands;
+
+/**
+ * Evaluates Sauvola thresholding for a grid of <code>(k, ts)</code> parameter values in a
+ * single pass over an image. This is intended for tuning the parameters for a collection:
+ * rather than running {@link FastSauvola} once per combination, the grayscale conversion and
+ * integral image are computed once, the window statistics are computed once per row for
+ * each distinct window size, and each value of <code>k</code> then costs only a comparison
+ * per pixel.
+ *
+ * <p>
+ * For every grid point, the result is identical to that of a {@link FastSauvola} configured
+ * with the same <code>k</code> and <code>ts</code>. Results may include the binarized image
+ * or, to save memory, only the number of foreground pixels.
+ *
+ * <p>
+ * Instances hold no per-image state and may be used from multiple threads.
+ */
+public class ThresholdSweep
+{
+	private final ExecutorService ex;
+	private final int range;
+
+	/**
+	 * Creates a sweep that schedules its work on the
+	 * {@link FastSauvola#getSharedExecutor() shared executor} and uses the default dynamic
+	 * range of 128.
+	 */
+	public ThresholdSweep() {
+		this(FastSauvola.getSharedExecutor(), 128);
+	}
+
+	/**
+	 * @param ex The executor to use to process images. This will not be shut down.
+	 * @param range The dynamic range of the standard deviation.
+	 */
+	public ThresholdSweep(ExecutorService ex, int range) {
+		this.ex = RowBands.requireExecutor(ex);
+		this.range = range;
+	}
+
+	/**
+	 * Evaluates every combination of the supplied parameter values.
+	 *
+	 * @param image The image to binarize. This image will not be modified.
+	 * @param k The values of <code>k</code> to evaluate.
+	 * @param ts The window sizes to evaluate. As for {@link FastSauvola}, the window centered
+	 * 		on a pixel extends <code>ts / 2</code> pixels in each direction.
+	 * @param keepImages Whether to retain the binarized image for each grid point. If
+	 * 		<code>false</code>, only the foreground counts are computed.
+	 * @return One result for each combination, ordered by window size and then by
+	 * 		<code>k</code>, in the order the values were supplied.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	public List<Result> run(BufferedImage image, double[] k, int[] ts, boolean keepImages)
+			throws InterruptedException {
+		return run(ImageWrapper.wrapGray(image, true, ex), k, ts, keepImages);
+	}
+
+	/**
+	 * Evaluates every combination of the supplied parameter values.
+	 *
+	 * @param image The grayscale image to binarize.
+	 * @see #run(BufferedImage, double[], int[], boolean)
+	 */
+	public List<Result> run(ImageWrapper image, double[] k, int[] ts, boolean keepImages)
+			throws InterruptedException {
+		image.load();
+		IntegralImage integral = image.getIntegralImage();
+		int width = integral.getWidth();
+		int height = integral.getHeight();
+
+		List<Result> results = new ArrayList<>(k.length * ts.length);
+		for (int w = 0; w < ts.length; w++) {
+			if (ts[w] < 0)
+				throw new IllegalArgumentException("Invalid value for 'ts' (" + ts[w] + "). Must be a positive number.");
+
+			for (int i = 0; i < k.length; i++) {
+				BinaryImage output = keepImages ? new BinaryImage(width, height) : null;
+				results.add(new Result(k[i], ts[w], output));
+			}
+		}
+
+		int bandHeight = RowBands.defaultHeight(width, height, RowBands.INTEGRAL_BYTES_PER_PIXEL, ex);
+
+		List<BandProcessor> tasks = new ArrayList<>(height / bandHeight + 1);
+		for (int row = 0; row < height; row += bandHeight) {
+			tasks.add(new BandProcessor(integral, image.getRaster(), k, ts, range, results,
+					row, Math.min(height, row + bandHeight)));
+		}
+
+		long[] counts = new long[results.size()];
+		for (long[] band : RowBands.invokeAll(ex, tasks)) {
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += band[i];
+		}
+
+		for (int i = 0; i < counts.length; i++)
+			results.get(i).count = counts[i];
+
+		return results;
+	}
+
+	/**
+	 * The outcome of thresholding an image with one combination of parameters.
+	 */
+	public static final class Result
+	{
+		private final double k;
+		private final int ts;
+		private final BinaryImage image;
+		private long count;
+
+		private Result(double k, int ts, BinaryImage image)
+		{
+			this.k = k;
+			this.ts = ts;
+			this.image = image;
+		}
+
+		public double getK()
+		{
+			return k;
+		}
+
+		public int getWindowSize()
+		{
+			return ts;
+		}
+
+		/**
+		 * @return The number of foreground pixels.
+		 */
+		public long getForegroundPixelCount()
+		{
+			return count;
+		}
+
+		/**
+		 * @return The binarized image, or <code>null</code> if images were not retained.
+		 */
+		public BinaryImage getImage()
+		{
+			return image;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "k=" + k + ", ts=" + ts + ": " + count + " foreground pixels";
+		}
+	}
+
+	/**
+	 * Evaluates every grid point for a horizontal band of rows. Returns the number of
+	 * foreground pixels found for each grid point.
+	 */
+	private static final class BandProcessor implements Callable<long[]> {
+		private final IntegralImage iImage;
+		private final int[] data;
+		private final double[] k;
+		private final int[] ts;
+		private final int range;
+		private final List<Result> results;
+		private final int startRow;
+		private final int endRow;
+
+		private BandProcessor(IntegralImage iImage, int[] data, double[] k, int[] ts, int range,
+				List<Result> results, int startRow, int endRow) {
+			this.iImage = iImage;
+			this.data = data;
+			this.k = k;
+			this.ts = ts;
+			this.range = range;
+			this.results = results;
+			this.startRow = startRow;
+			this.endRow = endRow;
+		}
+
+		@Override
+		public long[] call() {
+			final int width = iImage.getWidth();
+			final int nk = k.length;
+			long[] counts = new long[results.size()];
+
+			// statistics for the current row and window size, and the thresholds for one point
+			double[] mean = new double[width];
+			double[] stddev = new double[width];
+			double[] thresholds = new double[width];
+			boolean[] sameWindow = new boolean[ts.length];
+			for (int w = 1; w < ts.length; w++)
+				sameWindow[w] = ts[w] / 2 == ts[w - 1] / 2;
+
+			int offset = startRow * width;
+			for (int rowIx = startRow; rowIx < endRow; rowIx++) {
+				for (int w = 0; w < ts.length; w++) {
+					// consecutive equivalent window sizes reuse the statistics of the previous one
+					if (!sameWindow[w])
+						iImage.getRowStatistics(rowIx, ts[w] / 2, mean, stddev);
+
+					for (int i = 0; i < nk; i++) {
+						int point = w * nk + i;
+						for (int colIx = 0; colIx < width; colIx++)
+							thresholds[colIx] = mean[colIx] * (1 + k[i] * ((stddev[colIx] / range) - 1));
+
+						counts[point] += threshold(thresholds, offset, width, results.get(point).image, rowIx);
+					}
+				}
+
+				offset += width;
+			}
+
+			return counts;
+		}
+
+		/**
+		 * Thresholds one row, writing it to the image if one is kept, and returns the number
+		 * of foreground pixels. Uses the same arithmetic as <code>FastSauvola</code>.
+		 */
+		private int threshold(double[] thresholds, int offset, int width, BinaryImage image, int rowIx) {
+			if (image != null)
+				return image.setRow(rowIx, data, offset, thresholds);
+
+			int count = 0;
+			for (int colIx = 0; colIx < width; colIx++) {
+				if (!(data[offset + colIx] > thresholds[colIx]))
+					count++;
+			}
+
+			return count;
+		}
+	}
+}
@@ -110,8 +110,9 @@ public interface Thresholder extends Callable<int[]> {
      * this algorithm. If this algorithm has not yet completed, this will
      * throw a <code>NotReadyException</code>.
      *
-     * @return The thresholded image. This image will have values pixel values
-     *      of either 0 or 255.
+     * @return The thresholded image. This image will have only black and white
+     *      pixels. Implementations may return a <code>TYPE_BYTE_BINARY</code>
+     *      image, whose samples are 0 (black) or 1 (white).
      *
      * @throws IllegalStateException If the algorithm has not yet finished execution.
      */
@@ -0,0 +1,188 @@
+package org.dharts.dia.threshold;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.dharts.dia.util.BinaryImage;
+import org.dharts.dia.util.ImageWrapper;
+import org.dharts.dia.util.IntegralImage;
+import org.dharts.dia.util.RowBands;
+
+/**
+ * The gray level of every pixel of an image together with the mean and standard deviation of
+ * the window centered on it, for a single window size. Once computed, the image can be
+ * re-thresholded with any <code>k</code> and <code>range</code> in a single compare pass,
+ * without the integral image. Instances are normally held in a {@link StatisticsCache}.
+ *
+ * <p>
+ * The statistics are stored as <code>float</code>s, which requires 10 bytes per pixel rather
+ * than the 24 bytes of the raster and integral image. Since they are rounded, pixels whose
+ * gray level lies within the rounding error of the threshold computed from the exact
+ * statistics may be classified differently than by {@link FastSauvola}. In practice this
+ * affects a handful of pixels per page, if any.
+ *
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public final class WindowStatistics
+{
+	// gray level, mean and standard deviation read for each pixel of a band
+	private static final int BYTES_PER_PIXEL = 2 + 4 + 4;
+
+	/**
+	 * Computes the window statistics for an image.
+	 *
+	 * @param image The image.
+	 * @param whalf Half the window size.
+	 * @param ex The executor to compute the statistics on, in parallel bands.
+	 * @return The statistics.
+	 * @throws InterruptedException If interrupted while waiting for the statistics.
+	 */
+	public static WindowStatistics compute(ImageWrapper image, int whalf, ExecutorService ex)
+			throws InterruptedException
+	{
+		image.load();
+		final IntegralImage iImage = image.getIntegralImage();
+		final int[] data = image.getRaster();
+		final WindowStatistics stats = new WindowStatistics(iImage.getWidth(), iImage.getHeight(), whalf);
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (final int[] band : stats.bands(ex)) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					stats.fill(iImage, data, band[0], band[1]);
+					return null;
+				}
+			});
+		}
+
+		RowBands.invokeAll(ex, tasks);
+		return stats;
+	}
+
+	private final int width;
+	private final int height;
+	private final int whalf;
+
+	private final short[] gray;
+	private final float[] mean;
+	private final float[] stddev;
+
+	private WindowStatistics(int width, int height, int whalf)
+	{
+		this.width = width;
+		this.height = height;
+		this.whalf = whalf;
+
+		gray = new short[width * height];
+		mean = new float[width * height];
+		stddev = new float[width * height];
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * @return Half the size of the window the statistics were computed for.
+	 */
+	public int getWindowHalfSize()
+	{
+		return whalf;
+	}
+
+	/**
+	 * @return The approximate number of bytes used by these statistics.
+	 */
+	public long getFootprint()
+	{
+		return (long)BYTES_PER_PIXEL * width * height;
+	}
+
+	/**
+	 * Binarizes the image with the Sauvola threshold
+	 * <code>mean * (1 + k * ((stddev / range) - 1))</code>.
+	 *
+	 * @param k The weight of the standard deviation.
+	 * @param range The dynamic range of the standard deviation.
+	 * @param ex The executor to run the compare pass on, in parallel bands.
+	 * @return The binarized image.
+	 * @throws InterruptedException If interrupted while waiting for the image to be
+	 * 		processed.
+	 */
+	public BinaryImage threshold(final double k, final int range, ExecutorService ex)
+			throws InterruptedException
+	{
+		final BinaryImage output = new BinaryImage(width, height);
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (final int[] band : bands(ex)) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					threshold(k, range, output, band[0], band[1]);
+					return null;
+				}
+			});
+		}
+
+		RowBands.invokeAll(ex, tasks);
+		return output;
+	}
+
+	private List<int[]> bands(ExecutorService ex)
+	{
+		int bandHeight = RowBands.defaultHeight(width, height, BYTES_PER_PIXEL, ex);
+
+		List<int[]> bands = new ArrayList<>(height / bandHeight + 1);
+		for (int row = 0; row < height; row += bandHeight)
+			bands.add(new int[] { row, Math.min(height, row + bandHeight) });
+
+		return bands;
+	}
+
+	private void fill(IntegralImage iImage, int[] data, int startRow, int endRow)
+	{
+		double[] rowMean = new double[width];
+		double[] rowStddev = new double[width];
+
+		int offset = startRow * width;
+		for (int rowIx = startRow; rowIx < endRow; rowIx++) {
+			iImage.getRowStatistics(rowIx, whalf, rowMean, rowStddev);
+			for (int colIx = 0; colIx < width; colIx++) {
+				gray[offset + colIx] = (short)data[offset + colIx];
+				mean[offset + colIx] = (float)rowMean[colIx];
+				stddev[offset + colIx] = (float)rowStddev[colIx];
+			}
+
+			offset += width;
+		}
+	}
+
+	private void threshold(double k, int range, BinaryImage output, int startRow, int endRow)
+	{
+		int[] row = new int[width];
+		double[] thresholds = new double[width];
+
+		int offset = startRow * width;
+		for (int rowIx = startRow; rowIx < endRow; rowIx++) {
+			for (int colIx = 0; colIx < width; colIx++) {
+				int ix = offset + colIx;
+				row[colIx] = gray[ix] & 0xFFFF;
+				thresholds[colIx] = mean[ix] * (1 + k * (((double)stddev[ix] / range) - 1));
+			}
+
+			output.setRow(rowIx, row, 0, thresholds);
+			offset += width;
+		}
+	}
+}
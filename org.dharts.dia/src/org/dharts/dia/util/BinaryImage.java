@@ -0,0 +1,547 @@
+package org.dharts.dia.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.util.Arrays;
+
+/**
+ * A binary image that packs 64 pixels into each <code>long</code>. Each row starts on a new
+ * word, so rows may be read and written independently. Within a row, pixel <code>x</code>
+ * is stored in bit <code>x % 64</code> (counting from the least significant bit) of word
+ * <code>x / 64</code>. Foreground pixels are represented by set bits. Bits beyond the width
+ * of the image in the last word of each row are always zero.
+ *
+ * <p>
+ * Compared to an <code>int[]</code> with one element per pixel, this requires 1/32 of the
+ * memory and allows many operations to process 64 pixels at a time.
+ */
+public final class BinaryImage
+{
+	/**
+	 * Creates a binary image from a raster-order array of pixels. Non-zero values are
+	 * treated as foreground.
+	 *
+	 * @param pixels The pixel values.
+	 * @param w The width of the image.
+	 * @param h The height of the image.
+	 * @return The binary image.
+	 */
+	public static BinaryImage fromArray(int[] pixels, int w, int h)
+	{
+		BinaryImage image = new BinaryImage(w, h);
+		long[] words = image.words;
+		int offset = 0;
+		for (int y = 0; y < h; y++)
+		{
+			int wordIx = y * image.stride;
+			for (int x = 0; x < w; x++)
+			{
+				if (pixels[offset + x] != 0)
+					words[wordIx + (x >>> 6)] |= 1L << x;
+			}
+
+			offset += w;
+		}
+
+		return image;
+	}
+
+	/**
+	 * Creates a binary image from a <code>BufferedImage</code>. Bilevel images with one bit
+	 * per pixel, such as <code>TYPE_BYTE_BINARY</code> images, are converted a byte at a
+	 * time, with the darker of the two colors as foreground. Other images are converted to
+	 * 8-bit gray as by {@link GrayscaleReader#toGray(BufferedImage)} and pixels whose gray
+	 * level is less than 128 are treated as foreground.
+	 *
+	 * @param image The image to convert.
+	 * @return The binary image.
+	 */
+	public static BinaryImage fromBufferedImage(BufferedImage image)
+	{
+		BinaryImage result = new BinaryImage(image.getWidth(), image.getHeight());
+		if (!result.readPacked(image))
+			result.readGray(image);
+
+		return result;
+	}
+
+	private final int width;
+	private final int height;
+	private final int stride;		// words per row
+	private final long[] words;
+
+	/**
+	 * Creates a new binary image in which all pixels are background.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 */
+	public BinaryImage(int width, int height)
+	{
+		if (width < 0 || height < 0)
+			throw new IllegalArgumentException("Invalid image size (" + width + " x " + height + ")");
+
+		this.width = width;
+		this.height = height;
+		this.stride = (width + 63) >>> 6;
+		this.words = new long[stride * height];
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * @return The number of words used to store each row.
+	 */
+	public int getWordsPerRow()
+	{
+		return stride;
+	}
+
+	/**
+	 * Returns the array that backs this image. Row <code>y</code> occupies the
+	 * {@link #getWordsPerRow()} words starting at {@link #getRowOffset(int)}. Changes made
+	 * to the returned array are reflected in this image. Bits beyond the width of the image
+	 * must be left clear.
+	 *
+	 * @return The backing array.
+	 */
+	public long[] getWords()
+	{
+		return words;
+	}
+
+	/**
+	 * @param y A row index.
+	 * @return The index in {@link #getWords()} of the first word of the row.
+	 */
+	public int getRowOffset(int y)
+	{
+		return y * stride;
+	}
+
+	/**
+	 * @return A mask of the bits of the last word of each row that correspond to pixels.
+	 */
+	public long getLastWordMask()
+	{
+		int rem = width & 63;
+		return rem == 0 ? -1L : (1L << rem) - 1;
+	}
+
+	public boolean get(int x, int y)
+	{
+		return (words[y * stride + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	public void set(int x, int y, boolean foreground)
+	{
+		int ix = y * stride + (x >>> 6);
+		if (foreground)
+			words[ix] |= 1L << x;
+		else
+			words[ix] &= ~(1L << x);
+	}
+
+	/**
+	 * @param y A row index.
+	 * @param wordIx The index of the word within the row.
+	 * @return The 64 pixels starting at <code>x = 64 * wordIx</code>.
+	 */
+	public long getWord(int y, int wordIx)
+	{
+		return words[y * stride + wordIx];
+	}
+
+	/**
+	 * Sets 64 pixels of a row at once. Bits beyond the width of the image are ignored.
+	 *
+	 * @param y A row index.
+	 * @param wordIx The index of the word within the row.
+	 * @param value The pixels starting at <code>x = 64 * wordIx</code>.
+	 */
+	public void setWord(int y, int wordIx, long value)
+	{
+		if (wordIx == stride - 1)
+			value &= getLastWordMask();
+
+		words[y * stride + wordIx] = value;
+	}
+
+	/**
+	 * Sets a row from gray levels and per-pixel thresholds. A pixel is foreground unless its
+	 * gray level is greater than its threshold, which is the rule used by all of the
+	 * thresholders of this bundle. Pixels whose threshold is NaN are therefore foreground.
+	 *
+	 * @param y A row index.
+	 * @param gray The gray levels of the row, starting at <code>offset</code>.
+	 * @param offset The index in <code>gray</code> of the first pixel of the row.
+	 * @param thresholds The thresholds of the pixels of the row, starting at index 0.
+	 * @return The number of foreground pixels in the row.
+	 */
+	public int setRow(int y, int[] gray, int offset, double[] thresholds)
+	{
+		int count = 0;
+		int wordIx = y * stride;
+		long word = 0;
+		for (int x = 0; x < width; x++)
+		{
+			if (!(gray[offset + x] > thresholds[x]))
+				word |= 1L << x;
+
+			if ((x & 63) == 63) {
+				count += Long.bitCount(word);
+				words[wordIx++] = word;
+				word = 0;
+			}
+		}
+
+		if ((width & 63) != 0) {
+			count += Long.bitCount(word);
+			words[wordIx] = word;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @param y A row index.
+	 * @return The number of foreground pixels in the row.
+	 */
+	public int countRow(int y)
+	{
+		int count = 0;
+		int end = (y + 1) * stride;
+		for (int i = y * stride; i < end; i++)
+			count += Long.bitCount(words[i]);
+
+		return count;
+	}
+
+	/**
+	 * @param counts An array of at least {@link #getHeight()} elements to store the results
+	 * 		in, or <code>null</code> to allocate one.
+	 * @return The number of foreground pixels in each row.
+	 */
+	public int[] countRows(int[] counts)
+	{
+		if (counts == null)
+			counts = new int[height];
+
+		for (int y = 0; y < height; y++)
+			counts[y] = countRow(y);
+
+		return counts;
+	}
+
+	/**
+	 * Counts the foreground pixels in each column. The cost of this is proportional to the
+	 * number of foreground pixels, since only the set bits of each word are visited.
+	 *
+	 * @param counts An array of at least {@link #getWidth()} elements to store the results
+	 * 		in, or <code>null</code> to allocate one.
+	 * @return The number of foreground pixels in each column.
+	 */
+	public int[] countColumns(int[] counts)
+	{
+		if (counts == null)
+			counts = new int[width];
+		else
+			Arrays.fill(counts, 0, width, 0);
+
+		for (int y = 0; y < height; y++)
+		{
+			int base = y * stride;
+			for (int wordIx = 0; wordIx < stride; wordIx++)
+			{
+				long word = words[base + wordIx];
+				int x0 = wordIx << 6;
+				while (word != 0)
+				{
+					counts[x0 + Long.numberOfTrailingZeros(word)]++;
+					word &= word - 1;
+				}
+			}
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Finds the runs of foreground pixels in a row. Runs are located 64 pixels at a time
+	 * using <code>Long.numberOfTrailingZeros</code>, so the cost depends on the number of
+	 * runs and words rather than on the width of the row.
+	 *
+	 * @param y A row index.
+	 * @param runs An array to store the runs in, as pairs of the first column of a run and the
+	 * 		column after its last. A row has at most <code>(width + 1) / 2</code> runs, so an
+	 * 		array of <code>width + 1</code> elements is always sufficient.
+	 * @return The number of runs.
+	 */
+	public int getRuns(int y, int[] runs)
+	{
+		int count = 0;
+		int base = y * stride;
+		int wordIx = 0;
+		long word = stride > 0 ? words[base] : 0;
+		while (true)
+		{
+			while (word == 0 && ++wordIx < stride)
+				word = words[base + wordIx];
+			if (word == 0)
+				break;
+
+			int from = (wordIx << 6) + Long.numberOfTrailingZeros(word);
+
+			// the run ends at the first background pixel after its start
+			long gaps = ~word & (-1L << Long.numberOfTrailingZeros(word));
+			while (gaps == 0 && ++wordIx < stride)
+				gaps = ~words[base + wordIx];
+
+			int to;
+			if (gaps == 0) {
+				to = stride << 6;
+				word = 0;
+			} else {
+				int bit = Long.numberOfTrailingZeros(gaps);
+				to = (wordIx << 6) + bit;
+				word = words[base + wordIx] & (-1L << bit);
+			}
+
+			runs[count * 2] = from;
+			runs[count * 2 + 1] = to;
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return A copy of this image.
+	 */
+	public BinaryImage copy()
+	{
+		BinaryImage result = new BinaryImage(width, height);
+		System.arraycopy(words, 0, result.words, 0, words.length);
+		return result;
+	}
+
+	/**
+	 * @param other An image of the same size.
+	 * @return A new image in which the pixels that are foreground in both images are
+	 * 		foreground.
+	 */
+	public BinaryImage and(BinaryImage other)
+	{
+		long[] a = words;
+		long[] b = checkSize(other).words;
+		BinaryImage result = new BinaryImage(width, height);
+		long[] r = result.words;
+		for (int i = 0; i < r.length; i++)
+			r[i] = a[i] & b[i];
+
+		return result;
+	}
+
+	/**
+	 * @param other An image of the same size.
+	 * @return A new image in which the pixels that are foreground in either image are
+	 * 		foreground.
+	 */
+	public BinaryImage or(BinaryImage other)
+	{
+		long[] a = words;
+		long[] b = checkSize(other).words;
+		BinaryImage result = new BinaryImage(width, height);
+		long[] r = result.words;
+		for (int i = 0; i < r.length; i++)
+			r[i] = a[i] | b[i];
+
+		return result;
+	}
+
+	/**
+	 * @param other An image of the same size.
+	 * @return A new image in which the pixels that are foreground in exactly one of the
+	 * 		images are foreground.
+	 */
+	public BinaryImage xor(BinaryImage other)
+	{
+		long[] a = words;
+		long[] b = checkSize(other).words;
+		BinaryImage result = new BinaryImage(width, height);
+		long[] r = result.words;
+		for (int i = 0; i < r.length; i++)
+			r[i] = a[i] ^ b[i];
+
+		return result;
+	}
+
+	/**
+	 * @return A new image in which foreground and background are exchanged.
+	 */
+	public BinaryImage not()
+	{
+		BinaryImage result = new BinaryImage(width, height);
+		if (stride == 0)
+			return result;
+
+		long[] r = result.words;
+		long mask = getLastWordMask();
+		for (int y = 0; y < height; y++)
+		{
+			int base = y * stride;
+			for (int i = base; i < base + stride; i++)
+				r[i] = ~words[i];
+
+			r[base + stride - 1] &= mask;
+		}
+
+		return result;
+	}
+
+	private BinaryImage checkSize(BinaryImage other)
+	{
+		if (other.width != width || other.height != height)
+			throw new IllegalArgumentException("Image sizes differ (" + width + " x " + height
+					+ " and " + other.width + " x " + other.height + ")");
+
+		return other;
+	}
+
+	/**
+	 * @return The number of foreground pixels in the image.
+	 */
+	public long countForeground()
+	{
+		long count = 0;
+		for (long word : words)
+			count += Long.bitCount(word);
+
+		return count;
+	}
+
+	/**
+	 * @return The pixels of this image as a raster-order array in which foreground pixels
+	 * 		are <code>1</code> and background pixels are <code>0</code>.
+	 */
+	public int[] toArray()
+	{
+		int[] pixels = new int[width * height];
+		int offset = 0;
+		for (int y = 0; y < height; y++)
+		{
+			int wordIx = y * stride;
+			for (int x = 0; x < width; x++)
+			{
+				pixels[offset + x] = (int)(words[wordIx + (x >>> 6)] >>> x) & 1;
+			}
+
+			offset += width;
+		}
+
+		return pixels;
+	}
+
+	/**
+	 * Converts this image to a <code>TYPE_BYTE_BINARY</code> image in which foreground pixels
+	 * are black and background pixels are white.
+	 *
+	 * @return The converted image.
+	 */
+	public BufferedImage toBufferedImage()
+	{
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+		byte[] bytes = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+
+		// TYPE_BYTE_BINARY stores the leftmost pixel of each byte in its most significant
+		// bit and uses 1 for white, so bytes are bit reversed and inverted.
+		int bytesPerRow = (width + 7) >>> 3;
+		for (int y = 0; y < height; y++)
+		{
+			int wordIx = y * stride;
+			int byteIx = y * bytesPerRow;
+			for (int b = 0; b < bytesPerRow; b++)
+			{
+				int bits = (int)(words[wordIx + (b >>> 3)] >>> ((b & 7) << 3)) & 0xFF;
+				bytes[byteIx + b] = (byte)~(Integer.reverse(bits) >>> 24);
+			}
+		}
+
+		return image;
+	}
+
+	/**
+	 * Reads a bilevel image with one bit per pixel directly from its data buffer. This is the
+	 * inverse of {@link #toBufferedImage()}.
+	 *
+	 * @return <code>false</code> if the image does not have a supported layout.
+	 */
+	private boolean readPacked(BufferedImage image)
+	{
+		Raster raster = image.getRaster();
+		if (!(raster.getSampleModel() instanceof MultiPixelPackedSampleModel)
+				|| !(raster.getDataBuffer() instanceof DataBufferByte)
+				|| !(image.getColorModel() instanceof IndexColorModel)
+				|| raster.getParent() != null)
+			return false;
+
+		MultiPixelPackedSampleModel sm = (MultiPixelPackedSampleModel)raster.getSampleModel();
+		IndexColorModel cm = (IndexColorModel)image.getColorModel();
+		if (sm.getPixelBitStride() != 1 || sm.getDataBitOffset() != 0 || cm.getMapSize() < 2)
+			return false;
+
+		// the darker color is foreground
+		int gray0 = GrayscaleReader.luminance(cm.getRed(0), cm.getGreen(0), cm.getBlue(0));
+		int gray1 = GrayscaleReader.luminance(cm.getRed(1), cm.getGreen(1), cm.getBlue(1));
+		int invert = (gray0 < gray1) ? 0xFF : 0;
+
+		DataBufferByte db = (DataBufferByte)raster.getDataBuffer();
+		byte[] bytes = db.getData();
+		int bytesPerRow = (width + 7) >>> 3;
+		int scanline = sm.getScanlineStride();
+		int offset = db.getOffset();
+		for (int y = 0; y < height; y++)
+		{
+			int byteIx = offset + y * scanline;
+			int wordIx = y * stride;
+			for (int b = 0; b < bytesPerRow; b++)
+			{
+				// the leftmost pixel of each byte is in its most significant bit
+				int bits = Integer.reverse((bytes[byteIx + b] ^ invert) & 0xFF) >>> 24;
+				words[wordIx + (b >>> 3)] |= (long)bits << ((b & 7) << 3);
+			}
+
+			if (stride > 0)
+				words[wordIx + stride - 1] &= getLastWordMask();
+		}
+
+		return true;
+	}
+
+	private void readGray(BufferedImage image)
+	{
+		GrayscaleReader reader = GrayscaleReader.create(GrayscaleReader.toGray(image));
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++)
+		{
+			reader.readRow(y, row, 0);
+			int wordIx = y * stride;
+			for (int x = 0; x < width; x++)
+			{
+				if (row[x] < 128)
+					words[wordIx + (x >>> 6)] |= 1L << x;
+			}
+		}
+	}
+}
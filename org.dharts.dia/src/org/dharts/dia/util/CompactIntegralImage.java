@@ -0,0 +1,322 @@
+package org.dharts.dia.util;
+
+/**
+ * An {@link IntegralImage} that stores its tables as 32-bit integers rather than as longs,
+ * halving the memory required for the integral tables.
+ *
+ * <p>
+ * The tables are accumulated using ordinary (wrapping) <code>int</code> arithmetic, so each
+ * entry holds the true integral value modulo 2<sup>32</sup>. The sum over a rectangular
+ * region is computed from four table entries by addition and subtraction, which gives the
+ * correct result modulo 2<sup>32</sup>. As long as the true sum of a region is less than
+ * 2<sup>32</sup> it is therefore recovered exactly. For 8-bit images, this holds for the
+ * squared table for any region of up to 66,051 pixels (e.g., a 257 x 257 window) and for
+ * the first-order table for regions of up to 16,843,009 pixels. The limits are computed from
+ * the largest pixel value present in the image and are reported by
+ * {@link #getMaxVarianceArea()} and {@link #getMaxMeanArea()}. Queries that exceed them
+ * throw an <code>IllegalArgumentException</code>.
+ *
+ * <p>
+ * Within these limits, all values returned are identical to those of
+ * {@link IntegralImageImpl}.
+ */
+public class CompactIntegralImage implements IntegralImage
+{
+	private static final long MOD_MAX = 0xFFFFFFFFL;		// largest value an unsigned int can hold
+
+	/**
+	 * Builds a compact integral image from a raster-order array of non-negative pixel
+	 * values. No intermediate arrays are allocated.
+	 *
+	 * @param raster The pixel values of the image in raster order.
+	 * @param w The width of the image.
+	 * @param h The height of the image.
+	 * @return The integral image.
+	 */
+	public static CompactIntegralImage create(int[] raster, int w, int h)
+	{
+		Builder builder = new Builder(w, h, true);
+		for (int offset = 0; offset < w * h; offset += w)
+			builder.addRow(raster, offset);
+
+		return builder.build();
+	}
+
+	/**
+	 * Estimates the number of bytes required to hold a <code>CompactIntegralImage</code>
+	 * for an image of the given size.
+	 *
+	 * @param w The width of the image.
+	 * @param h The height of the image.
+	 * @return The approximate size of the integral tables in bytes.
+	 */
+	public static long estimateFootprint(int w, int h)
+	{
+		return 2L * 4 * w * h;
+	}
+
+	final int width;
+	final int height;
+	final int imArea;
+
+	final int[] iImg;			// integral image, modulo 2^32
+	final int[] iImgSq;			// integral image squared, modulo 2^32
+
+	private final long maxMeanArea;
+	private final long maxVarianceArea;
+
+	/**
+	 * @param w The width of the image.
+	 * @param h The height of the image.
+	 * @param iImg The integral table, modulo 2<sup>32</sup>.
+	 * @param iImgSq The integral table of the squared pixel values, modulo 2<sup>32</sup>.
+	 * 		May be <code>null</code> if only first-order queries are required.
+	 * @param maxValue The largest pixel value in the image.
+	 */
+	public CompactIntegralImage(int w, int h, int[] iImg, int[] iImgSq, int maxValue) {
+		width = w;
+		height = h;
+		imArea = w * h;
+		this.iImg = iImg;
+		this.iImgSq = iImgSq;
+
+		long max = Math.max(1, maxValue);
+		maxMeanArea = MOD_MAX / max;
+		maxVarianceArea = MOD_MAX / (max * max);
+	}
+
+	@Override
+	public final int getWidth()
+	{
+		return width;
+	}
+
+	@Override
+	public final int getHeight()
+	{
+		return height;
+	}
+
+	@Override
+	public final int getArea()
+	{
+		return imArea;
+	}
+
+	@Override
+	public final boolean hasVariance()
+	{
+		return iImgSq != null;
+	}
+
+	/**
+	 * @return The number of pixels in the largest region whose mean can be computed.
+	 */
+	public final long getMaxMeanArea()
+	{
+		return maxMeanArea;
+	}
+
+	/**
+	 * @return The number of pixels in the largest region whose variance can be computed.
+	 */
+	public final long getMaxVarianceArea()
+	{
+		return maxVarianceArea;
+	}
+
+	@Override
+	public final long getHorizontalProjection(int y, int window)
+	{
+		int miny = y - (window / 2);
+		miny = miny > 0 ? miny : 0;
+
+		int maxy = miny + window;
+		if (maxy >= height)
+		{
+			maxy = height - 1;
+			miny = maxy - window;
+		}
+
+		checkArea((long)window * width, maxMeanArea);
+
+		int x = width - 1;
+		long diff = (iImg[maxy * width + x] - iImg[miny * width + x]) & MOD_MAX;
+		return diff / (window * width);
+	}
+
+	@Override
+	public final double[] getGausModel(int xmin, int ymin, int xmax, int ymax) {
+		return new double[] { getMean(xmin, ymin, xmax, ymax), getVariance(xmin, ymin, xmax, ymax) };
+	}
+
+	@Override
+	public final double getMean(int xmin, int ymin, int xmax, int ymax) {
+		double area = (xmax - xmin + 1) * (ymax - ymin + 1);
+		checkArea((long)area, maxMeanArea);
+
+		return sum(iImg, xmin, ymin, xmax, ymax) / area;
+	}
+
+	@Override
+	public final double getVariance(int xmin, int ymin, int xmax, int ymax) {
+		checkVariance();
+
+		double area = (xmax - xmin + 1) * (ymax - ymin + 1);
+		checkArea((long)area, maxVarianceArea);
+
+		double diff = sum(iImg, xmin, ymin, xmax, ymax);
+		double sqdiff = sum(iImgSq, xmin, ymin, xmax, ymax);
+		return (sqdiff - (diff * diff) / area) / (area - 1);
+	}
+
+	@Override
+	public final void getRowStatistics(int y, int whalf, double[] mean, double[] stddev) {
+		int ymin = Math.max(0, y - whalf);
+		int ymax = Math.min(height - 1, y + whalf);
+		int rows = ymax - ymin + 1;
+		if (stddev == null) {
+			rowMeans(ymin, ymax, whalf, mean);
+			return;
+		}
+
+		checkVariance();
+		checkArea((long)Math.min(2 * whalf + 1, width) * rows, maxVarianceArea);
+
+		int maxOffset = ymax * width;					// first pixel of the bottom row of the window
+		int refOffset = (ymin - 1) * width;				// first pixel of the row above the window
+
+		double diff;
+		double sqdiff;
+		for (int x = 0; x < width; x++) {
+			int xmin = Math.max(0, x - whalf);
+			int xmax = Math.min(width - 1, x + whalf);
+
+			int ixMax = maxOffset + xmax;				// lower right corner
+			int a = iImg[ixMax];
+			int aSq = iImgSq[ixMax];
+			if (ymin > 0) {
+				a -= iImg[refOffset + xmax];
+				aSq -= iImgSq[refOffset + xmax];
+			}
+
+			if (xmin > 0) {
+				a -= iImg[maxOffset + xmin - 1];
+				aSq -= iImgSq[maxOffset + xmin - 1];
+
+				if (ymin > 0) {
+					a += iImg[refOffset + xmin - 1];
+					aSq += iImgSq[refOffset + xmin - 1];
+				}
+			}
+
+			diff = a & MOD_MAX;
+			sqdiff = aSq & MOD_MAX;
+
+			double area = (xmax - xmin + 1) * rows;
+			mean[x] = diff / area;
+			stddev[x] = Math.sqrt((sqdiff - (diff * diff) / area) / (area - 1));
+		}
+	}
+
+	/**
+	 * Computes the window means for a row.
+	 */
+	private void rowMeans(int ymin, int ymax, int whalf, double[] mean) {
+		int rows = ymax - ymin + 1;
+		checkArea((long)Math.min(2 * whalf + 1, width) * rows, maxMeanArea);
+
+		for (int x = 0; x < width; x++) {
+			int xmin = Math.max(0, x - whalf);
+			int xmax = Math.min(width - 1, x + whalf);
+
+			double area = (xmax - xmin + 1) * rows;
+			mean[x] = sum(iImg, xmin, ymin, xmax, ymax) / area;
+		}
+	}
+
+	/**
+	 * Computes the sum of the values in the selected region of the supplied integral table.
+	 */
+	private long sum(int[] table, int xmin, int ymin, int xmax, int ymax) {
+		int sum = table[ymax * width + xmax];
+		if (ymin > 0)
+			sum -= table[(ymin - 1) * width + xmax];
+
+		if (xmin > 0) {
+			sum -= table[ymax * width + xmin - 1];
+			if (ymin > 0)
+				sum += table[(ymin - 1) * width + xmin - 1];
+		}
+
+		return sum & MOD_MAX;
+	}
+
+	private void checkVariance() {
+		if (iImgSq == null)
+			throw new IllegalStateException("This integral image was built without the table of squared values");
+	}
+
+	private static void checkArea(long area, long max) {
+		if (area > max)
+			throw new IllegalArgumentException("The requested region (" + area + " pixels) " +
+					"is too large for a compact integral image. The largest supported region " +
+					"contains " + max + " pixels.");
+	}
+
+	/**
+	 * Accumulates the integral tables directly from running row sums, so no intermediate
+	 * arrays are allocated.
+	 */
+	static final class Builder implements IntegralImageBuilder
+	{
+		private final int w;
+		private final int h;
+		private final int[] integralImage;
+		private final int[] integralSqImage;
+		private int offset = 0;		// index of the first pixel in the next row. Will be y * w
+		private int max = 0;
+
+		/**
+		 * @param w The width of the image.
+		 * @param h The height of the image.
+		 * @param squares Whether to build the table of squared pixel values.
+		 */
+		Builder(int w, int h, boolean squares)
+		{
+			this.w = w;
+			this.h = h;
+			integralImage = new int[w * h];
+			integralSqImage = squares ? new int[w * h] : null;
+		}
+
+		@Override
+		public void addRow(int[] raster, int rasterOffset)
+		{
+			int rowsum = 0;
+			int rowsumSq = 0;
+			for (int x = 0; x < w; x++) {
+				int ix = offset + x;
+				int s = raster[rasterOffset + x];
+				if (s > max)
+					max = s;
+
+				// NOTE: these overflow by design. See the class documentation.
+				rowsum += s;
+				integralImage[ix] = offset == 0 ? rowsum : integralImage[ix - w] + rowsum;
+				if (integralSqImage != null) {
+					rowsumSq += s * s;
+					integralSqImage[ix] = offset == 0 ? rowsumSq : integralSqImage[ix - w] + rowsumSq;
+				}
+			}
+
+			offset += w;
+		}
+
+		@Override
+		public CompactIntegralImage build()
+		{
+			return new CompactIntegralImage(w, h, integralImage, integralSqImage, max);
+		}
+	}
+}
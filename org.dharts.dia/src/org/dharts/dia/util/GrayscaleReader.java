@@ -0,0 +1,324 @@
+package org.dharts.dia.util;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads the rows of an image as 8-bit gray levels. For common image layouts, the pixel data
+ * is read directly from the backing array of the image's <code>DataBuffer</code> and color
+ * pixels are converted to gray as they are read, avoiding both the per-sample overhead of
+ * <code>Raster.getSample</code> and a separate color conversion pass over the image.
+ *
+ * <p>
+ * The following layouts are read directly:
+ * <ul>
+ *   <li>8-bit grayscale, e.g. <code>TYPE_BYTE_GRAY</code>;</li>
+ *   <li>8-bit interleaved RGB(A), e.g. <code>TYPE_3BYTE_BGR</code> and
+ *       <code>TYPE_4BYTE_ABGR</code>;</li>
+ *   <li>packed RGB(A) ints, e.g. <code>TYPE_INT_RGB</code> and <code>TYPE_INT_ARGB</code>;</li>
+ *   <li>1-bit indexed images, e.g. <code>TYPE_BYTE_BINARY</code>.</li>
+ * </ul>
+ * Images with premultiplied alpha, such as <code>TYPE_INT_ARGB_PRE</code>, are not read
+ * directly. Other images are read through their <code>Raster</code>, one row at a time,
+ * taking the first band as the gray level.
+ *
+ * <p>
+ * Color pixels are converted to the luminance of the linearized sRGB values, which is the
+ * conversion applied by a <code>ColorConvertOp</code> to <code>CS_GRAY</code>. The color
+ * management used by <code>ColorConvertOp</code> works at reduced precision, so its results
+ * may differ from those computed here by up to a few gray levels. Gray and binary pixels are
+ * converted exactly.
+ */
+public abstract class GrayscaleReader
+{
+	// fixed point (16 fractional bits) contribution of each linearized sRGB component to
+	// the luminance, scaled to the range [0, 255]
+	private static final int[] LUM_R = new int[256];
+	private static final int[] LUM_G = new int[256];
+	private static final int[] LUM_B = new int[256];
+
+	static {
+		for (int v = 0; v < 256; v++) {
+			double s = v / 255.0;
+			double lin = s <= 0.04045 ? s / 12.92 : Math.pow((s + 0.055) / 1.055, 2.4);
+			double scale = 255 * 65536 * lin;
+
+			LUM_R[v] = (int)Math.round(0.212671 * scale);
+			LUM_G[v] = (int)Math.round(0.715160 * scale);
+			LUM_B[v] = (int)Math.round(0.072169 * scale);
+		}
+	}
+
+	/**
+	 * Creates a reader for the supplied image.
+	 *
+	 * @param image The image to read.
+	 * @return A reader for the image. This will read the image's backing array directly if
+	 * 		{@link #isDirect(BufferedImage)} returns <code>true</code> for the image.
+	 */
+	public static GrayscaleReader create(BufferedImage image)
+	{
+		GrayscaleReader reader = createDirect(image);
+		return reader != null ? reader : new RasterReader(image.getRaster());
+	}
+
+	/**
+	 * Indicates whether the supplied image's pixels can be read directly from its backing
+	 * array and converted to gray without a <code>ColorConvertOp</code>.
+	 *
+	 * @param image The image to test.
+	 * @return <code>true</code> if the image has one of the supported layouts.
+	 */
+	public static boolean isDirect(BufferedImage image)
+	{
+		return createDirect(image) != null;
+	}
+
+	/**
+	 * Converts an image that cannot be read directly to an 8-bit gray image using a
+	 * <code>ColorConvertOp</code>. Images that can be read directly are returned as is, so
+	 * that they are converted to gray as they are read.
+	 *
+	 * @param image The image.
+	 * @return An image for which {@link #isDirect(BufferedImage)} returns <code>true</code>.
+	 */
+	public static BufferedImage toGray(BufferedImage image)
+	{
+		if (isDirect(image))
+			return image;
+
+		// ColorConvertOp caches transform state internally, so concurrent callers need their own
+		ColorConvertOp grayscale = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
+		BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+		return grayscale.filter(image, gray);
+	}
+
+	private static GrayscaleReader createDirect(BufferedImage image)
+	{
+		Raster raster = image.getRaster();
+		SampleModel sm = raster.getSampleModel();
+		DataBuffer db = raster.getDataBuffer();
+		ColorModel cm = image.getColorModel();
+		int colorSpace = cm.getColorSpace().getType();
+		if (db.getNumBanks() != 1 || cm.isAlphaPremultiplied())
+			return null;
+
+		if (db instanceof DataBufferByte && sm instanceof ComponentSampleModel
+				&& sm.getSampleSize(0) == 8) {
+			ComponentSampleModel csm = (ComponentSampleModel)sm;
+			int bands = csm.getNumBands();
+			if (bands == 1 && colorSpace == ColorSpace.TYPE_GRAY && !(cm instanceof IndexColorModel))
+				return new ByteGrayReader(raster, csm);
+			if ((bands == 3 || bands == 4) && cm.getColorSpace().isCS_sRGB())
+				return new ByteRgbReader(raster, csm);
+
+		} else if (db instanceof DataBufferInt && sm instanceof SinglePixelPackedSampleModel
+				&& cm.getColorSpace().isCS_sRGB()) {
+			int[] masks = ((SinglePixelPackedSampleModel)sm).getBitMasks();
+			if (masks.length >= 3 && masks[0] == 0xFF0000 && masks[1] == 0xFF00 && masks[2] == 0xFF)
+				return new IntRgbReader(raster, (SinglePixelPackedSampleModel)sm);
+
+		} else if (db instanceof DataBufferByte && sm instanceof MultiPixelPackedSampleModel
+				&& ((MultiPixelPackedSampleModel)sm).getPixelBitStride() == 1
+				&& cm instanceof IndexColorModel) {
+			return new BinaryReader(raster, (MultiPixelPackedSampleModel)sm, (IndexColorModel)cm);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Converts an sRGB color to an 8-bit gray level.
+	 */
+	static int luminance(int r, int g, int b)
+	{
+		return (LUM_R[r] + LUM_G[g] + LUM_B[b] + 0x8000) >>> 16;
+	}
+
+	protected final int width;
+	protected final int height;
+
+	protected GrayscaleReader(Raster raster)
+	{
+		this.width = raster.getWidth();
+		this.height = raster.getHeight();
+	}
+
+	public final int getWidth()
+	{
+		return width;
+	}
+
+	public final int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * Reads the gray levels of one row of the image. Implementations are safe for use by
+	 * multiple threads, provided that they read different rows into different locations.
+	 *
+	 * @param y The row to read.
+	 * @param dest The array to write the gray levels to.
+	 * @param offset The index in <code>dest</code> of the first pixel of the row.
+	 */
+	public abstract void readRow(int y, int[] dest, int offset);
+
+	/**
+	 * Reads the first band of each pixel through the image's <code>Raster</code>.
+	 */
+	private static final class RasterReader extends GrayscaleReader
+	{
+		private final Raster raster;
+
+		private RasterReader(Raster raster)
+		{
+			super(raster);
+			this.raster = raster;
+		}
+
+		@Override
+		public void readRow(int y, int[] dest, int offset)
+		{
+			int[] row = raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, (int[])null);
+			System.arraycopy(row, 0, dest, offset, width);
+		}
+	}
+
+	private static final class ByteGrayReader extends GrayscaleReader
+	{
+		private final byte[] data;
+		private final int base;
+		private final int scanlineStride;
+		private final int pixelStride;
+
+		private ByteGrayReader(Raster raster, ComponentSampleModel sm)
+		{
+			super(raster);
+			data = ((DataBufferByte)raster.getDataBuffer()).getData();
+			scanlineStride = sm.getScanlineStride();
+			pixelStride = sm.getPixelStride();
+			base = raster.getDataBuffer().getOffset() + sm.getBandOffsets()[0]
+					- raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX() * pixelStride;
+		}
+
+		@Override
+		public void readRow(int y, int[] dest, int offset)
+		{
+			int ix = base + y * scanlineStride;
+			for (int x = 0; x < width; x++, ix += pixelStride)
+				dest[offset + x] = data[ix] & 0xFF;
+		}
+	}
+
+	private static final class ByteRgbReader extends GrayscaleReader
+	{
+		private final byte[] data;
+		private final int base;
+		private final int scanlineStride;
+		private final int pixelStride;
+		private final int rOffset;
+		private final int gOffset;
+		private final int bOffset;
+
+		private ByteRgbReader(Raster raster, ComponentSampleModel sm)
+		{
+			super(raster);
+			data = ((DataBufferByte)raster.getDataBuffer()).getData();
+			scanlineStride = sm.getScanlineStride();
+			pixelStride = sm.getPixelStride();
+			base = raster.getDataBuffer().getOffset()
+					- raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX() * pixelStride;
+
+			int[] bandOffsets = sm.getBandOffsets();
+			rOffset = bandOffsets[0];
+			gOffset = bandOffsets[1];
+			bOffset = bandOffsets[2];
+		}
+
+		@Override
+		public void readRow(int y, int[] dest, int offset)
+		{
+			int ix = base + y * scanlineStride;
+			for (int x = 0; x < width; x++, ix += pixelStride)
+				dest[offset + x] = luminance(data[ix + rOffset] & 0xFF, data[ix + gOffset] & 0xFF, data[ix + bOffset] & 0xFF);
+		}
+	}
+
+	private static final class IntRgbReader extends GrayscaleReader
+	{
+		private final int[] data;
+		private final int base;
+		private final int scanlineStride;
+
+		private IntRgbReader(Raster raster, SinglePixelPackedSampleModel sm)
+		{
+			super(raster);
+			data = ((DataBufferInt)raster.getDataBuffer()).getData();
+			scanlineStride = sm.getScanlineStride();
+			base = raster.getDataBuffer().getOffset()
+					- raster.getSampleModelTranslateY() * scanlineStride
+					- raster.getSampleModelTranslateX();
+		}
+
+		@Override
+		public void readRow(int y, int[] dest, int offset)
+		{
+			int ix = base + y * scanlineStride;
+			for (int x = 0; x < width; x++, ix++) {
+				int rgb = data[ix];
+				dest[offset + x] = luminance((rgb >>> 16) & 0xFF, (rgb >>> 8) & 0xFF, rgb & 0xFF);
+			}
+		}
+	}
+
+	private static final class BinaryReader extends GrayscaleReader
+	{
+		private final byte[] data;
+		private final int base;
+		private final int scanlineStride;
+		private final int bitOffset;
+		private final int gray0;
+		private final int gray1;
+
+		private BinaryReader(Raster raster, MultiPixelPackedSampleModel sm, IndexColorModel cm)
+		{
+			super(raster);
+			data = ((DataBufferByte)raster.getDataBuffer()).getData();
+			scanlineStride = sm.getScanlineStride();
+
+			// bit position of the first pixel of the raster, relative to the start of its row
+			int tx = -raster.getSampleModelTranslateX();
+			bitOffset = sm.getDataBitOffset() + tx;
+			base = raster.getDataBuffer().getOffset()
+					- raster.getSampleModelTranslateY() * scanlineStride;
+
+			gray0 = luminance(cm.getRed(0), cm.getGreen(0), cm.getBlue(0));
+			gray1 = cm.getMapSize() > 1 ? luminance(cm.getRed(1), cm.getGreen(1), cm.getBlue(1)) : gray0;
+		}
+
+		@Override
+		public void readRow(int y, int[] dest, int offset)
+		{
+			int rowIx = base + y * scanlineStride;
+			for (int x = 0; x < width; x++) {
+				int bit = bitOffset + x;
+				int px = (data[rowIx + (bit >>> 3)] >>> (7 - (bit & 7))) & 1;
+				dest[offset + x] = px == 0 ? gray0 : gray1;
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package org.dharts.dia.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+
+/**
+ * Reads an image from an <code>ImageReader</code> as a sequence of horizontal strips that
+ * span the full width of the image, from top to bottom, so that the complete image is never
+ * held in memory.
+ *
+ * <p>
+ * If the reader reports the image as tiled, strips follow the rows of tiles, so each tile is
+ * decoded exactly once. Where a row consists of a single tile, as for the strips of a TIFF
+ * image, it is read with {@link ImageReader#readTile(int, int, int)}. Otherwise strips of
+ * {@link #DEFAULT_ROWS} rows are requested as source regions. Formats with random access to
+ * their rows decode only the requested rows, but readers of formats that can only be
+ * decoded sequentially, such as PNG, may decode the image from its start for every strip.
+ * Reading such images takes time quadratic in their height, so very tall images should be
+ * stored in a tiled or stripped format.
+ *
+ * <p>
+ * Instances are not thread-safe and read a single image.
+ */
+public final class ImageStrips
+{
+	/** The number of rows requested at a time from images that are not tiled. */
+	public static final int DEFAULT_ROWS = 64;
+
+	private final ImageReader reader;
+	private final int imageIndex;
+	private final int width;
+	private final int height;
+	private final int tileHeight;		// 0 if strips are read as source regions
+	private final boolean singleTileRows;
+	private final ImageReadParam param;
+
+	private int next = 0;				// the first row of the next strip
+	private int y = -1;
+	private int rows = 0;
+
+	/**
+	 * @param reader A reader whose input has been set.
+	 * @param imageIndex The index of the image to read.
+	 * @throws IOException If the layout of the image cannot be read.
+	 */
+	public ImageStrips(ImageReader reader, int imageIndex) throws IOException
+	{
+		this.reader = reader;
+		this.imageIndex = imageIndex;
+		this.width = reader.getWidth(imageIndex);
+		this.height = reader.getHeight(imageIndex);
+		this.param = reader.getDefaultReadParam();
+
+		// tile grids with an offset are rare enough to read as untiled images
+		boolean tiled = reader.isImageTiled(imageIndex)
+				&& reader.getTileGridXOffset(imageIndex) == 0
+				&& reader.getTileGridYOffset(imageIndex) == 0;
+		this.tileHeight = tiled ? reader.getTileHeight(imageIndex) : 0;
+		this.singleTileRows = tiled && reader.getTileWidth(imageIndex) >= width;
+	}
+
+	/** @return The width of the image. */
+	public int getWidth()
+	{
+		return width;
+	}
+
+	/** @return The height of the image. */
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/** @return <code>true</code> if there are rows that have not been read. */
+	public boolean hasNext()
+	{
+		return next < height;
+	}
+
+	/** @return The image row of the first row of the most recently read strip. */
+	public int getY()
+	{
+		return y;
+	}
+
+	/**
+	 * @return The number of image rows in the most recently read strip. The strip itself may
+	 * 		be taller if the reader returns tiles that extend past the bottom of the image.
+	 */
+	public int getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * Reads the next strip. Row <code>r</code> of the strip is row <code>getY() + r</code>
+	 * of the image, for <code>r &lt; getRows()</code>.
+	 *
+	 * @return The strip.
+	 * @throws IOException If the strip cannot be read.
+	 */
+	public BufferedImage next() throws IOException
+	{
+		if (!hasNext())
+			throw new IllegalStateException("All rows of the image have been read");
+
+		int step = (tileHeight > 0) ? tileHeight : DEFAULT_ROWS;
+		int end = Math.min(height, next + step);
+
+		BufferedImage strip = null;
+		if (singleTileRows) {
+			BufferedImage tile = reader.readTile(imageIndex, 0, next / tileHeight);
+			if (tile.getWidth() >= width && tile.getHeight() >= end - next)
+				strip = tile;
+		}
+
+		if (strip == null) {
+			param.setSourceRegion(new Rectangle(0, next, width, end - next));
+			strip = reader.read(imageIndex, param);
+		}
+
+		y = next;
+		rows = end - next;
+		next = end;
+		return strip;
+	}
+}
@@ -1,20 +1,99 @@
 package org.dharts.dia.util;
 
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 
 public class ImageWrapper {
+	/**
+	 * Estimates the number of bytes required to hold the raster and integral image of an
+	 * <code>ImageWrapper</code> for an image of the given size. This does not include the
+	 * source image itself.
+	 *
+	 * @param w The width of the image.
+	 * @param h The height of the image.
+	 * @param compact Whether a {@link CompactIntegralImage} will be used.
+	 * @return The approximate number of bytes required.
+	 */
+	public static long estimateFootprint(int w, int h, boolean compact)
+	{
+		long raster = 4L * w * h;
+		return raster + (compact
+				? CompactIntegralImage.estimateFootprint(w, h)
+				: IntegralImageImpl.estimateFootprint(w, h));
+	}
+
+	/**
+	 * Wraps an image for thresholding. Common image layouts are read directly, and converted
+	 * to gray in the same pass that builds the integral image. Other images are first
+	 * converted using {@link GrayscaleReader#toGray(BufferedImage)}.
+	 *
+	 * @param image The image to wrap.
+	 * @param variance Indicates whether the integral image should support variance queries.
+	 * @param ex An executor used to build the integral image in parallel strips, or
+	 * 		<code>null</code> to build it on the calling thread.
+	 * @return The wrapped image.
+	 */
+	public static ImageWrapper wrapGray(BufferedImage image, boolean variance, ExecutorService ex)
+	{
+		return new ImageWrapper(GrayscaleReader.toGray(image), false, variance, ex);
+	}
+
 	private final BufferedImage src;
 	private final int w;
 	private final int h;
+	private final boolean compact;
+	private final boolean variance;
+	private final ExecutorService ex;
 
 	int[] raster = null;
 	private IntegralImage iImage;
 
 	public ImageWrapper(BufferedImage im) {
+		this(im, false);
+	}
+
+	/**
+	 * @param im The image to wrap. Color images with one of the layouts supported by
+	 * 		{@link GrayscaleReader} are converted to gray; for other images, the first band is
+	 * 		used.
+	 * @param compact Indicates whether to use a {@link CompactIntegralImage}. This requires
+	 * 		about half the memory of the default representation, but limits the size of the
+	 * 		regions that can be queried.
+	 */
+	public ImageWrapper(BufferedImage im, boolean compact) {
+		this(im, compact, null);
+	}
+
+	/**
+	 * @param im The image to wrap.
+	 * @param compact Indicates whether to use a {@link CompactIntegralImage}.
+	 * @param ex An executor used to read the image and build the integral image in parallel
+	 * 		horizontal strips. May be <code>null</code>, in which case the image is processed
+	 * 		on the calling thread. The executor is not shut down by this class.
+	 * @see #ImageWrapper(BufferedImage, boolean)
+	 */
+	public ImageWrapper(BufferedImage im, boolean compact, ExecutorService ex) {
+		this(im, compact, true, ex);
+	}
+
+	/**
+	 * @param im The image to wrap.
+	 * @param compact Indicates whether to use a {@link CompactIntegralImage}.
+	 * @param variance Indicates whether the integral image should support variance queries.
+	 * 		If <code>false</code>, the table of squared values is not built, halving the
+	 * 		memory and work required. See {@link IntegralImage#hasVariance()}.
+	 * @param ex An executor used to build the integral image in parallel, or
+	 * 		<code>null</code>.
+	 * @see #ImageWrapper(BufferedImage, boolean, ExecutorService)
+	 */
+	public ImageWrapper(BufferedImage im, boolean compact, boolean variance, ExecutorService ex) {
 		this.src = im;
 		this.w = im.getWidth();
 		this.h = im.getHeight();
+		this.compact = compact;
+		this.variance = variance;
+		this.ex = ex;
 	}
 
 	public final int getWidth()
@@ -27,67 +106,85 @@ public class ImageWrapper {
 		return h;
 	}
 
-	public synchronized int[] getRaster()
+	/**
+	 * Reads the image and builds its integral image, if this has not already been done.
+	 * Callers that can be interrupted should call this before {@link #getRaster()} or
+	 * {@link #getIntegralImage()}, so that an interruption while the strips are built in
+	 * parallel is reported to them.
+	 *
+	 * @throws InterruptedException If interrupted while waiting for the strips to be built.
+	 * 		The image is left unloaded.
+	 */
+	public synchronized void load() throws InterruptedException
 	{
-		if (raster == null)
-			init(src.getData());
+		if (iImage == null)
+			init();
+	}
 
+	/**
+	 * @return The gray levels of the image in raster order.
+	 * @throws CancellationException If the image had not been loaded and the calling thread
+	 * 		was interrupted while loading it. The interrupt status is preserved.
+	 */
+	public synchronized int[] getRaster()
+	{
+		loadUninterruptibly();
 		return raster;
 	}
 
+	/**
+	 * @return The integral image.
+	 * @throws CancellationException If the image had not been loaded and the calling thread
+	 * 		was interrupted while loading it. The interrupt status is preserved.
+	 */
 	public synchronized IntegralImage getIntegralImage()
 	{
-		if (iImage == null)
-			init(src.getData());
-
+		loadUninterruptibly();
 		return iImage;
 	}
 
-	private void init(Raster data) {
-		raster = new int[w * h];
-		int[] rowsumImage = new int[w * h];
-		int[] rowsumSqImage = new int[w * h];
-
-		int offset = 0; // index of the current pixel. Will be y * w + x
-		for (int y = 0; y < h; y++) {
-			int s = data.getSample(0, y, 0);
-
-			raster[offset] = s;
-			rowsumImage[offset] = s;
-			rowsumSqImage[offset] = s * s;
-			for (int x = 1; x < w; x++) {
-				s = data.getSample(x, y, 0);
-
-				int ix = offset + x;
-				raster[ix] = s;
-				rowsumImage[ix] = rowsumImage[ix - 1] + s;
-				rowsumSqImage[ix] = rowsumSqImage[ix - 1] + s * s;
-			}
-
-			offset += w;
+	private void loadUninterruptibly()
+	{
+		try {
+			load();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new CancellationException("Interrupted while loading the image");
 		}
+	}
 
-		long[] integralImage = new long[w * h];
-		long[] integralSqImage = new long[w * h];
-
-		for (int x = 0; x < w; x++) {
-			integralImage[x] = rowsumImage[x];
-			integralSqImage[x] = rowsumSqImage[x];
+	/**
+	 * Reads the gray levels of the source image and builds the integral image in a single
+	 * pass. Each row is converted to gray, copied into the raster and added to the integral
+	 * tables before the next row is read. See {@link GrayscaleReader} for the image layouts
+	 * that are read directly from their backing arrays.
+	 *
+	 * <p>
+	 * If an executor was supplied, the rows are instead read and accumulated in parallel
+	 * strips by {@link ParallelIntegralBuilder}. The resulting tables are the same.
+	 */
+	private void init() throws InterruptedException {
+		GrayscaleReader reader = GrayscaleReader.create(src);
+		if (ex != null) {
+			int[] data = new int[w * h];
+			iImage = ParallelIntegralBuilder.build(reader, data, compact, variance, ex);
+			raster = data;
+			return;
 		}
 
-		offset = w;
-		for (int y = 1; y < h; y++) {
-			for (int x = 0; x < w; x++) {
-
-				int ix = offset + x;
-				integralImage[ix] = integralImage[ix - w] + rowsumImage[ix];
-				integralSqImage[ix] = integralSqImage[ix - w] + rowsumSqImage[ix];
+		IntegralImageBuilder builder = compact
+				? new CompactIntegralImage.Builder(w, h, variance)
+				: new IntegralImageImpl.Builder(w, h, variance);
 
-			}
+		raster = new int[w * h];
+		int offset = 0; // index of the first pixel in the current row. Will be y * w
+		for (int y = 0; y < h; y++) {
+			reader.readRow(y, raster, offset);
+			builder.addRow(raster, offset);
 
 			offset += w;
 		}
 
-		iImage = new IntegralImageImpl(w, h, integralImage, integralSqImage);
+		iImage = builder.build();
 	}
 }
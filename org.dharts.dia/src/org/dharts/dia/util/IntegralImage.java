@@ -8,6 +8,18 @@ public interface IntegralImage {
 
 	int getArea();
 
+	/**
+	 * Indicates whether this integral image includes the table of squared pixel values.
+	 * Integral images built without it require half the memory, but support only the
+	 * first-order queries: {@link #getVariance(int, int, int, int)} and
+	 * {@link #getGausModel(int, int, int, int)} throw an <code>IllegalStateException</code>
+	 * and {@link #getRowStatistics(int, int, double[], double[])} may only be used to
+	 * compute means.
+	 *
+	 * @return <code>true</code> if variance queries are supported.
+	 */
+	boolean hasVariance();
+
 	/**
 	 *
 	 * @param y
@@ -17,6 +29,48 @@ public interface IntegralImage {
 	 */
 	long getHorizontalProjection(int y, int window);
 
+	/**
+	 * Returns the mean and variance of the selected image region. Note that this allocates
+	 * a new array for every call. Performance sensitive code should use
+	 * {@link #getMean(int, int, int, int)} and {@link #getVariance(int, int, int, int)} or
+	 * {@link #getRowStatistics(int, int, double[], double[])} instead.
+	 *
+	 * @return A two-element array where the first element is the mean value of the pixels
+	 * 		in this region and the second is the variance of the pixel values in this region
+	 */
 	double[] getGausModel(int xmin, int ymin, int xmax, int ymax);
 
+	/**
+	 * Returns the mean value of the pixels in the selected image region. The bounds are
+	 * inclusive.
+	 */
+	double getMean(int xmin, int ymin, int xmax, int ymax);
+
+	/**
+	 * Returns the (sample) variance of the pixel values in the selected image region. The
+	 * bounds are inclusive.
+	 */
+	double getVariance(int xmin, int ymin, int xmax, int ymax);
+
+	/**
+	 * Computes the mean and standard deviation of a square window centered on each pixel of
+	 * a row. Windows are clipped to the bounds of the image. The values computed are the
+	 * same as those returned by {@link #getGausModel(int, int, int, int)} (with the square
+	 * root taken of the variance) for the corresponding window, but no objects are
+	 * allocated.
+	 *
+	 * @param y The row to compute statistics for.
+	 * @param whalf Half the size of the window. The window centered on <code>(x, y)</code>
+	 * 		spans <code>[x - whalf, x + whalf]</code> horizontally and
+	 * 		<code>[y - whalf, y + whalf]</code> vertically.
+	 * @param mean An array of at least <code>getWidth()</code> elements that will be filled
+	 * 		with the mean of the window centered on each pixel of the row.
+	 * @param stddev An array of at least <code>getWidth()</code> elements that will be
+	 * 		filled with the standard deviation of the window centered on each pixel of the row,
+	 * 		or <code>null</code> if only the means are required.
+	 * @throws IllegalStateException If <code>stddev</code> is supplied but this integral
+	 * 		image does not support variance queries.
+	 */
+	void getRowStatistics(int y, int whalf, double[] mean, double[] stddev);
+
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package org.dharts.dia.util;
+
+/**
+ * Accumulates an {@link IntegralImage} one row at a time. This allows the integral tables
+ * to be built in the same pass that reads the pixel data, while the row is still in cache.
+ */
+interface IntegralImageBuilder
+{
+	/**
+	 * Adds the next row of the image to the integral tables. Rows must be added in order.
+	 *
+	 * @param raster An array holding the pixel values of the row.
+	 * @param offset The index in <code>raster</code> of the first pixel of the row.
+	 */
+	void addRow(int[] raster, int offset);
+
+	/**
+	 * @return The integral image. May only be called once all rows have been added.
+	 */
+	IntegralImage build();
+}
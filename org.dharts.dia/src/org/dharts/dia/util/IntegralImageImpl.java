@@ -15,6 +15,16 @@ package org.dharts.dia.util;
  */
 public class IntegralImageImpl implements IntegralImage
 {
+	/**
+	 * System property that selects how {@link #getRowStatistics(int, int, double[], double[])}
+	 * processes the interior of a row. Set to <code>scalar</code> to disable the branch-free
+	 * interior kernel and clip every window individually. This is intended for comparing the
+	 * two implementations.
+	 */
+	public static final String ROW_KERNEL = "org.dharts.dia.util.rowKernel";
+
+	private static final boolean USE_ROW_KERNEL = !"scalar".equals(System.getProperty(ROW_KERNEL));
+
 	final int width;
 	final int height;
 	final int imArea;
@@ -22,7 +32,46 @@ public class IntegralImageImpl implements IntegralImage
 	final long[] iImg;			// integral image
 	final long[] iImgSq;		// integral image squared
 
-	/** Default constructor. */
+	/**
+	 * Builds an integral image from a raster-order array of pixel values. The tables are
+	 * accumulated directly from running row sums, so no intermediate arrays are allocated.
+	 *
+	 * @param raster The pixel values of the image in raster order.
+	 * @param w The width of the image.
+	 * @param h The height of the image.
+	 * @return The integral image.
+	 */
+	public static IntegralImageImpl create(int[] raster, int w, int h)
+	{
+		Builder builder = new Builder(w, h, true);
+		for (int offset = 0; offset < w * h; offset += w)
+			builder.addRow(raster, offset);
+
+		return builder.build();
+	}
+
+	/**
+	 * Estimates the number of bytes required to hold an <code>IntegralImageImpl</code>
+	 * for an image of the given size.
+	 *
+	 * @param w The width of the image.
+	 * @param h The height of the image.
+	 * @return The approximate size of the integral tables in bytes.
+	 */
+	public static long estimateFootprint(int w, int h)
+	{
+		return 2L * 8 * w * h;
+	}
+
+	/**
+	 * Default constructor.
+	 *
+	 * @param w The width of the image.
+	 * @param h The height of the image.
+	 * @param iImg The integral table.
+	 * @param iImgSq The integral table of the squared pixel values. May be <code>null</code>
+	 * 		if only first-order queries are required.
+	 */
 	public IntegralImageImpl(int w, int h, long[] iImg, long[] iImgSq) {
 		width = w;
 		height = h;
@@ -49,6 +98,12 @@ public class IntegralImageImpl implements IntegralImage
 		return imArea;
 	}
 
+	@Override
+	public final boolean hasVariance()
+	{
+		return iImgSq != null;
+	}
+
 //	public long[] getVerticalProjection()
 //	{
 //		long[] result = new long[width];
@@ -107,42 +162,234 @@ public class IntegralImageImpl implements IntegralImage
 	 */
 	@Override
 	public final double[] getGausModel(int xmin, int ymin, int xmax, int ymax) {
+		return new double[] { getMean(xmin, ymin, xmax, ymax), getVariance(xmin, ymin, xmax, ymax) };
+	}
+
+	@Override
+	public final double getMean(int xmin, int ymin, int xmax, int ymax) {
+		double area = (xmax - xmin + 1) * (ymax - ymin + 1);
+		return sum(iImg, xmin, ymin, xmax, ymax) / area;
+	}
+
+	@Override
+	public final double getVariance(int xmin, int ymin, int xmax, int ymax) {
+		checkVariance();
+
+		double diff = sum(iImg, xmin, ymin, xmax, ymax);
+		double sqdiff = sum(iImgSq, xmin, ymin, xmax, ymax);
+
+		double area = (xmax - xmin + 1) * (ymax - ymin + 1);
+		return (sqdiff - (diff * diff) / area) / (area - 1);
+	}
+
+	@Override
+	public final void getRowStatistics(int y, int whalf, double[] mean, double[] stddev) {
+		getRowStatistics(y, whalf, mean, stddev, USE_ROW_KERNEL);
+	}
+
+	/**
+	 * As {@link #getRowStatistics(int, int, double[], double[])}, but selects the interior
+	 * kernel explicitly rather than by the {@link #ROW_KERNEL} property, so that the two
+	 * implementations can be compared in the same process.
+	 *
+	 * @param rowKernel <code>false</code> to clip every window individually, as when
+	 * 		{@link #ROW_KERNEL} is set to <code>scalar</code>.
+	 */
+	final void getRowStatistics(int y, int whalf, double[] mean, double[] stddev, boolean rowKernel) {
+		int ymin = Math.max(0, y - whalf);
+		int ymax = Math.min(height - 1, y + whalf);
+		if (stddev == null) {
+			rowMeans(ymin, ymax, whalf, mean);
+			return;
+		}
+
+		checkVariance();
+
+		// Columns [lo, hi] have windows that are not clipped horizontally and, when the
+		// window does not touch the top of the image, can use the branch-free kernel.
+		int lo = whalf + 1;
+		int hi = width - 1 - whalf;
+		if (rowKernel && ymin > 0 && lo <= hi) {
+			clippedRowStatistics(0, lo, whalf, ymin, ymax, mean, stddev);
+			interiorRowStatistics(lo, hi + 1, whalf, ymin, ymax, mean, stddev);
+			clippedRowStatistics(hi + 1, width, whalf, ymin, ymax, mean, stddev);
+		} else {
+			clippedRowStatistics(0, width, whalf, ymin, ymax, mean, stddev);
+		}
+	}
+
+	/**
+	 * Computes the window means for a row. The arithmetic is the same as
+	 * {@link #clippedRowStatistics} so the results are identical.
+	 */
+	private void rowMeans(int ymin, int ymax, int whalf, double[] mean) {
+		int rows = ymax - ymin + 1;
+		for (int x = 0; x < width; x++) {
+			int xmin = Math.max(0, x - whalf);
+			int xmax = Math.min(width - 1, x + whalf);
+
+			double area = (xmax - xmin + 1) * rows;
+			mean[x] = sum(iImg, xmin, ymin, xmax, ymax) / area;
+		}
+	}
+
+	/**
+	 * Computes window statistics for columns <code>[start, end)</code> of a row, clipping
+	 * each window to the bounds of the image.
+	 */
+	private void clippedRowStatistics(int start, int end, int whalf, int ymin, int ymax,
+			double[] mean, double[] stddev) {
+		int rows = ymax - ymin + 1;
+		int maxOffset = ymax * width;					// first pixel of the bottom row of the window
+		int refOffset = (ymin - 1) * width;				// first pixel of the row above the window
+
 		double diff;
 		double sqdiff;
-		double mean, var;
+		for (int x = start; x < end; x++) {
+			int xmin = Math.max(0, x - whalf);
+			int xmax = Math.min(width - 1, x + whalf);
+
+			int ixMax = maxOffset + xmax;				// lower right corner
+			if ((xmin == 0) && (ymin == 0)) {
+				diff = iImg[ixMax];
+				sqdiff = iImgSq[ixMax];
+
+			} else if (xmin == 0) {
+				int trRef = refOffset + xmax;
+				diff = iImg[ixMax] - iImg[trRef];
+				sqdiff = iImgSq[ixMax] - iImgSq[trRef];
+
+			} else if (ymin == 0) {
+				int blRef = maxOffset + xmin - 1;
+				diff = iImg[ixMax] - iImg[blRef];
+				sqdiff = iImgSq[ixMax] - iImgSq[blRef];
+
+			} else {
+				int tlRef = refOffset + xmin - 1;
+				int trRef = refOffset + xmax;
+				int blRef = maxOffset + xmin - 1;
+				double diagsum = iImg[ixMax] + iImg[tlRef];
+				double idiagsum = iImg[trRef] + iImg[blRef];
+				diff = diagsum - idiagsum;
+
+				double sqdiagsum  = iImgSq[ixMax] + iImgSq[tlRef];
+				double sqidiagsum = iImgSq[trRef] + iImgSq[blRef];
+				sqdiff = sqdiagsum - sqidiagsum;
+			}
+
+			double area = (xmax - xmin + 1) * rows;
+			mean[x] = diff / area;
+			stddev[x] = Math.sqrt((sqdiff - (diff * diff) / area) / (area - 1));
+		}
+	}
+
+	/**
+	 * Computes window statistics for columns <code>[start, end)</code> of a row whose
+	 * windows lie entirely inside the image and below its first row. Every window has the
+	 * same area and reads its four corners from four contiguous runs of the integral tables,
+	 * so the loop body has no branches and is a candidate for vectorization by the JIT. The
+	 * arithmetic is the same as {@link #clippedRowStatistics} so the results are identical.
+	 */
+	private void interiorRowStatistics(int start, int end, int whalf, int ymin, int ymax,
+			double[] mean, double[] stddev) {
+		final long[] iImg = this.iImg;
+		final long[] iImgSq = this.iImgSq;
 
+		final double area = (2 * whalf + 1) * (ymax - ymin + 1);
+		final double dof = area - 1;
+
+		int br = ymax * width + start + whalf;				// lower right corner
+		int bl = ymax * width + start - whalf - 1;			// just left of the lower left corner
+		int tr = (ymin - 1) * width + start + whalf;		// just above the upper right corner
+		int tl = (ymin - 1) * width + start - whalf - 1;	// diagonally outside the upper left corner
+		for (int x = start; x < end; x++, br++, bl++, tr++, tl++) {
+			double diff = (double)(iImg[br] + iImg[tl]) - (double)(iImg[tr] + iImg[bl]);
+			double sqdiff = (double)(iImgSq[br] + iImgSq[tl]) - (double)(iImgSq[tr] + iImgSq[bl]);
+
+			mean[x] = diff / area;
+			stddev[x] = Math.sqrt((sqdiff - (diff * diff) / area) / dof);
+		}
+	}
+
+	/**
+	 * Computes the sum of the values in the selected region of the supplied integral table.
+	 */
+	private double sum(long[] table, int xmin, int ymin, int xmax, int ymax) {
 		int ixMax = ymax * width + xmax;		// lower right corner
 		if ((xmin == 0) && (ymin == 0)) {               // Point at origin
-			diff = iImg[ixMax];
-			sqdiff = iImgSq[ixMax];
+			return table[ixMax];
 
 		} else if ((xmin == 0) && (ymin != 0)) {        // first row
 			int trRef = (ymin - 1) * width + xmax; 			// [xmax][ymin - 1] The point just above the top right corner
-			diff = iImg[ixMax] - iImg[trRef];
-			sqdiff = iImgSq[ixMax] - iImgSq[trRef];
+			return table[ixMax] - table[trRef];
 
 		} else if ((xmin != 0) && (ymin == 0)) {        // first column
 			int blRef = ymax * width + xmin - 1;			// [xmin - 1][ymax]
-			diff = iImg[ixMax] - iImg[blRef];
-			sqdiff = iImgSq[ixMax] - iImgSq[blRef];
+			return table[ixMax] - table[blRef];
 
 		} else {                                        // rest of the image
 			int tlRef = (ymin - 1) * width + xmin - 1;		// [xmin - 1][ymin - 1]
 			int trRef = (ymin - 1) * width + xmax; 			// [xmax][ymin - 1] The point just above the top right corner
 			int blRef = ymax * width + xmin - 1;			// [xmin - 1][ymax]
-			double diagsum = iImg[ixMax] + iImg[tlRef];
-			double idiagsum = iImg[trRef] + iImg[blRef];
-			diff = diagsum - idiagsum;
+			double diagsum = table[ixMax] + table[tlRef];
+			double idiagsum = table[trRef] + table[blRef];
+			return diagsum - idiagsum;
+		}
+	}
+
+	private void checkVariance() {
+		if (iImgSq == null)
+			throw new IllegalStateException("This integral image was built without the table of squared values");
+	}
 
-			double sqdiagsum  = iImgSq[ixMax] + iImgSq[tlRef];
-			double sqidiagsum = iImgSq[trRef] + iImgSq[blRef];
-			sqdiff = sqdiagsum - sqidiagsum;
+	/**
+	 * Accumulates the integral tables directly from running row sums, so no intermediate
+	 * arrays are allocated.
+	 */
+	static final class Builder implements IntegralImageBuilder
+	{
+		private final int w;
+		private final int h;
+		private final long[] integralImage;
+		private final long[] integralSqImage;
+		private int offset = 0;		// index of the first pixel in the next row. Will be y * w
+
+		/**
+		 * @param w The width of the image.
+		 * @param h The height of the image.
+		 * @param squares Whether to build the table of squared pixel values.
+		 */
+		Builder(int w, int h, boolean squares)
+		{
+			this.w = w;
+			this.h = h;
+			integralImage = new long[w * h];
+			integralSqImage = squares ? new long[w * h] : null;
 		}
 
-		double area = (xmax - xmin + 1) * (ymax - ymin + 1);
-		mean = diff / area;
-		var = (sqdiff - (diff * diff) / area) / (area - 1);
+		@Override
+		public void addRow(int[] raster, int rasterOffset)
+		{
+			long rowsum = 0;
+			long rowsumSq = 0;
+			for (int x = 0; x < w; x++) {
+				int ix = offset + x;
+				int s = raster[rasterOffset + x];
+				rowsum += s;
+				integralImage[ix] = offset == 0 ? rowsum : integralImage[ix - w] + rowsum;
+				if (integralSqImage != null) {
+					rowsumSq += s * s;
+					integralSqImage[ix] = offset == 0 ? rowsumSq : integralSqImage[ix - w] + rowsumSq;
+				}
+			}
+
+			offset += w;
+		}
 
-		return new double[] { mean, var };
+		@Override
+		public IntegralImageImpl build()
+		{
+			return new IntegralImageImpl(w, h, integralImage, integralSqImage);
+		}
 	}
 }
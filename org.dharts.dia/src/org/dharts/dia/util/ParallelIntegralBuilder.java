@@ -0,0 +1,317 @@
+package org.dharts.dia.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Builds integral images in parallel. The image is split into horizontal strips that are
+ * processed in three phases:
+ *
+ * <ol>
+ *   <li>In parallel, each strip reads its rows, converts them to gray and computes an
+ *       integral image that is local to the strip (the row prefix sums accumulated down the
+ *       strip).</li>
+ *   <li>Serially, the last row of each strip is combined with the carry of the strip above
+ *       to produce the column carry for the strip below. This touches only one row per
+ *       strip.</li>
+ *   <li>In parallel, each strip adds its column carry to every one of its rows.</li>
+ * </ol>
+ *
+ * The resulting tables are identical to those built serially.
+ */
+final class ParallelIntegralBuilder
+{
+	/**
+	 * Reads the image and builds its integral image.
+	 *
+	 * @param reader The reader for the source image.
+	 * @param raster The array to read the gray levels of the image into.
+	 * @param compact Whether to build a {@link CompactIntegralImage} rather than an
+	 * 		{@link IntegralImageImpl}.
+	 * @param squares Whether to build the table of squared pixel values.
+	 * @param ex The executor to run the strips on.
+	 * @return The integral image.
+	 * @throws InterruptedException If interrupted while waiting for the strips.
+	 */
+	static IntegralImage build(GrayscaleReader reader, int[] raster, boolean compact, boolean squares,
+			ExecutorService ex)
+			throws InterruptedException
+	{
+		int w = reader.getWidth();
+		int h = reader.getHeight();
+		int stripHeight = RowBands.defaultHeight(w, h, RowBands.INTEGRAL_BYTES_PER_PIXEL, ex);
+
+		return compact
+				? new IntStrips(reader, raster, stripHeight, squares).build(ex)
+				: new LongStrips(reader, raster, stripHeight, squares).build(ex);
+	}
+
+	/**
+	 * The common structure of the three phases. Subclasses implement the phases for a
+	 * particular table representation.
+	 */
+	private static abstract class Strips<T extends IntegralImage>
+	{
+		protected final GrayscaleReader reader;
+		protected final int[] raster;
+		protected final int w;
+		protected final int h;
+		protected final int stripHeight;
+		protected final int nStrips;
+
+		Strips(GrayscaleReader reader, int[] raster, int stripHeight)
+		{
+			this.reader = reader;
+			this.raster = raster;
+			this.w = reader.getWidth();
+			this.h = reader.getHeight();
+			this.stripHeight = stripHeight;
+			this.nStrips = (h + stripHeight - 1) / stripHeight;
+		}
+
+		final T build(ExecutorService ex) throws InterruptedException
+		{
+			List<Callable<Object>> local = new ArrayList<>(nStrips);
+			for (int s = 0; s < nStrips; s++) {
+				final int strip = s;
+				local.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						accumulateStrip(strip);
+						return null;
+					}
+				});
+			}
+			RowBands.invokeAll(ex, local);
+
+			computeCarries();
+
+			List<Callable<Object>> carry = new ArrayList<>(nStrips);
+			for (int s = 1; s < nStrips; s++) {
+				final int strip = s;
+				carry.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						applyCarry(strip);
+						return null;
+					}
+				});
+			}
+			RowBands.invokeAll(ex, carry);
+
+			return create();
+		}
+
+		final int firstRow(int strip)
+		{
+			return strip * stripHeight;
+		}
+
+		final int endRow(int strip)
+		{
+			return Math.min(h, (strip + 1) * stripHeight);
+		}
+
+		/** Phase one: reads the rows of a strip and computes its local integral tables. */
+		abstract void accumulateStrip(int strip);
+
+		/** Phase two: computes the column carry for every strip from the one above it. */
+		abstract void computeCarries();
+
+		/** Phase three: adds the column carry to every row of a strip. */
+		abstract void applyCarry(int strip);
+
+		abstract T create();
+	}
+
+	private static final class LongStrips extends Strips<IntegralImageImpl>
+	{
+		private final long[] iImg;
+		private final long[] iImgSq;
+		private final long[][] carry;
+		private final long[][] carrySq;
+
+		LongStrips(GrayscaleReader reader, int[] raster, int stripHeight, boolean squares)
+		{
+			super(reader, raster, stripHeight);
+			iImg = new long[w * h];
+			iImgSq = squares ? new long[w * h] : null;
+			carry = new long[nStrips][];
+			carrySq = new long[nStrips][];
+		}
+
+		@Override
+		void accumulateStrip(int strip)
+		{
+			int y0 = firstRow(strip);
+			int end = endRow(strip);
+			for (int y = y0; y < end; y++) {
+				int offset = y * w;
+				reader.readRow(y, raster, offset);
+
+				long rowsum = 0;
+				long rowsumSq = 0;
+				for (int x = 0; x < w; x++) {
+					int ix = offset + x;
+					int s = raster[ix];
+					rowsum += s;
+					iImg[ix] = y == y0 ? rowsum : iImg[ix - w] + rowsum;
+					if (iImgSq != null) {
+						rowsumSq += s * s;
+						iImgSq[ix] = y == y0 ? rowsumSq : iImgSq[ix - w] + rowsumSq;
+					}
+				}
+			}
+		}
+
+		@Override
+		void computeCarries()
+		{
+			for (int s = 1; s < nStrips; s++) {
+				int last = (endRow(s - 1) - 1) * w;		// last row of the strip above
+				long[] c = new long[w];
+				for (int x = 0; x < w; x++)
+					c[x] = iImg[last + x] + (s > 1 ? carry[s - 1][x] : 0);
+				carry[s] = c;
+
+				if (iImgSq != null) {
+					long[] cSq = new long[w];
+					for (int x = 0; x < w; x++)
+						cSq[x] = iImgSq[last + x] + (s > 1 ? carrySq[s - 1][x] : 0);
+					carrySq[s] = cSq;
+				}
+			}
+		}
+
+		@Override
+		void applyCarry(int strip)
+		{
+			long[] c = carry[strip];
+			long[] cSq = carrySq[strip];
+			int end = endRow(strip);
+			for (int y = firstRow(strip); y < end; y++) {
+				int offset = y * w;
+				for (int x = 0; x < w; x++)
+					iImg[offset + x] += c[x];
+
+				if (cSq != null) {
+					for (int x = 0; x < w; x++)
+						iImgSq[offset + x] += cSq[x];
+				}
+			}
+		}
+
+		@Override
+		IntegralImageImpl create()
+		{
+			return new IntegralImageImpl(w, h, iImg, iImgSq);
+		}
+	}
+
+	/**
+	 * Builds the tables of a {@link CompactIntegralImage}. The arithmetic wraps exactly as
+	 * it does when the tables are built serially, so the results are the same.
+	 */
+	private static final class IntStrips extends Strips<CompactIntegralImage>
+	{
+		private final int[] iImg;
+		private final int[] iImgSq;
+		private final int[][] carry;
+		private final int[][] carrySq;
+		private final int[] max;
+
+		IntStrips(GrayscaleReader reader, int[] raster, int stripHeight, boolean squares)
+		{
+			super(reader, raster, stripHeight);
+			iImg = new int[w * h];
+			iImgSq = squares ? new int[w * h] : null;
+			carry = new int[nStrips][];
+			carrySq = new int[nStrips][];
+			max = new int[nStrips];
+		}
+
+		@Override
+		void accumulateStrip(int strip)
+		{
+			int y0 = firstRow(strip);
+			int end = endRow(strip);
+			int m = 0;
+			for (int y = y0; y < end; y++) {
+				int offset = y * w;
+				reader.readRow(y, raster, offset);
+
+				int rowsum = 0;
+				int rowsumSq = 0;
+				for (int x = 0; x < w; x++) {
+					int ix = offset + x;
+					int s = raster[ix];
+					if (s > m)
+						m = s;
+
+					rowsum += s;
+					iImg[ix] = y == y0 ? rowsum : iImg[ix - w] + rowsum;
+					if (iImgSq != null) {
+						rowsumSq += s * s;
+						iImgSq[ix] = y == y0 ? rowsumSq : iImgSq[ix - w] + rowsumSq;
+					}
+				}
+			}
+
+			max[strip] = m;
+		}
+
+		@Override
+		void computeCarries()
+		{
+			for (int s = 1; s < nStrips; s++) {
+				int last = (endRow(s - 1) - 1) * w;		// last row of the strip above
+				int[] c = new int[w];
+				for (int x = 0; x < w; x++)
+					c[x] = iImg[last + x] + (s > 1 ? carry[s - 1][x] : 0);
+				carry[s] = c;
+
+				if (iImgSq != null) {
+					int[] cSq = new int[w];
+					for (int x = 0; x < w; x++)
+						cSq[x] = iImgSq[last + x] + (s > 1 ? carrySq[s - 1][x] : 0);
+					carrySq[s] = cSq;
+				}
+			}
+		}
+
+		@Override
+		void applyCarry(int strip)
+		{
+			int[] c = carry[strip];
+			int[] cSq = carrySq[strip];
+			int end = endRow(strip);
+			for (int y = firstRow(strip); y < end; y++) {
+				int offset = y * w;
+				for (int x = 0; x < w; x++)
+					iImg[offset + x] += c[x];
+
+				if (cSq != null) {
+					for (int x = 0; x < w; x++)
+						iImgSq[offset + x] += cSq[x];
+				}
+			}
+		}
+
+		@Override
+		CompactIntegralImage create()
+		{
+			int m = 0;
+			for (int v : max)
+				m = Math.max(m, v);
+
+			return new CompactIntegralImage(w, h, iImg, iImgSq, m);
+		}
+	}
+
+	// Static methods only. Should not be instantiated.
+	private ParallelIntegralBuilder() {
+
+	}
+}
@@ -0,0 +1,143 @@
+package org.dharts.dia.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Utilities for partitioning an image into horizontal bands of rows that can be processed
+ * independently and for running the resulting tasks on an <code>ExecutorService</code>.
+ *
+ * <p>
+ * Bands are sized so that the data touched while processing a band fits comfortably in a
+ * per-core cache while still producing several bands per worker thread, so that uneven
+ * bands do not leave threads idle.
+ */
+public final class RowBands
+{
+	/** The approximate number of bytes of working data a single band should touch. */
+	public static final int CACHE_BYTES = 256 * 1024;
+
+	/**
+	 * The number of bytes per pixel touched by passes that read a gray raster together with
+	 * both tables of an {@link IntegralImageImpl}, which dominate the working data of the
+	 * window-statistics thresholders.
+	 */
+	public static final int INTEGRAL_BYTES_PER_PIXEL = 4 + 8 + 8;
+
+	/** The minimum number of bands to create for each worker thread. */
+	private static final int BANDS_PER_THREAD = 4;
+
+	/**
+	 * Computes a default band height for an image that will be processed on the supplied
+	 * executor. See {@link #defaultHeight(int, int, int, int)}.
+	 *
+	 * @param width The width of the image in pixels.
+	 * @param height The height of the image in pixels.
+	 * @param bytesPerPixel The number of bytes read and written per pixel while processing
+	 * 		a band.
+	 * @param ex The executor that will process the bands.
+	 * @return The number of rows to include in each band. Will be at least one.
+	 */
+	public static int defaultHeight(int width, int height, int bytesPerPixel, ExecutorService ex)
+	{
+		return defaultHeight(width, height, bytesPerPixel, parallelism(ex));
+	}
+
+	/**
+	 * Computes a default band height for an image.
+	 *
+	 * @param width The width of the image in pixels.
+	 * @param height The height of the image in pixels.
+	 * @param bytesPerPixel The number of bytes read and written per pixel while processing
+	 * 		a band. Used to estimate the cache footprint of a band.
+	 * @param parallelism The number of worker threads that will process the bands.
+	 * @return The number of rows to include in each band. Will be at least one.
+	 */
+	public static int defaultHeight(int width, int height, int bytesPerPixel, int parallelism)
+	{
+		long rowBytes = Math.max(1L, (long)width * bytesPerPixel);
+		int cacheRows = (int)Math.max(1L, CACHE_BYTES / rowBytes);
+
+		int nBands = Math.max(1, parallelism) * BANDS_PER_THREAD;
+		int balancedRows = Math.max(1, (height + nBands - 1) / nBands);
+
+		return Math.min(cacheRows, balancedRows);
+	}
+
+	/**
+	 * Returns the number of threads that are expected to execute tasks submitted to the
+	 * supplied executor.
+	 *
+	 * @param ex The executor.
+	 * @return The parallelism of the executor, if it can be determined, or the number of
+	 * 		available processors otherwise.
+	 */
+	public static int parallelism(ExecutorService ex)
+	{
+		if (ex instanceof ForkJoinPool)
+			return ((ForkJoinPool)ex).getParallelism();
+		if (ex instanceof ThreadPoolExecutor)
+			return Math.max(1, ((ThreadPoolExecutor)ex).getMaximumPoolSize());
+
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Checks the executor supplied to the constructor of a class that processes images in
+	 * bands.
+	 *
+	 * @param ex The executor.
+	 * @return The executor.
+	 * @throws NullPointerException If the executor is <code>null</code>.
+	 */
+	public static ExecutorService requireExecutor(ExecutorService ex)
+	{
+		if (ex == null)
+			throw new NullPointerException("No executor supplied");
+
+		return ex;
+	}
+
+	/**
+	 * Executes the supplied tasks and waits for all of them to complete.
+	 *
+	 * @param ex The executor to run the tasks on.
+	 * @param tasks The tasks to run.
+	 * @return The results of the tasks, in the order in which the tasks were supplied.
+	 * @throws InterruptedException If interrupted while waiting for the tasks to complete.
+	 * @throws IllegalStateException If one of the tasks failed with a checked exception.
+	 * 		Unchecked exceptions and errors thrown by a task are rethrown as is.
+	 */
+	public static <T> List<T> invokeAll(ExecutorService ex, List<? extends Callable<T>> tasks)
+			throws InterruptedException
+	{
+		List<T> results = new ArrayList<>(tasks.size());
+		for (Future<T> f : ex.invokeAll(tasks))
+		{
+			try {
+				results.add(f.get());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException)cause;
+				if (cause instanceof Error)
+					throw (Error)cause;
+
+				throw new IllegalStateException("Could not process image", cause);
+			}
+		}
+
+		return results;
+	}
+
+	// Static methods only. Should not be instantiated.
+	private RowBands() {
+
+	}
+}